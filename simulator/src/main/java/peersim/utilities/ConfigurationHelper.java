@@ -56,6 +56,19 @@ public final class ConfigurationHelper {
         return Configuration.getBoolean(prefix + SEPARATOR + parameter, defaultValue);
     }
 
+    /**
+     * Read the configuration value with the given prefix and name as a string
+     * or return the default value if the key is not present.
+     *
+     * @param prefix       Prefix of the parameter.
+     * @param parameter    Parameter to read.
+     * @param defaultValue Default value for the parameter.
+     * @return Value of the parameter in the configuration or default value, if not set.
+     */
+    public static String readString(String prefix, String parameter, String defaultValue) {
+        return Configuration.getString(prefix + SEPARATOR + parameter, defaultValue);
+    }
+
     /**
      * Read the configuration value with the given prefix and name as an integer
      * or return the default value if the key is not present.
@@ -81,4 +94,17 @@ public final class ConfigurationHelper {
     public static long readLong(String prefix, String parameter, long defaultValue) {
         return Configuration.getLong(prefix + SEPARATOR + parameter, defaultValue);
     }
+
+    /**
+     * Read the configuration value with the given prefix and name as a double
+     * or return the default value if the key is not present.
+     *
+     * @param prefix       Prefix of the parameter.
+     * @param parameter    Parameter to read.
+     * @param defaultValue Default value for the parameter.
+     * @return Value of the parameter in the configuration or default value, if not set.
+     */
+    public static double readDouble(String prefix, String parameter, double defaultValue) {
+        return Configuration.getDouble(prefix + SEPARATOR + parameter, defaultValue);
+    }
 }
@@ -34,7 +34,7 @@ public final class Distributions {
      * @param mean Mean of the exponential distribution.
      * @return Value of the random variable.
      */
-    static double nextExponential(double mean) {
+    public static double nextExponential(double mean) {
         final double lambda = 1 / mean;
         return Math.log(1 - CommonState.r.nextDouble()) / (-lambda);
     }
@@ -54,4 +54,18 @@ public final class Distributions {
         }
         return round;
     }
+
+    /**
+     * Generate a new random variable from a Pareto distribution with the given mean and shape.
+     * The scale of the distribution is chosen to obtain the requested mean.
+     *
+     * @param mean  Mean of the Pareto distribution.
+     * @param shape Shape of the Pareto distribution (must be greater than 1 for the mean to exist).
+     * @return Value of the random variable.
+     */
+    public static double nextPareto(double mean, double shape) {
+        assert shape > 1 : "The mean of a Pareto distribution is defined only for shape > 1.";
+        final double scale = mean * (shape - 1) / shape;
+        return scale / Math.pow(1 - CommonState.r.nextDouble(), 1 / shape);
+    }
 }
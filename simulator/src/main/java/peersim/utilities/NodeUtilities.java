@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package peersim.utilities;
+
+import peersim.core.Node;
+
+/**
+ * Utilities to work with the {@link Node}s of PeerSim.
+ */
+public final class NodeUtilities {
+
+    // prevent class construction
+    private NodeUtilities() {
+    }
+
+    /**
+     * Key of the given node, to be used in the primitive collections indexed by node.
+     * Node IDs are stable, while node indexes change when other nodes are removed from the network.
+     *
+     * @param node Node.
+     * @return Key of the node, i.e. its ID as an integer.
+     */
+    public static int key(Node node) {
+        assert node.getID() >= 0 && node.getID() <= Integer.MAX_VALUE : "Node IDs are expected to fit in an integer.";
+        return (int) node.getID();
+    }
+}
@@ -142,7 +142,7 @@ public final class BalanceAttackTransport implements Transport {
      * @param node Node.
      * @return Partition to which the node belongs.
      */
-    private long partition(Node node) {
+    public long partition(Node node) {
         return node.getID() / partitions;
     }
 }
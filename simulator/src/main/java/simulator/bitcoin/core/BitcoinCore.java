@@ -25,21 +25,25 @@ import peersim.edsim.EDProtocol;
 import peersim.edsim.EDSimulator;
 import peersim.utilities.Distributions;
 import simulator.bitcoin.core.events.BlockFoundEvent;
+import simulator.bitcoin.core.events.ReconciliationEvent;
+import simulator.bitcoin.core.events.SyncEvent;
+import simulator.bitcoin.core.events.TransactionArrivalEvent;
+import simulator.bitcoin.core.events.TrickleEvent;
 import simulator.bitcoin.core.messages.*;
 import simulator.bitcoin.core.model.*;
 import simulator.bitcoin.initializers.StartEvent;
+import simulator.bitcoin.topology.BitcoinTopology;
 import simulator.collections.CircularQueue;
 import simulator.collections.IntList;
-
-import java.util.BitSet;
-import java.util.LinkedList;
-import java.util.List;
+import simulator.collections.SlidingBitSet;
 
 import static peersim.utilities.ConfigurationHelper.readInt;
 import static peersim.utilities.ConfigurationHelper.readLong;
+import static peersim.utilities.ConfigurationHelper.readString;
 import static peersim.utilities.NetworkUtilities.broadcast;
 import static peersim.utilities.NetworkUtilities.send;
 import static peersim.utilities.TimeUnits.MINUTES;
+import static peersim.utilities.TimeUnits.SECONDS;
 
 /**
  * Bitcoin core protocol to handle transactions, blocks and mining.
@@ -49,23 +53,67 @@ public final class BitcoinCore implements EDProtocol {
     // parameters
     private static final String PARAM_MEAN = "mean";
     private static final String PARAM_BLOCK_SIZE = "block_size";
+    private static final String PARAM_TX_RELAY = "tx_relay";
+    private static final String PARAM_TRICKLE_INBOUND = "trickle_inbound";
+    private static final String PARAM_TRICKLE_OUTBOUND = "trickle_outbound";
+    private static final String PARAM_RECONCILIATION_INTERVAL = "reconciliation_interval";
+    private static final String PARAM_PRUNE_DEPTH = "prune_depth";
 
     // default configuration
     private static final long DEFAULT_MEAN = 10L * MINUTES;
     private static final int DEFAULT_BLOCK_SIZE = 20;
+    private static final String DEFAULT_TX_RELAY = "flood";
+    private static final long DEFAULT_TRICKLE_INBOUND = 5L * SECONDS;
+    private static final long DEFAULT_TRICKLE_OUTBOUND = 2L * SECONDS;
+    private static final long DEFAULT_RECONCILIATION_INTERVAL = SECONDS;
+    private static final int DEFAULT_PRUNE_DEPTH = 0;
+
+    // maximum number of blocks announced in reply to a GetBlocks message (same as Bitcoin Core)
+    private static final int MAX_BLOCKS_INV = 500;
+
+    // interval between the checks of a joining node for its first outgoing connection
+    private static final long SYNC_INTERVAL = SECONDS;
+    private static final int NO_BLOCK = -1;
 
     // configuration actual values, extracted from configuration and defaults
     private final long mean;
     private final int maxBlockSize;
+    private final TxRelay txRelay;
+    private final long trickleInbound;
+    private final long trickleOutbound;
+    private final long reconciliationInterval;
+
+    // metrics
+    private long txMessages;
+    private long txAnnouncements;
+    private long reconciliations;
+    private long reconciliationsFailed;
+    private long sketchCapacity;
+    private long reconciliationRoundTrips;
+    private long droppedMessages;
 
     // current status of the protocol
-    private final Blockchain blockchain;
-    private final BitSet knownTransactions;
+    private Blockchain blockchain;
+    private final SlidingBitSet knownTransactions;
+    private final Mempool mempool;
     private Block miningFromBlock;
     private BlockFoundEvent lastBlockFoundEvent;
     private final CircularQueue<Block> blocksToProcess;
-    private final BitSet gossipedBlocks;
-    private final BitSet gossipedTransactions;
+
+    // last block of a full inventory (see #MAX_BLOCKS_INV) and the peer that sent it:
+    // once the block is received, the following ones are requested to the same peer
+    private int continueBlock;
+    private Node continuePeer;
+
+    // transactions waiting for the next trickle, for inbound and outbound connections
+    // NB: all connections with the same direction share the same timer, so they also share the same queue
+    private final TrickleQueue inboundTxQueue;
+    private final TrickleQueue outboundTxQueue;
+    private boolean inboundTrickleScheduled;
+    private boolean outboundTrickleScheduled;
+
+    // index of the next outbound peer to reconcile the transactions with (round robin)
+    private int nextReconciliationPeer;
 
     /**
      * Default constructor, following the PeerSim conventions.
@@ -78,15 +126,37 @@ public final class BitcoinCore implements EDProtocol {
         // read configuration
         this.mean = readLong(prefix, PARAM_MEAN, DEFAULT_MEAN);
         this.maxBlockSize = readInt(prefix, PARAM_BLOCK_SIZE, DEFAULT_BLOCK_SIZE);
+        this.txRelay = TxRelay.parse(readString(prefix, PARAM_TX_RELAY, DEFAULT_TX_RELAY));
+        this.trickleInbound = readLong(prefix, PARAM_TRICKLE_INBOUND, DEFAULT_TRICKLE_INBOUND);
+        this.trickleOutbound = readLong(prefix, PARAM_TRICKLE_OUTBOUND, DEFAULT_TRICKLE_OUTBOUND);
+        this.reconciliationInterval = readLong(prefix, PARAM_RECONCILIATION_INTERVAL, DEFAULT_RECONCILIATION_INTERVAL);
+        final int pruneDepth = readInt(prefix, PARAM_PRUNE_DEPTH, DEFAULT_PRUNE_DEPTH);
 
         // status
-        this.blockchain = new Blockchain(Blocks.GENESIS);
-        this.knownTransactions = new BitSet();
-        this.miningFromBlock = Blocks.GENESIS;
+        this.blockchain = new Blockchain(Blocks.getGenesis(), pruneDepth);
+        this.knownTransactions = new SlidingBitSet(true);
+        this.mempool = new Mempool();
+        this.miningFromBlock = Blocks.getGenesis();
         this.blocksToProcess = new CircularQueue<>();
         this.lastBlockFoundEvent = null;
-        this.gossipedBlocks = new BitSet();
-        this.gossipedTransactions = new BitSet();
+        this.continueBlock = NO_BLOCK;
+        this.continuePeer = null;
+        this.inboundTxQueue = new TrickleQueue();
+        this.outboundTxQueue = new TrickleQueue();
+        this.inboundTrickleScheduled = false;
+        this.outboundTrickleScheduled = false;
+        this.nextReconciliationPeer = 0;
+
+        // metrics: keep track of the messages used to relay transactions
+        this.txMessages = 0;
+        this.txAnnouncements = 0;
+        this.reconciliations = 0;
+        this.reconciliationsFailed = 0;
+        this.sketchCapacity = 0;
+        this.reconciliationRoundTrips = 0;
+
+        // metrics: keep track of the replies dropped because the connection was closed in the meantime
+        this.droppedMessages = 0;
     }
 
     /**
@@ -97,19 +167,53 @@ public final class BitcoinCore implements EDProtocol {
     private BitcoinCore(BitcoinCore original) {
         this.mean = original.mean;
         this.maxBlockSize = original.maxBlockSize;
-        this.blockchain = new Blockchain(original.blockchain);
-        this.knownTransactions = (BitSet) original.knownTransactions.clone();
-        this.miningFromBlock = original.miningFromBlock;
+        this.txRelay = original.txRelay;
+        this.trickleInbound = original.trickleInbound;
+        this.trickleOutbound = original.trickleOutbound;
+        this.reconciliationInterval = original.reconciliationInterval;
+        this.txMessages = original.txMessages;
+        this.txAnnouncements = original.txAnnouncements;
+        this.reconciliations = original.reconciliations;
+        this.reconciliationsFailed = original.reconciliationsFailed;
+        this.sketchCapacity = original.sketchCapacity;
+        this.reconciliationRoundTrips = original.reconciliationRoundTrips;
+        this.droppedMessages = original.droppedMessages;
+        this.knownTransactions = new SlidingBitSet(original.knownTransactions);
+        this.mempool = new Mempool(original.mempool);
+
+        // NB: nodes joining the network later are cloned from the prototype, which only knows the genesis:
+        // the finalized blocks are not available anymore, so the new nodes start from the root of the blockchain
+        // and download the following blocks from their first peer (see #onSyncEvent)
+        final Block root = Blocks.getRoot();
+        if (!original.blockchain.hasBlock(root.id)) {
+            this.blockchain = new Blockchain(root, original.blockchain.getPruneDepth());
+            this.miningFromBlock = root;
+        } else {
+            this.blockchain = new Blockchain(original.blockchain);
+            this.miningFromBlock = original.miningFromBlock;
+        }
         this.lastBlockFoundEvent = original.lastBlockFoundEvent;
         this.blocksToProcess = new CircularQueue<>(original.blocksToProcess);
-        this.gossipedBlocks = (BitSet) original.gossipedBlocks.clone();
-        this.gossipedTransactions = (BitSet) original.gossipedTransactions.clone();
+        this.continueBlock = original.continueBlock;
+        this.continuePeer = original.continuePeer;
+        this.inboundTxQueue = new TrickleQueue(original.inboundTxQueue);
+        this.outboundTxQueue = new TrickleQueue(original.outboundTxQueue);
+        this.inboundTrickleScheduled = original.inboundTrickleScheduled;
+        this.outboundTrickleScheduled = original.outboundTrickleScheduled;
+        this.nextReconciliationPeer = original.nextReconciliationPeer;
     }
 
-    private static void sendCheckLinkable(Node from, Node to, int pid, Object message) {
+    /**
+     * Send a message to a neighbour. NB: with churn, the connection may have been closed while the request
+     * of the neighbour was traveling, in this case the message is dropped and counted in the metrics.
+     */
+    private void sendCheckLinkable(Node from, Node to, int pid, Object message) {
         final Linkable linkable = (Linkable) from.getProtocol(FastConfig.getLinkable(pid));
-        assert linkable.contains(to);
-        send(from, to, pid, message);
+        if (linkable.contains(to)) {
+            send(from, to, pid, message);
+        } else {
+            droppedMessages++;
+        }
     }
 
     @Override
@@ -118,6 +222,19 @@ public final class BitcoinCore implements EDProtocol {
         return new BitcoinCore(this);
     }
 
+    /**
+     * Restart the blockchain of this node from the current genesis. The nodes are created before the
+     * initializers run, so {@link simulator.bitcoin.core.initializers.BlocksInitializer} calls this method
+     * after creating a new genesis.
+     */
+    public void reset() {
+        final Block genesis = Blocks.getGenesis();
+        this.blockchain = new Blockchain(genesis, blockchain.getPruneDepth());
+        this.miningFromBlock = genesis;
+        this.continueBlock = NO_BLOCK;
+        this.continuePeer = null;
+    }
+
 
     // ------------------------------------------------------------------------------
     //  Events
@@ -137,11 +254,27 @@ public final class BitcoinCore implements EDProtocol {
             onBlockMessage(me, pid, (BlockMessage) event);
         } else if (event instanceof TxMessage) {
             onTxMessage(me, pid, (TxMessage) event);
+        } else if (event instanceof TxInvMessage) {
+            onTxInvMessage(me, pid, (TxInvMessage) event);
+        } else if (event instanceof ReqReconMessage) {
+            onReqReconMessage(me, pid, (ReqReconMessage) event);
+        } else if (event instanceof SketchMessage) {
+            onSketchMessage(me, pid, (SketchMessage) event);
+        } else if (event instanceof ReconcilDiffMessage) {
+            onReconcilDiffMessage(me, pid, (ReconcilDiffMessage) event);
         }
 
         // events
         else if (event instanceof BlockFoundEvent) {
             onBlockFoundEvent(me, pid, (BlockFoundEvent) event);
+        } else if (event instanceof TrickleEvent) {
+            onTrickleEvent(me, pid, (TrickleEvent) event);
+        } else if (event instanceof ReconciliationEvent) {
+            onReconciliationEvent(me, pid);
+        } else if (event instanceof SyncEvent) {
+            onSyncEvent(me, pid);
+        } else if (event instanceof TransactionArrivalEvent) {
+            onTransactionArrivalEvent(me, pid);
         } else if (event instanceof StartEvent) {
             onStart(me, pid);
         }
@@ -154,10 +287,33 @@ public final class BitcoinCore implements EDProtocol {
 
     /**
      * This method is invoked once the simulator hasBlock been bootstrap and is ready to run the simulation.
-     * We start to simulate the mining process here.
+     * We start to simulate the mining process here. The reconciliation timer is started only if needed,
+     * since it runs for the entire simulation. The initial nodes start together from the genesis,
+     * while the nodes that join the network later need to download the blockchain.
      */
     private void onStart(Node me, int pid) {
         scheduleNextBlockMining(me, pid);
+        if (txRelay == TxRelay.RECONCILIATION && Transactions.isEnabled()) {
+            scheduleNextReconciliation(me, pid);
+        }
+        if (CommonState.getTime() > 0) {
+            EDSimulator.add(SYNC_INTERVAL, SyncEvent.INSTANCE, me, pid);
+        }
+    }
+
+    /**
+     * A node that joined the network requests the blocks it is missing to its first outbound peer,
+     * as soon as the handshake is complete, as done by Bitcoin Core during the initial block download.
+     * The connections are handled by the topology protocol, so the node periodically checks for them.
+     */
+    private void onSyncEvent(Node me, int pid) {
+        final Linkable linkable = (Linkable) me.getProtocol(FastConfig.getLinkable(pid));
+        if (degreeOutgoing(linkable) > 0) {
+            final GetBlocksMessage message = new GetBlocksMessage(me, Blocks.locator(blockchain.longestFork()));
+            send(me, linkable.getNeighbor(0), pid, message);
+        } else {
+            EDSimulator.add(SYNC_INTERVAL, SyncEvent.INSTANCE, me, pid);
+        }
     }
 
     /**
@@ -170,11 +326,87 @@ public final class BitcoinCore implements EDProtocol {
         if (event == lastBlockFoundEvent) {
             final Block block = Blocks.nextBlock(event.previous, event.transactions, CommonState.getTime());
             addToBlockchain(me, pid, block);
-            gossipBlock(me, pid, block);
             scheduleNextBlockMining(me, pid);
         }
     }
 
+    /**
+     * The trickle timer of the inbound or outbound connections expired: all transactions queued
+     * since the last flush are announced with a single {@link TxInvMessage} to each peer,
+     * except the ones learned from the peer itself.
+     */
+    private void onTrickleEvent(Node me, int pid, TrickleEvent event) {
+        final TrickleQueue queue;
+        final int from;
+        final int to;
+        final Linkable linkable = (Linkable) me.getProtocol(FastConfig.getLinkable(pid));
+        final int outgoing = degreeOutgoing(linkable);
+        if (event.outbound) {
+            queue = outboundTxQueue;
+            outboundTrickleScheduled = false;
+            from = 0;
+            to = outgoing;
+        } else {
+            queue = inboundTxQueue;
+            inboundTrickleScheduled = false;
+            from = outgoing;
+            to = linkable.degree();
+        }
+
+        // the same message instance is shared by all peers that did not send any of the queued transactions
+        // NB: if there are no peers in this direction, the queued announcements are simply dropped
+        if (from < to) {
+            final TxInvMessage shared = new TxInvMessage(me, queue.toArray());
+            for (int i = from; i < to; i++) {
+                final Node peer = linkable.getNeighbor(i);
+                final int[] transactions = queue.toArray(peer.getID());
+                if (transactions == null) {
+                    send(me, peer, pid, shared);
+                    txMessages++;
+                    txAnnouncements += shared.transactions.length;
+                } else if (transactions.length > 0) {
+                    send(me, peer, pid, new TxInvMessage(me, transactions));
+                    txMessages++;
+                    txAnnouncements += transactions.length;
+                }
+            }
+        }
+        queue.clear();
+    }
+
+    /**
+     * A user generated a new transaction and sent it to this node: the node handles it as a {@link TxMessage}.
+     */
+    private void onTransactionArrivalEvent(Node me, int pid) {
+        final int transaction = Transactions.nextTransaction(CommonState.getTime());
+        onTxMessage(me, pid, new TxMessage(transaction));
+    }
+
+    /**
+     * Schedule the next reconciliation round with one of the outbound peers.
+     */
+    private void scheduleNextReconciliation(Node me, int pid) {
+        EDSimulator.add(reconciliationInterval, ReconciliationEvent.INSTANCE, me, pid);
+    }
+
+    /**
+     * Periodically, the node reconciles its known transactions with one of its outbound peers, selected in
+     * round robin. Inbound peers are not contacted: they reconcile with this node using their own timers.
+     */
+    private void onReconciliationEvent(Node me, int pid) {
+        final Linkable linkable = (Linkable) me.getProtocol(FastConfig.getLinkable(pid));
+        final int outgoing = degreeOutgoing(linkable);
+        if (outgoing > 0) {
+            final Node peer = linkable.getNeighbor(nextReconciliationPeer % outgoing);
+            nextReconciliationPeer = (nextReconciliationPeer + 1) % outgoing;
+            final int watermark = Reconciliation.watermark(knownTransactions);
+            final int setSize = knownTransactions.cardinality() - watermark;
+            sendCheckLinkable(me, peer, pid, new ReqReconMessage(me, watermark, setSize));
+            txMessages++;
+        }
+        scheduleNextReconciliation(me, pid);
+    }
+
 
     // ------------------------------------------------------------------------------
     //  Messages
@@ -196,21 +428,14 @@ public final class BitcoinCore implements EDProtocol {
 
     /**
      * On a {@link GetBlocksMessage}, the node replies with the an {@link InvMessage}
-     * containing the list of requested block headers.
+     * containing the blocks after the last common block in the locator.
      */
     private void onGetBlocksMessage(Node me, int pid, GetBlocksMessage message) {
 
-        // query the blockchain and getBlock all descendants of the requested block hashes
-        final List<Block> replyBlocks = new LinkedList<>();
-        final int[] blockIDs = message.blockHeaders;
-        for (int id : blockIDs) {
-            final Block block = blockchain.getBlock(id);
-            final List<Block> descendants = blockchain.descendants(block != null ? block : Blocks.GENESIS);
-            replyBlocks.addAll(descendants);
-        }
-
-        // extract the block headers
-        final int[] replyBlockHeaders = replyBlocks.stream().mapToInt(block -> block.id).toArray();
+        // find where the chain of the sender forked from the local one and getBlock its descendants
+        final Block fork = blockchain.findFork(message.blockHeaders);
+        final IntList replyBlockHeaders = new IntList();
+        blockchain.descendants(fork, replyBlockHeaders, MAX_BLOCKS_INV);
 
         // reply to the node with an Inv message
         final InvMessage invMessage = new InvMessage(me, replyBlockHeaders);
@@ -220,11 +445,13 @@ public final class BitcoinCore implements EDProtocol {
     /**
      * On a {@link InvMessage}, the node checks the received inventory against the
      * local knowledge and request any missing block / transaction if needed.
+     * A full inventory means that the peer may have more blocks: as done by Bitcoin Core,
+     * the node asks for them once it has received the last block of the inventory.
      */
     private void onInvMessage(Node me, int pid, InvMessage message) {
         final IntList queue = new IntList();
-        final int[] blockIDs = message.headers;
-        for (int id : blockIDs) {
+        for (int i = 0; i < message.headers.size(); i++) {
+            final int id = message.headers.get(i);
             if (!blockchain.hasBlock(id)) {
                 queue.add(id);
             }
@@ -233,6 +460,11 @@ public final class BitcoinCore implements EDProtocol {
             final GetDataMessage getDataMessage = new GetDataMessage(me, queue);
             sendCheckLinkable(me, message.sender, pid, getDataMessage);
         }
+        if (message.headers.size() == MAX_BLOCKS_INV) {
+            continueBlock = message.headers.get(MAX_BLOCKS_INV - 1);
+            continuePeer = message.sender;
+            continueBlockDownloadIfNeeded(me, pid);
+        }
     }
 
     /**
@@ -242,8 +474,10 @@ public final class BitcoinCore implements EDProtocol {
     private void onGetDataMessage(Node me, int pid, GetDataMessage message) {
         for (int i = 0; i < message.headers.size(); i++) {
             final int id = message.headers.get(i);
-            if (blockchain.hasBlock(id)) {
-                final BlockMessage blockMessage = new BlockMessage(blockchain.getBlock(id));
+            // NB: archived blocks are known, but they are never sent
+            final Block block = blockchain.getBlock(id);
+            if (block != null) {
+                final BlockMessage blockMessage = new BlockMessage(block);
                 sendCheckLinkable(me, message.sender, pid, blockMessage);
             }
         }
@@ -255,16 +489,134 @@ public final class BitcoinCore implements EDProtocol {
      */
     private void onBlockMessage(Node me, int pid, BlockMessage message) {
         addToBlockchain(me, pid, message.block);
+        continueBlockDownloadIfNeeded(me, pid);
         restartMiningIfNeeded(me, pid);
     }
 
     /**
      * On a {@link TxMessage}, the node adds it to the list of transactions to process
-     * and broadcasts it to all other nodes, if not done yet.
+     * and relays it to all other nodes, if not done yet.
      */
     private void onTxMessage(Node me, int pid, TxMessage message) {
-        knownTransactions.set(message.transaction.id, true);
-        gossipTransaction(me, pid, message);
+        if (txRelay == TxRelay.FLOOD) {
+            if (learnTransaction(message.transaction)) {
+                gossipTransaction(me, pid, message);
+            }
+        } else {
+            announceTransaction(me, pid, message.transaction, TrickleQueue.NO_SOURCE);
+        }
+    }
+
+    /**
+     * On a {@link TxInvMessage}, the node learns all transactions announced by the peer
+     * and queues the new ones for the next trickle of its own connections.
+     */
+    private void onTxInvMessage(Node me, int pid, TxInvMessage message) {
+        for (int id : message.transactions) {
+            announceTransaction(me, pid, id, message.sender.getID());
+        }
+    }
+
+    /**
+     * On a {@link ReqReconMessage}, the node replies with a sketch of the transactions it knows
+     * above the watermark of the requester.
+     */
+    private void onReqReconMessage(Node me, int pid, ReqReconMessage message) {
+        final int[] transactions = Reconciliation.knownAbove(knownTransactions, message.watermark);
+        final int capacity = Reconciliation.capacity(transactions.length, message.setSize);
+        final SketchMessage sketch = new SketchMessage(me, message.watermark, capacity, transactions);
+        sendCheckLinkable(me, message.sender, pid, sketch);
+        txMessages++;
+        sketchCapacity += capacity;
+    }
+
+    /**
+     * On a {@link SketchMessage}, the node computes the difference between the known transactions of the two peers:
+     * it learns the transactions it is missing and sends back the ones missing to the peer.
+     * If the difference is larger than the capacity of the sketch, the decoding of a real sketch would fail:
+     * we count the failure and then proceed as Erlay does when it falls back to a full exchange of the sets.
+     */
+    private void onSketchMessage(Node me, int pid, SketchMessage message) {
+        final int[] remote = message.transactions;
+        final IntList missingRemote = new IntList();
+
+        // NB: we need to compute the difference before learning the new transactions
+        final int missingLocal = Reconciliation.difference(knownTransactions, message.watermark, remote, missingRemote);
+        for (int transaction : remote) {
+            announceTransaction(me, pid, transaction, message.sender.getID());
+        }
+
+        // push the missing transactions to the peer
+        if (!missingRemote.isEmpty()) {
+            sendCheckLinkable(me, message.sender, pid, new ReconcilDiffMessage(me, missingRemote.toArray()));
+            txMessages++;
+            txAnnouncements += missingRemote.size();
+        }
+
+        // update metrics: fetching the transactions missing locally requires an extra round trip
+        reconciliations++;
+        reconciliationRoundTrips += missingLocal > 0 ? 2 : 1;
+        if (missingLocal + missingRemote.size() > message.capacity) {
+            reconciliationsFailed++;
+        }
+    }
+
+    /**
+     * On a {@link ReconcilDiffMessage}, the node learns the transactions it was missing.
+     */
+    private void onReconcilDiffMessage(Node me, int pid, ReconcilDiffMessage message) {
+        for (int id : message.transactions) {
+            announceTransaction(me, pid, id, message.sender.getID());
+        }
+    }
+
+    /**
+     * @return Number of messages used to relay transactions.
+     */
+    public long txMessages() {
+        return txMessages;
+    }
+
+    /**
+     * @return Number of transaction IDs sent to the peers (one message can carry many of them).
+     */
+    public long txAnnouncements() {
+        return txAnnouncements;
+    }
+
+    /**
+     * @return Number of reconciliation rounds initiated by this node.
+     */
+    public long reconciliations() {
+        return reconciliations;
+    }
+
+    /**
+     * @return Number of reconciliation rounds whose set difference exceeded the capacity of the sketch.
+     */
+    public long reconciliationsFailed() {
+        return reconciliationsFailed;
+    }
+
+    /**
+     * @return Total capacity of the sketches sent by this node (number of elements).
+     */
+    public long sketchCapacity() {
+        return sketchCapacity;
+    }
+
+    /**
+     * @return Number of round trips used by the reconciliation rounds initiated by this node.
+     */
+    public long reconciliationRoundTrips() {
+        return reconciliationRoundTrips;
+    }
+
+    /**
+     * @return Number of messages not sent because the connection to the peer was closed in the meantime.
+     */
+    public long droppedMessages() {
+        return droppedMessages;
     }
 
     /**
@@ -280,24 +632,10 @@ public final class BitcoinCore implements EDProtocol {
 
     /**
      * Select the transactions to insert in the new block from those that are
-     * known but not yet stored in the blockchain.
+     * known but not yet stored in the blockchain, i.e. the ones in the mempool.
      */
     private TransactionsWrapper selectNextTransactions() {
-        final TransactionsWrapper wrapper = new TransactionsWrapper(maxBlockSize);
-        int count = 0;
-        int i = 0;
-        while (count < maxBlockSize && i < knownTransactions.length()) {
-            final boolean isKnown = knownTransactions.get(i);
-            final boolean storedInBlocks = blockchain.hasProcessedTransactions(i);
-            if (isKnown && !storedInBlocks) {
-                final Transaction current = Transactions.getTransaction(i);
-                wrapper.transactions[count] = current;
-                count++;
-            }
-            i++;
-        }
-        wrapper.transactionsNumber = count;
-        return wrapper;
+        return mempool.select(maxBlockSize);
     }
 
     /**
@@ -329,23 +667,50 @@ public final class BitcoinCore implements EDProtocol {
             // temporary queue this block...
             blocksToProcess.enqueue(block);
 
-            // ... and request its parent
-            final GetBlocksMessage message = new GetBlocksMessage(me, new int[]{block.previous.id});
+            // ... and request the blocks missing from the local longest chain
+            final GetBlocksMessage message = new GetBlocksMessage(me, Blocks.locator(blockchain.longestFork()));
             broadcast(me, pid, message);
         }
     }
 
+    /**
+     * If the last block of a full inventory is in the local blockchain, request the following blocks
+     * to the peer that sent the inventory. The locator starts from that block, so the reply is always
+     * a new batch of blocks, even if the local longest chain is a different fork.
+     */
+    private void continueBlockDownloadIfNeeded(Node me, int pid) {
+        if (continueBlock != NO_BLOCK && blockchain.hasBlock(continueBlock)) {
+            final Block block = blockchain.getBlock(continueBlock);
+            final Block from = block != null ? block : blockchain.longestFork();
+            sendCheckLinkable(me, continuePeer, pid, new GetBlocksMessage(me, Blocks.locator(from)));
+            continueBlock = NO_BLOCK;
+            continuePeer = null;
+        }
+    }
+
     private boolean processBlock(Node me, int pid, Block block) {
 
+        // duplicated block: it was already gossiped the first time it was added to the blockchain
+        if (blockchain.hasBlock(block.id)) {
+            return true;
+        }
+
         // try to addBlock the block to the blockchain...
         // please note that this operation may fail if the parent node is missing
         // so we need to take extra care of requesting the peers for the missing blocks
+        final Block oldTip = blockchain.longestFork();
         final boolean result = blockchain.addBlock(block);
 
         // the block can be insert in the blockchain
         // NB: the blockchain object keeps track of the processed transactions
         if (result) {
 
+            // the longest chain changed, so the transactions in the mempool change too
+            final Block newTip = blockchain.longestFork();
+            if (newTip != oldTip) {
+                mempool.updateTip(oldTip, newTip, knownTransactions);
+            }
+
             // gossip block to the other nodes
             gossipBlock(me, pid, block);
         }
@@ -354,25 +719,81 @@ public final class BitcoinCore implements EDProtocol {
     }
 
     /**
-     * Forward the given block to all neighbours if the block is new, otherwise do nothing.
-     * This is done to prevent to send the same block too many times.
+     * Forward the given block to all neighbours. The caller makes sure that this happens only once per block,
+     * i.e. when the block is added to the local blockchain, to prevent to send the same block too many times.
      */
     private void gossipBlock(Node me, int pid, Block block) {
-        if (!gossipedBlocks.get(block.id)) {
-            gossipedBlocks.set(block.id, true);
-            broadcast(me, pid, new BlockMessage(block));
-        }
+        broadcast(me, pid, new BlockMessage(block));
     }
 
     /**
-     * Forward the given transaction to all neighbours if the block is new, otherwise do nothing.
-     * This is done to prevent to send the same block too many times.
+     * Forward the given transaction to all neighbours. The caller makes sure that this happens only once per
+     * transaction, i.e. when the transaction is learnt, to prevent to send the same transaction too many times.
      */
     private void gossipTransaction(Node me, int pid, TxMessage message) {
-        final int id = message.transaction.id;
-        if (!gossipedTransactions.get(id)) {
-            gossipedTransactions.set(id, true);
-            broadcast(me, pid, message);
+        broadcast(me, pid, message);
+        final Linkable linkable = (Linkable) me.getProtocol(FastConfig.getLinkable(pid));
+        txMessages += linkable.degree();
+        txAnnouncements += linkable.degree();
+    }
+
+    /**
+     * Queue the given transaction for the next trickle of the connections, if the transaction is new,
+     * otherwise do nothing. When reconciling, transactions are flooded to the outbound peers only:
+     * the inbound peers will learn them from the next reconciliation rounds.
+     * The source is the ID of the peer that sent the transaction, which already knows it.
+     */
+    private void announceTransaction(Node me, int pid, int id, long source) {
+        if (learnTransaction(id)) {
+            outboundTxQueue.add(id, source);
+            scheduleTrickleIfNeeded(me, pid, TrickleEvent.OUTBOUND);
+            if (txRelay == TxRelay.TRICKLE) {
+                inboundTxQueue.add(id, source);
+                scheduleTrickleIfNeeded(me, pid, TrickleEvent.INBOUND);
+            }
+        }
+    }
+
+    /**
+     * Mark the given transaction as known and add it to the mempool, unless it is already in the longest chain.
+     *
+     * @return True if the transaction was not known before, false otherwise.
+     */
+    private boolean learnTransaction(int id) {
+        if (knownTransactions.get(id)) {
+            return false;
+        }
+        knownTransactions.set(id, true);
+        if (!blockchain.hasProcessedTransactions(id)) {
+            mempool.add(id);
+        }
+        return true;
+    }
+
+    /**
+     * Start the given trickle timer if it is not running. Timers are only started when some transaction is
+     * queued, so that idle nodes do not generate any event. Since the delays are exponential (memoryless),
+     * this is equivalent to a Poisson process that runs for the entire simulation.
+     */
+    private void scheduleTrickleIfNeeded(Node me, int pid, TrickleEvent event) {
+        if (event.outbound && !outboundTrickleScheduled) {
+            outboundTrickleScheduled = true;
+            EDSimulator.add(Distributions.nextExponentialRounded(trickleOutbound), event, me, pid);
+        } else if (!event.outbound && !inboundTrickleScheduled) {
+            inboundTrickleScheduled = true;
+            EDSimulator.add(Distributions.nextExponentialRounded(trickleInbound), event, me, pid);
+        }
+    }
+
+    /**
+     * Neighbours of the {@link BitcoinTopology} protocol are sorted with the outgoing connections first.
+     * Any other {@link Linkable} is assumed to have outgoing connections only.
+     */
+    private static int degreeOutgoing(Linkable linkable) {
+        if (linkable instanceof BitcoinTopology) {
+            return ((BitcoinTopology) linkable).degreeOutgoing();
+        } else {
+            return linkable.degree();
         }
     }
 
@@ -395,4 +816,28 @@ public final class BitcoinCore implements EDProtocol {
         }
         // else -> no-op: we are already mining the longest chain...
     }
+
+    /**
+     * Strategies used to relay transactions to the peers.
+     */
+    private enum TxRelay {
+
+        // every transaction is immediately sent to all neighbours in its own message
+        FLOOD,
+
+        // transactions are queued and announced in batches on Poisson timers, like Bitcoin Core does
+        TRICKLE,
+
+        // transactions are flooded to the outbound peers only and periodically reconciled, like Erlay does
+        RECONCILIATION;
+
+        static TxRelay parse(String value) {
+            try {
+                return TxRelay.valueOf(value.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                final String values = "flood, trickle, reconciliation";
+                throw new IllegalArgumentException("Parameter " + PARAM_TX_RELAY + " must be one of: " + values, e);
+            }
+        }
+    }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.core.controls;
+
+import peersim.core.Control;
+import peersim.core.Network;
+import simulator.bitcoin.core.BitcoinCore;
+import simulator.bitcoin.core.model.Block;
+import simulator.bitcoin.core.model.Blocks;
+
+import static peersim.utilities.ConfigurationHelper.readInt;
+import static peersim.utilities.ConfigurationHelper.readPid;
+
+/**
+ * Control that periodically finalizes the blocks buried deep enough in the blockchain of every node.
+ * The finalized blocks are moved out of the object graph (see {@link Blocks#finalizeBlocks(Block[], int)}),
+ * so that the memory used by the simulation does not grow with the simulated time.
+ */
+public final class FinalityControl implements Control {
+
+    // parameters
+    private static final String PARAMETER_DEPTH = "depth";
+
+    // fields
+    private final int pid;
+    private final int depth;
+
+    /**
+     * Default constructor, following the PeerSim conventions.
+     * The prefix field is automatically provided by the PeerSim engine.
+     *
+     * @param prefix Prefix of this control in the configuration file.
+     */
+    public FinalityControl(String prefix) {
+        this.pid = readPid(prefix);
+        this.depth = readInt(prefix, PARAMETER_DEPTH, 0);
+    }
+
+    @Override
+    public boolean execute() {
+
+        // 0 == finality disabled
+        if (depth > 0 && Network.size() > 0) {
+            final Block[] tips = new Block[Network.size()];
+            for (int i = 0; i < Network.size(); i++) {
+                final BitcoinCore protocol = (BitcoinCore) Network.get(i).getProtocol(pid);
+                tips[i] = protocol.getBlockchain().longestFork();
+            }
+            if (Blocks.finalizeBlocks(tips, depth)) {
+                for (int i = 0; i < Network.size(); i++) {
+                    final BitcoinCore protocol = (BitcoinCore) Network.get(i).getProtocol(pid);
+                    protocol.getBlockchain().onBlocksFinalized();
+                }
+            }
+        }
+
+        // false == do NOT stop the simulation
+        return false;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.core.controls;
+
+import peersim.config.Configuration;
+import peersim.core.CommonState;
+import peersim.core.Control;
+import peersim.core.Network;
+import peersim.core.Scheduler;
+import peersim.edsim.EDSimulator;
+import peersim.utilities.Distributions;
+import simulator.bitcoin.core.events.TransactionArrivalEvent;
+import simulator.bitcoin.core.model.Transactions;
+
+import static peersim.utilities.ConfigurationHelper.readPid;
+
+/**
+ * Control used to simulate external users of the protocol that generate transactions to be stored
+ * in the public ledger. The transactions arrive following a Poisson process and each of them is sent to
+ * EXACTLY one random node. At each execution, the control schedules the arrivals until its next execution:
+ * the target of each arrival is picked among the nodes currently in the network, so that the arrivals
+ * are not lost when the nodes leave. NB: an arrival is dropped only if its target leaves before the
+ * arrival, so the step should be small compared to the length of the sessions.
+ * The transactions must be enabled with a {@link simulator.bitcoin.core.initializers.TransactionsInitializer}.
+ */
+public final class TransactionsControl implements Control {
+
+    // parameters
+    private static final String PARAMETER_MEAN = "mean";
+
+    // fields
+    private final int pid;
+    private final long mean;
+    private final long step;
+
+    // time of the next arrival, -1 if not drawn yet
+    private long nextArrival;
+
+    /**
+     * Default constructor, following the PeerSim conventions.
+     * The prefix field is automatically provided by the PeerSim engine.
+     *
+     * @param prefix Prefix of this control in the configuration file.
+     */
+    public TransactionsControl(String prefix) {
+        this.pid = readPid(prefix);
+        this.mean = Configuration.getLong(prefix + "." + PARAMETER_MEAN);
+        this.step = new Scheduler(prefix).step;
+        this.nextArrival = -1;
+    }
+
+    @Override
+    public boolean execute() {
+        if (Transactions.isEnabled() && Network.size() > 0) {
+            final long now = CommonState.getTime();
+            if (nextArrival < 0) {
+                nextArrival = now + Distributions.nextExponentialRounded(mean);
+            }
+
+            // NB: the arrivals after the end of the simulation are dropped by PeerSim
+            while (nextArrival < now + step) {
+                final int index = CommonState.r.nextInt(Network.size());
+                EDSimulator.add(nextArrival - now, TransactionArrivalEvent.INSTANCE, Network.get(index), pid);
+                nextArrival += Distributions.nextExponentialRounded(mean);
+            }
+        }
+
+        // false == do NOT stop the simulation
+        return false;
+    }
+}
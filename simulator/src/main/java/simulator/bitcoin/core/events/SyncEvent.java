@@ -15,23 +15,17 @@
  * along with this program. If not, see <https://www.gnu.org/licenses/>.
  */
 
-package simulator.bitcoin.core.model;
+package simulator.bitcoin.core.events;
 
 /**
- * Models a single transaction in the Bitcoin protocol.
+ * Event used by a node that joined the network to check if it can download the blockchain from its first peer.
  */
-public final class Transaction {
+public final class SyncEvent {
 
-    public final int id;
-    public final long timestamp;
+    // singleton instance -> spare memory
+    public static final SyncEvent INSTANCE = new SyncEvent();
 
-    Transaction(int id, long timestamp) {
-        this.id = id;
-        this.timestamp = timestamp;
-    }
-
-    @Override
-    public String toString() {
-        return "Transaction{" + "id=" + id + ", timestamp=" + timestamp + '}';
+    // prevent class construction from outside and force to use the singleton
+    private SyncEvent() {
     }
 }
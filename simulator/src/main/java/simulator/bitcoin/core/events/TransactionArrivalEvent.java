@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.core.events;
+
+/**
+ * Event used to simulate the arrival of a new transaction, generated by an external user, to a random node.
+ * The arrivals are scheduled by {@link simulator.bitcoin.core.controls.TransactionsControl}.
+ */
+public final class TransactionArrivalEvent {
+
+    // singleton instance -> spare memory
+    public static final TransactionArrivalEvent INSTANCE = new TransactionArrivalEvent();
+
+    // prevent class construction from outside and force to use the singleton
+    private TransactionArrivalEvent() {
+    }
+}
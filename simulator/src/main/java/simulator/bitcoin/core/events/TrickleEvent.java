@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.core.events;
+
+/**
+ * Event that represents the expiration of a Poisson trickle timer, i.e. the time at which
+ * the queued transaction announcements are flushed to all inbound or outbound peers.
+ */
+public final class TrickleEvent {
+
+    // singleton instances -> spare memory
+    public static final TrickleEvent INBOUND = new TrickleEvent(false);
+    public static final TrickleEvent OUTBOUND = new TrickleEvent(true);
+
+    public final boolean outbound;
+
+    // prevent class construction from outside and force to use the singletons
+    private TrickleEvent(boolean outbound) {
+        this.outbound = outbound;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.core.initializers;
+
+import peersim.core.Control;
+import peersim.core.Network;
+import simulator.bitcoin.core.BitcoinCore;
+import simulator.bitcoin.core.model.Blocks;
+
+import static peersim.utilities.ConfigurationHelper.readInt;
+import static peersim.utilities.ConfigurationHelper.readPid;
+
+/**
+ * {@link Control} used to create the genesis block, optionally on top of an implicit history of the given height.
+ * The blocks are stored globally, so they are reset at the beginning of each experiment. The nodes are created
+ * before running the initializers, so their {@link BitcoinCore} protocol is restarted from the new genesis.
+ * This initializer must run before any other one that uses the blocks.
+ */
+public final class BlocksInitializer implements Control {
+
+    // parameters
+    private static final String PARAM_INITIAL_HEIGHT = "initial_height";
+
+    // default configuration
+    private static final int DEFAULT_INITIAL_HEIGHT = 0;
+
+    // fields
+    private final int pid;
+    private final int initialHeight;
+
+    /**
+     * Default constructor, following the PeerSim conventions.
+     * The prefix field is automatically provided by the PeerSim engine.
+     *
+     * @param prefix Prefix of this control in the configuration file.
+     */
+    public BlocksInitializer(String prefix) {
+        this.pid = readPid(prefix);
+        this.initialHeight = readInt(prefix, PARAM_INITIAL_HEIGHT, DEFAULT_INITIAL_HEIGHT);
+    }
+
+    @Override
+    public boolean execute() {
+        Blocks._init(initialHeight);
+
+        // NB: the prototype is used to create the nodes that join the network during the simulation
+        ((BitcoinCore) Network.prototype.getProtocol(pid)).reset();
+        for (int i = 0; i < Network.size(); i++) {
+            ((BitcoinCore) Network.get(i).getProtocol(pid)).reset();
+        }
+
+        // false == do NOT stop the simulation
+        return false;
+    }
+}
@@ -17,33 +17,25 @@
 
 package simulator.bitcoin.core.initializers;
 
-import peersim.config.Configuration;
-import peersim.core.CommonState;
 import peersim.core.Control;
-import peersim.utilities.Distributions;
-import simulator.bitcoin.core.messages.TxMessage;
-import simulator.bitcoin.core.model.Transaction;
 import simulator.bitcoin.core.model.Transactions;
 
 import static peersim.utilities.ConfigurationHelper.readBoolean;
-import static peersim.utilities.ConfigurationHelper.readPid;
-import static peersim.utilities.SimulationUtilities.scheduleEventForRandomNode;
 
 /**
- * {@link Control} used to simulate external users of the protocol that
- * generate {@link Transaction}s to be stored in the public ledger.
- * Each transaction will be scheduled to EXACTLY one node in the network.
+ * {@link Control} used to reset the global store of the transactions and optionally enable them.
+ * Transactions are NOT generated in advance: they arrive during the simulation,
+ * scheduled by a {@link simulator.bitcoin.core.controls.TransactionsControl}.
  */
 public final class TransactionsInitializer implements Control {
 
     // parameters
-    private static final String PARAM_MEAN = "mean";
     private static final String PARAM_ENABLE = "enable";
+    private static final String PARAM_OFF_HEAP = "off_heap";
 
     // fields
-    private final int mean;
-    private final int pid;
     private final boolean enable;
+    private final boolean offHeap;
 
     /**
      * Default constructor, following the PeerSim conventions.
@@ -52,36 +44,23 @@ public final class TransactionsInitializer implements Control {
      * @param prefix Prefix of this control in the configuration file.
      */
     public TransactionsInitializer(String prefix) {
-        this.mean = Configuration.getInt(prefix + "." + PARAM_MEAN);
-        this.pid = readPid(prefix);
         this.enable = readBoolean(prefix, PARAM_ENABLE, true);
+        this.offHeap = readBoolean(prefix, PARAM_OFF_HEAP, false);
     }
 
     @Override
     public boolean execute() {
 
-        // keep track of the number of generated transactions
-        int count = 0;
-
-        // generate and schedule transactions for the entire simulation
         // transactions are stored globally and available to all nodes
         // as soon as they will receive the corresponding event
-        long delay = 0;
-        while (delay < CommonState.getEndTime()) {
-            final long delta = Distributions.nextExponentialRounded(mean);
-            delay += delta;
-            count++;
+        // NB: the store is reset, since it survives the previous experiments run in the same JVM
+        Transactions._init(offHeap);
 
-            // optionally disable transactions... this speeds up the simulation a lot
-            if (enable) {
-                final Transaction transaction = Transactions.nextTransaction(delay);
-                scheduleEventForRandomNode(delay, new TxMessage(transaction), pid);
-            }
+        // optionally disable transactions... this speeds up the simulation a lot
+        if (enable) {
+            Transactions.enable();
         }
 
-        // log the number of simulated transactions
-        System.err.println("Generated " + count + " transaction...");
-
         // false == do NOT stop the simulation
         return false;
     }
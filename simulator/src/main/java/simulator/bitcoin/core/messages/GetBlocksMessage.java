@@ -28,6 +28,7 @@ public final class GetBlocksMessage {
 
     public final Node sender;
 
+    // block locator, from the most recent block to the first one (see Blocks#locator)
     // NB: in the real protocol, block headers are cryptographic hashes
     // in our simulation we will just use block numbers
     public final int[] blockHeaders;
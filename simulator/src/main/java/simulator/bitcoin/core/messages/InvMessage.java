@@ -18,6 +18,7 @@
 package simulator.bitcoin.core.messages;
 
 import peersim.core.Node;
+import simulator.collections.IntList;
 
 /**
  * Bitcoin `Inv` message (@see <a href="https://bitcoin.org/en/developer-reference#inv">Documentation</a>)
@@ -31,9 +32,9 @@ import peersim.core.Node;
 public final class InvMessage {
 
     public final Node sender;
-    public final int[] headers;
+    public final IntList headers;
 
-    public InvMessage(Node sender, int[] headers) {
+    public InvMessage(Node sender, IntList headers) {
         this.sender = sender;
         this.headers = headers;
     }
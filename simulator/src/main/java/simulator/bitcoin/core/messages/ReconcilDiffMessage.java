@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.core.messages;
+
+import peersim.core.Node;
+
+/**
+ * Erlay `reconcildiff` message (@see <a href="https://github.com/bitcoin/bips/blob/master/bip-0330.mediawiki">BIP</a>)
+ * It closes a reconciliation round: the sender decoded the set difference from a {@link SketchMessage}
+ * and pushes to the peer the transactions it is missing.
+ */
+public final class ReconcilDiffMessage {
+
+    public final Node sender;
+    public final int[] transactions;
+
+    public ReconcilDiffMessage(Node sender, int[] transactions) {
+        this.sender = sender;
+        this.transactions = transactions;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.core.messages;
+
+import peersim.core.Node;
+
+/**
+ * Erlay `reqrecon` message (@see <a href="https://github.com/bitcoin/bips/blob/master/bip-0330.mediawiki">BIP 330</a>)
+ * It is used to start a reconciliation round with a peer. The peer replies with a {@link SketchMessage}.
+ * <p>
+ * NB: instead of the short IDs of the transactions, nodes reconcile the sets of known transactions.
+ * The sender knows all transactions with an ID lower than the watermark, so only the transactions
+ * above the watermark need to be reconciled.
+ */
+public final class ReqReconMessage {
+
+    public final Node sender;
+    public final int watermark;
+    public final int setSize;
+
+    public ReqReconMessage(Node sender, int watermark, int setSize) {
+        this.sender = sender;
+        this.watermark = watermark;
+        this.setSize = setSize;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.core.messages;
+
+import peersim.core.Node;
+
+/**
+ * Erlay `sketch` message (@see <a href="https://github.com/bitcoin/bips/blob/master/bip-0330.mediawiki">BIP 330</a>)
+ * It is the reply to a {@link ReqReconMessage} and contains a sketch of the transactions known by the sender.
+ * <p>
+ * NB: we do not compute real PinSketch sketches. The message carries the IDs of the transactions known by the
+ * sender above the watermark of the requester (echoed back in the reply), which is enough to compute the set
+ * difference, together with the capacity that a real sketch would need. Only the capacity is accounted in the metrics.
+ */
+public final class SketchMessage {
+
+    public final Node sender;
+    public final int watermark;
+    public final int capacity;
+    public final int[] transactions;
+
+    public SketchMessage(Node sender, int watermark, int capacity, int[] transactions) {
+        this.sender = sender;
+        this.watermark = watermark;
+        this.capacity = capacity;
+        this.transactions = transactions;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.core.messages;
+
+import peersim.core.Node;
+
+/**
+ * Bitcoin `Inv` message (@see <a href="https://bitcoin.org/en/developer-reference#inv">Documentation</a>)
+ * used to announce a batch of transactions to a peer. It is sent when the trickle timer of a connection
+ * expires and contains all transactions learned since the last flush.
+ * <p>
+ * NB: transactions are stored globally in the simulation, so we skip the `GetData` / `Tx` round trip:
+ * the receiver learns the transactions directly from their IDs.
+ */
+public final class TxInvMessage {
+
+    public final Node sender;
+    public final int[] transactions;
+
+    public TxInvMessage(Node sender, int[] transactions) {
+        this.sender = sender;
+        this.transactions = transactions;
+    }
+}
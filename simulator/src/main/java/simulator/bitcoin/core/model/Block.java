@@ -17,6 +17,8 @@
 
 package simulator.bitcoin.core.model;
 
+import simulator.collections.PersistentBitSet;
+
 /**
  * Models a single block in the Bitcoin protocol.
  */
@@ -25,22 +27,104 @@ public final class Block {
     // immutable fields
     public final int id;
     final int height;
-    public final Block previous;
     public final TransactionsWrapper transactions;
     public final long timestamp;
 
+    // transactions stored in this block and in all its ancestors (shared with the ancestors where possible)
+    final PersistentBitSet processedTransactions;
+
     // mutable fields
     Block[] children;
     int childrenNumber;
 
-    Block(int id, int height, Block previous, TransactionsWrapper transactions, long timestamp) {
+    // pointers to the ancestors, cut when the ancestors are archived (see Blocks#finalizeBlocks)
+    private Block previous;
+    Block skip;
+    boolean archived;
+
+    Block(int id, int height, Block previous, Block skip, TransactionsWrapper transactions, long timestamp,
+          PersistentBitSet processedTransactions) {
+        assert skip == null || skip.height == skipHeight(height);
         this.id = id;
         this.height = height;
         this.previous = previous;
+        this.skip = skip;
         this.transactions = transactions;
         this.timestamp = timestamp;
+        this.processedTransactions = processedTransactions;
         this.children = new Block[1];
         this.childrenNumber = 0;
+        this.archived = false;
+    }
+
+    /**
+     * @return The parent of this block, null for the genesis and for the root of the live blocks,
+     * since the references to the archived blocks are cut.
+     */
+    public Block getPrevious() {
+        return previous;
+    }
+
+    /**
+     * Replace the parent of this block. Only used to cut the references to the archived blocks.
+     *
+     * @param previous New parent, usually null.
+     */
+    void setPrevious(Block previous) {
+        this.previous = previous;
+    }
+
+    /**
+     * Find the ancestor of this block at the given height. The search follows the skip pointers,
+     * so it takes O(log(height)) steps instead of walking all blocks one by one.
+     *
+     * @param height Height of the ancestor, must be between 0 and the height of this block.
+     * @return The ancestor of this block at the given height.
+     */
+    Block getAncestor(int height) {
+        assert height >= 0 && height <= this.height;
+
+        Block walk = this;
+        int heightWalk = this.height;
+        while (heightWalk > height) {
+            final int heightSkip = skipHeight(heightWalk);
+            final int heightSkipPrevious = skipHeight(heightWalk - 1);
+
+            // only follow the skip pointer if the one of the parent does not get us closer to the target
+            if (walk.skip != null && (heightSkip == height || (heightSkip > height
+                && !(heightSkipPrevious < heightSkip - 2 && heightSkipPrevious >= height)))) {
+                walk = walk.skip;
+                heightWalk = heightSkip;
+            } else {
+                walk = walk.previous;
+                heightWalk--;
+            }
+        }
+        return walk;
+    }
+
+    /**
+     * Compute the height of the block the skip pointer of a block at the given height points to.
+     * The heights are chosen to make any ancestor reachable in a logarithmic number of steps
+     * (same scheme used by Bitcoin Core).
+     *
+     * @param height Height of the block.
+     * @return Height of the target of the skip pointer.
+     */
+    static int skipHeight(int height) {
+        if (height < 2) {
+            return 0;
+        }
+
+        // any height strictly lower than the given one would be correct, this one keeps the jumps logarithmic
+        return (height & 1) != 0 ? invertLowestOne(invertLowestOne(height - 1)) + 1 : invertLowestOne(height);
+    }
+
+    /**
+     * Turn the lowest '1' bit in the binary representation of a number into a '0'.
+     */
+    private static int invertLowestOne(int n) {
+        return n & (n - 1);
     }
 
     @Override
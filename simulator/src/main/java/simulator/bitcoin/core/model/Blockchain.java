@@ -17,10 +17,9 @@
 
 package simulator.bitcoin.core.model;
 
-import java.util.Arrays;
-import java.util.BitSet;
-import java.util.LinkedList;
-import java.util.List;
+import simulator.collections.IntIntMap;
+import simulator.collections.IntList;
+import simulator.collections.SlidingBitSet;
 
 /**
  * Data-structure that simulates a Blockchain, like the one used in Bitcoin.
@@ -33,31 +32,60 @@ public final class Blockchain {
      * Default initial capacity of the internal arrays
      * that store _forks and their depths.
      */
-    private static final int DEFAULT_INITIAL_CAPACITY = 50;
+    private static final int DEFAULT_INITIAL_CAPACITY = 4;
+
+    // forks buried deeper than this number of blocks under the longest chain are archived
+    // NB: 0 means that forks are never archived
+    private final int pruneDepth;
 
     // internal status
     private Block[] forks;
     private int[] forksDepths;
     private int currentForks;
     private int longestForkIndex;
-    private BitSet seenBlocks;
-    private BitSet processedTransactions;
+    private IntIntMap forksIndex;
+    private SlidingBitSet seenBlocks;
+
+    // archived forks: tip ID and depth at the time of the archival
+    private IntList archivedTips;
+    private IntList archivedDepths;
+    private IntIntMap archivedIndex;
 
     /**
      * Construct a new blockchain using the given block as genesis.
+     * Forks are never archived.
      *
      * @param genesis Genesis block.
      */
     public Blockchain(Block genesis) {
+        this(genesis, 0);
+    }
+
+    /**
+     * Construct a new blockchain using the given block as genesis.
+     *
+     * @param genesis    Genesis block.
+     * @param pruneDepth Forks whose last block is more than this number of blocks below the longest chain
+     *                   are moved to the archive. Use 0 to never archive the forks.
+     */
+    public Blockchain(Block genesis, int pruneDepth) {
+        assert pruneDepth >= 0;
+        this.pruneDepth = pruneDepth;
         this.forks = new Block[DEFAULT_INITIAL_CAPACITY];
         this.forks[0] = genesis;
         this.forksDepths = new int[DEFAULT_INITIAL_CAPACITY];
         this.forksDepths[0] = 0;
         this.currentForks = 1;
         this.longestForkIndex = 0;
-        this.seenBlocks = new BitSet();
+        this.forksIndex = new IntIntMap();
+        this.forksIndex.put(genesis.id, 0);
+        // NB: all blocks before the genesis are implicitly known
+        this.seenBlocks = new SlidingBitSet(true);
+        this.seenBlocks.setAllBelow(genesis.id);
         this.seenBlocks.set(genesis.id);
-        this.processedTransactions = new BitSet();
+        this.archivedTips = new IntList();
+        this.archivedDepths = new IntList();
+        this.archivedIndex = new IntIntMap();
     }
 
     /**
@@ -66,14 +94,25 @@ public final class Blockchain {
      * @param original Original object to copy.
      */
     public Blockchain(Blockchain original) {
+        this.pruneDepth = original.pruneDepth;
         this.forks = new Block[original.forks.length];
         System.arraycopy(original.forks, 0, this.forks, 0, original.forks.length);
         this.forksDepths = new int[original.forksDepths.length];
         System.arraycopy(original.forksDepths, 0, this.forksDepths, 0, original.forksDepths.length);
         this.currentForks = original.currentForks;
         this.longestForkIndex = original.longestForkIndex;
-        this.seenBlocks = (BitSet) original.seenBlocks.clone();
-        this.processedTransactions = (BitSet) original.processedTransactions.clone();
+        this.forksIndex = new IntIntMap(original.forksIndex);
+        this.seenBlocks = new SlidingBitSet(original.seenBlocks);
+        this.archivedTips = new IntList(original.archivedTips);
+        this.archivedDepths = new IntList(original.archivedDepths);
+        this.archivedIndex = new IntIntMap(original.archivedIndex);
+    }
+
+    /**
+     * @return Depth below the longest chain after which the forks are archived, 0 if they are never archived.
+     */
+    public int getPruneDepth() {
+        return pruneDepth;
     }
 
     /**
@@ -84,20 +123,21 @@ public final class Blockchain {
     }
 
     /**
-     * @return Number of _forks of the blockchain.
+     * @return Number of _forks of the blockchain, including the archived ones.
      */
     long forksNumber() {
-        return currentForks;
+        return currentForks + archivedTips.size();
     }
 
     /**
      * Check if the longest chain contains the transaction with the given ID.
+     * NB: each block knows all transactions of its chain, so there is nothing to recompute on a reorg.
      *
      * @param transactionId ID of the transaction to check.
      * @return True if the longest chain contains the given transaction, false otherwise.
      */
     public boolean hasProcessedTransactions(int transactionId) {
-        return processedTransactions.get(transactionId);
+        return longestFork().processedTransactions.get(transactionId);
     }
 
     /**
@@ -124,6 +164,27 @@ public final class Blockchain {
         }
     }
 
+    /**
+     * Find the most recent block of the given locator that is on the longest chain of this blockchain
+     * (the point where the chain of the sender of the locator forked from the local one).
+     *
+     * @param locator IDs of blocks, from the most recent to the oldest one (see {@link Blocks#locator(Block)}).
+     * @return The most recent block of the locator on the longest chain,
+     * or the root if all blocks in the locator are archived or unknown.
+     */
+    public Block findFork(int[] locator) {
+        final Block longestChain = longestFork();
+        for (int id : locator) {
+            final Block block = getBlock(id);
+            final boolean onLongestChain = block != null && block.height <= longestChain.height
+                && longestChain.getAncestor(block.height) == block;
+            if (onLongestChain) {
+                return block;
+            }
+        }
+        return Blocks.getRoot();
+    }
+
     /**
      * Add a new block to the blockchain. This method will recompute the _forks
      * and processed transactions depending on the added block (continuation of
@@ -138,74 +199,75 @@ public final class Blockchain {
         // NB: we use '==' instead of '.equals()' for efficiency reasons
         // this is safe since each block has a single global instance in the entire simulation
 
+        // handle duplicates (I may receive the same message multiple times in a gossip protocol)
+        // NB: the block may not be the last one of a fork anymore, so we can NOT look for it in the index
+        // NB: archived blocks are always marked as seen, so their parents are never accessed
+        if (seenBlocks.get(block.id)) {
+            return true;
+        }
+
         // check that I actually have seen the parent
-        if (!seenBlocks.get(block.previous.id)) {
+        // NB: the parent of a root block is not available anymore, so a root block can not be attached
+        // to the blockchain if it was not seen already, i.e. if the node was left behind by the finalization
+        final Block previous = block.getPrevious();
+        if (previous == null || !seenBlocks.get(previous.id)) {
             return false;
         }
 
         // if I have seen the parent, I also saw this block, so I can add it
-        else {
-            seenBlocks.set(block.id);
-        }
+        seenBlocks.set(block.id);
 
         // try to find the parent of this node (this is not a new fork)
-        for (int i = 0; i < currentForks; i++) {
-
-            // handle duplicates (I may receive the same message multiple times in a gossip protocol)
-            if (forks[i] == block) {
-                // duplicate, skip block!
-                return true;
-            }
-
-            // parent found
-            if (forks[i] == block.previous) {
+        final int i = forksIndex.get(previous.id);
+        if (i != IntIntMap.MISSING) {
 
-                // we add a block on top of another one...
-                // ... so we remove the current one and replace it with the new block
-                // this is NOT a new fork!
-                forks[i] = block;
+            // we add a block on top of another one...
+            // ... so we remove the current one and replace it with the new block
+            // this is NOT a new fork!
+            forks[i] = block;
+            forksIndex.remove(previous.id);
+            forksIndex.put(block.id, i);
 
-                // maybe we need to recompute the distances from the longest chain...
-                final boolean extendingLongestChain = i == longestForkIndex;
-                if (extendingLongestChain) {
+            // maybe we need to recompute the distances from the longest chain...
+            final boolean extendingLongestChain = i == longestForkIndex;
+            if (extendingLongestChain) {
 
-                    // do nothing, we replaced already the longest chain
-                    // the distances of the _forks from the common parent with the longest chain do not change
+                // do nothing, we replaced already the longest chain
+                // the distances of the _forks from the common parent with the longest chain do not change
 
-                    // since we are on the longest chain, we can mark the transactions as done
-                    final TransactionsWrapper wrapper = block.transactions;
-                    for (int t = 0; t < wrapper.transactionsNumber; t++) {
-                        processedTransactions.set(wrapper.transactions[t].id, true);
-                    }
+                // the longest chain got longer, so some fork may be buried deep enough to be archived
+                pruneForksIfNeeded();
 
-                } else {
+            } else {
 
-                    // this fork is now the longest chain!
-                    if (block.height > longestFork().height) {
-                        longestForkIndex = i;
-                        recomputeDepths();
-                        recomputeTransactions(longestFork(), block);
-                    }
-
-                    // this fork is not the longest chain
-                    // we do NOT need to flag the transactions as done...
-                    else {
-                        // we are now a step further away from the longest chain
-                        forksDepths[i]++;
-                    }
+                // this fork is now the longest chain!
+                if (block.height > longestFork().height) {
+                    longestForkIndex = i;
+                    recomputeDepths();
+                    pruneForksIfNeeded();
                 }
 
-                // optimization: only one block can be the parent, exit the loop
-                return true;
+                // this fork is not the longest chain
+                else {
+                    // we are now a step further away from the longest chain
+                    forksDepths[i]++;
+                }
             }
+
+            // only one block can be the parent
+            return true;
         }
 
+        // the parent may be the last block of an archived fork... which is not archived anymore
+        unarchiveFork(previous.id);
+
         // make sure we have enough space in the array
         expandArrayIfNeeded();
 
         // if here, we have a new fork
         final int newIndex = currentForks;
         forks[currentForks] = block;
+        forksIndex.put(block.id, newIndex);
         currentForks++;
 
         // a new fork cannot be the longest chain, not yet!
@@ -216,8 +278,100 @@ public final class Blockchain {
         return true;
     }
 
+    /**
+     * Update the blockchain after that some blocks were archived (see {@link Blocks#finalizeBlocks(Block[], int)}).
+     * All archived blocks are marked as seen, so the node never requests them, and the forks that end
+     * with an archived block are moved to the archive of the forks.
+     */
+    public void onBlocksFinalized() {
+        seenBlocks.setAllBelow(Blocks.getRoot().id);
+        final IntList archived = Blocks.getLastArchivedIds();
+        for (int i = 0; i < archived.size(); i++) {
+            seenBlocks.set(archived.get(i));
+        }
+        int i = 0;
+        while (i < currentForks) {
+            if (forks[i].archived) {
+                archiveFork(i);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Move to the archive all forks whose last block is buried deeper than the configured
+     * prune depth below the longest chain. The archive only keeps the ID of the last block
+     * and the depth of the fork, which is enough for the observers.
+     */
+    private void pruneForksIfNeeded() {
+        if (pruneDepth > 0) {
+            final int minHeight = longestFork().height - pruneDepth;
+            int i = 0;
+            while (i < currentForks) {
+                if (forks[i].height < minHeight) {
+                    archiveFork(i);
+                    // NB: the last fork was moved to position i, so we need to check it too
+                } else {
+                    i++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Move the fork at the given position to the archive.
+     * The last fork is moved to the free position, so the order of the forks is NOT preserved.
+     *
+     * @param index Position of the fork to archive.
+     */
+    private void archiveFork(int index) {
+        assert index != longestForkIndex : "the longest chain can not be archived";
+
+        // store the fork in the archive
+        final Block tip = forks[index];
+        archivedIndex.put(tip.id, archivedTips.size());
+        archivedTips.add(tip.id);
+        archivedDepths.add(forksDepths[index]);
+        forksIndex.remove(tip.id);
+
+        // fill the hole with the last fork
+        final int last = currentForks - 1;
+        if (index != last) {
+            forks[index] = forks[last];
+            forksDepths[index] = forksDepths[last];
+            forksIndex.put(forks[index].id, index);
+            if (longestForkIndex == last) {
+                longestForkIndex = index;
+            }
+        }
+        forks[last] = null;
+        currentForks--;
+    }
+
+    /**
+     * Remove the fork that ends with the given block from the archive, if present.
+     *
+     * @param tipId ID of the last block of the fork.
+     */
+    private void unarchiveFork(int tipId) {
+        final int index = archivedIndex.remove(tipId);
+        if (index != IntIntMap.MISSING) {
+            final int last = archivedTips.size() - 1;
+            if (index != last) {
+                final int lastTip = archivedTips.get(last);
+                archivedTips.set(index, lastTip);
+                archivedDepths.set(index, archivedDepths.get(last));
+                archivedIndex.put(lastTip, index);
+            }
+            archivedTips.removeLast();
+            archivedDepths.removeLast();
+        }
+    }
+
     /**
      * Update the depths of all _forks based on the new status of the blockchain (eg. new longest chain).
+     * NB: the depths of the archived forks are NOT updated.
      */
     private void recomputeDepths() {
         final Block longestChain = forks[longestForkIndex];
@@ -234,60 +388,14 @@ public final class Blockchain {
      * @return Depth of the given fork wrt the longest chain.
      */
     private static int computeDepth(Block block, Block longestChain) {
-        int steps = 0;
 
         // base case: we got to the same block
         if (block == longestChain) {
-            return steps;
+            return 0;
         }
 
-        // getBlock to the parent of the longest longest chain at the same height of the other block
-        final int currentNodeDepth = block.height;
-        while (longestChain.height > currentNodeDepth) {
-            longestChain = longestChain.previous;
-        }
-
-        // go on step by step, till a match is found
-        while (block != longestChain) {
-            block = block.previous;
-            longestChain = longestChain.previous;
-            steps++;
-        }
-
-        return steps;
-    }
-
-    /**
-     * Compute which transactions needs to be processed after that a new fork got longer
-     * than the old longest one.
-     *
-     * @param oldLongest Old longest fork.
-     * @param newLongest New longest fork.
-     */
-    private void recomputeTransactions(Block oldLongest, Block newLongest) {
-
-        // find the common ancestor, since it is the fork point
-        final Block commonAncestor = findCommonAncestor(oldLongest, newLongest);
-
-        // un-flag transactions from the ex-longest chain
-        while (oldLongest != commonAncestor) {
-            final TransactionsWrapper wrapper = oldLongest.transactions;
-            for (int i = 0; i < wrapper.transactionsNumber; i++) {
-                final Transaction transaction = wrapper.transactions[i];
-                processedTransactions.set(transaction.id, false);
-            }
-            oldLongest = oldLongest.previous;
-        }
-
-        // flag transactions from the new longest chain
-        while (newLongest != commonAncestor) {
-            final TransactionsWrapper wrapper = newLongest.transactions;
-            for (int i = 0; i < wrapper.transactionsNumber; i++) {
-                final Transaction transaction = wrapper.transactions[i];
-                processedTransactions.set(transaction.id, true);
-            }
-            newLongest = newLongest.previous;
-        }
+        // the depth is the number of blocks between the fork and the common ancestor
+        return block.height - findCommonAncestor(block, longestChain).height;
     }
 
     /**
@@ -297,18 +405,22 @@ public final class Blockchain {
      * @param longest  Block on the longest of the two chains.
      * @return The first common ancestor.
      */
-    Block findCommonAncestor(Block shortest, Block longest) {
+    static Block findCommonAncestor(Block shortest, Block longest) {
         assert longest.height >= shortest.height;
 
         // getBlock the longest to the same level as the shortest
-        while (longest.height > shortest.height) {
-            longest = longest.previous;
-        }
+        longest = longest.getAncestor(shortest.height);
 
-        // proceed one step at a time until we getBlock to the same block, i.e. the first common ancestor
+        // go back until we getBlock to the same block, i.e. the first common ancestor
+        // NB: blocks at the same height have skip pointers at the same height, so we can follow them together
         while (shortest != longest) {
-            shortest = shortest.previous;
-            longest = longest.previous;
+            if (shortest.skip != longest.skip) {
+                shortest = shortest.skip;
+                longest = longest.skip;
+            } else {
+                shortest = shortest.getPrevious();
+                longest = longest.getPrevious();
+            }
         }
 
         // return one of the two, they are the same
@@ -316,34 +428,42 @@ public final class Blockchain {
     }
 
     /**
-     * Find all blocks that are descendants of the given one.
+     * Find the blocks in this blockchain that are descendants of the given one (the block itself included),
+     * in breadth-first order. The IDs are appended to the given list, which is also used as the queue
+     * of the visit, so no memory is allocated apart from the growth of the list.
      *
-     * @param block Block.
-     * @return Descendants of the given block.
+     * @param block  Block in this blockchain.
+     * @param result List where to append the IDs of the descendants.
+     * @param limit  Maximum number of IDs to append.
      */
-    public List<Block> descendants(Block block) {
-
-        // initialization
-        final LinkedList<Block> descendants = new LinkedList<>();
-        final LinkedList<Block> toVisit = new LinkedList<>();
-        toVisit.add(block);
+    public void descendants(Block block, IntList result, int limit) {
+        assert seenBlocks.get(block.id) && limit > 0;
+        final int start = result.size();
+        result.add(block.id);
 
         // visit
-        Block current;
-        while ((current = toVisit.pollFirst()) != null) {
-            toVisit.addAll(Arrays.asList(current.children).subList(0, current.childrenNumber));
-            descendants.add(current);
+        // NB: blocks are global, so we need to skip the children that this node has not seen yet
+        for (int next = start; next < result.size() && result.size() - start < limit; next++) {
+            final Block current = Blocks.getBlock(result.get(next));
+            for (int i = 0; i < current.childrenNumber && result.size() - start < limit; i++) {
+                final Block child = current.children[i];
+                if (seenBlocks.get(child.id)) {
+                    result.add(child.id);
+                }
+            }
         }
-
-        return descendants;
     }
 
     /**
-     * @return Lengths of each fork in the blockchain.
+     * @return Lengths of each fork in the blockchain, followed by the lengths of the archived ones.
      */
     public int[] forksLengths() {
-        final int[] copy = new int[currentForks];
+        final int archived = archivedDepths.size();
+        final int[] copy = new int[currentForks + archived];
         System.arraycopy(forksDepths, 0, copy, 0, currentForks);
+        for (int i = 0; i < archived; i++) {
+            copy[currentForks + i] = archivedDepths.get(i);
+        }
         return copy;
     }
 
@@ -17,6 +17,10 @@
 
 package simulator.bitcoin.core.model;
 
+import simulator.collections.IntList;
+import simulator.collections.LongList;
+import simulator.collections.PersistentBitSet;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -27,11 +31,18 @@ import java.util.List;
  */
 public final class Blocks {
 
-    // keep track of the Genesis block
-    public static final Block GENESIS;
+    // number of blocks in the locators with step 1, before the step starts doubling (same as Bitcoin Core)
+    private static final int LOCATOR_DENSE_BLOCKS = 10;
+
+    // keep track of the Genesis block, i.e. the first block of the simulation
+    // NB: the genesis may sit on top of an implicit history of blocks that are never materialized:
+    // the historical block at height h has ID h, and the genesis has ID and height equal to the history length
+    private static Block genesis;
 
-    // keep track of all blocks, in order of generation
+    // keep track of all blocks, in order of generation, starting from the root
+    // NB: the blocks before the root are dropped, the other archived blocks are replaced by null
     private static final List<Block> BLOCKS_LIST;
+    private static int blocksOffset;
 
     // keep track of the longest chain
     private static Block longestChain;
@@ -42,9 +53,28 @@ public final class Blocks {
     // keep track of the "global" blockchain
     private static Blockchain globalBlockchain;
 
+    // the most recent block that is an ancestor of all live blocks (every other block is archived)
+    private static Block root;
+    private static int rootParent;
+
+    // IDs of the archived blocks of the main chain, starting from the genesis (one for each height)
+    private static IntList finalizedChain;
+
+    // archived blocks, in compact form
+    private static IntList archivedIds;
+    private static IntList archivedHeights;
+    private static IntList archivedParents;
+    private static LongList archivedTimestamps;
+
+    // IDs of the blocks archived by the last finalization that are more recent than the new root
+    private static IntList lastArchivedIds;
+
+    // transactions stored in the archived part of the main chain, with the timestamp of their block
+    private static IntList finalizedTransactions;
+    private static LongList finalizedTimestamps;
+
     // initialize the static variables
     static {
-        GENESIS = new Block(0, 0, null, new TransactionsWrapper(0), 0);
         BLOCKS_LIST = new ArrayList<>();
         _init();
     }
@@ -54,25 +84,58 @@ public final class Blocks {
     }
 
     /**
-     * Reset the state of the blocks to the original one (only the genesis exists).
+     * Reset the state of the blocks to the original one (only the genesis exists, without any history).
      */
     public static void _init() {
-        GENESIS.children = new Block[1];
-        GENESIS.childrenNumber = 0;
-        BLOCKS_LIST.add(GENESIS);
-        longestChain = GENESIS;
-        blocksCounter = 1;
-        globalBlockchain = new Blockchain(GENESIS);
+        _init(0);
+    }
+
+    /**
+     * Reset the state of the blocks to the original one (only the genesis exists). The simulation starts
+     * from an implicit chain of the given height: the historical blocks are never materialized, they are
+     * all archived from the beginning, and their IDs are equal to their heights.
+     *
+     * @param initialHeight Height of the genesis, i.e. number of blocks in the implicit history.
+     */
+    public static void _init(int initialHeight) {
+        if (initialHeight < 0) {
+            throw new IllegalArgumentException("The initial height must be non-negative");
+        }
+        genesis = new Block(initialHeight, initialHeight, null, null, TransactionsWrapper.EMPTY, 0,
+            PersistentBitSet.EMPTY);
+        BLOCKS_LIST.clear();
+        BLOCKS_LIST.add(genesis);
+        blocksOffset = genesis.id;
+        longestChain = genesis;
+        blocksCounter = initialHeight + 1;
+        globalBlockchain = new Blockchain(genesis);
+        root = genesis;
+        rootParent = initialHeight - 1;
+        finalizedChain = new IntList();
+        archivedIds = new IntList();
+        archivedHeights = new IntList();
+        archivedParents = new IntList();
+        archivedTimestamps = new LongList();
+        lastArchivedIds = new IntList();
+        finalizedTransactions = new IntList();
+        finalizedTimestamps = new LongList();
+    }
+
+    /**
+     * @return The first block of the simulation, on top of the implicit history (if any).
+     */
+    public static Block getGenesis() {
+        return genesis;
     }
 
     /**
      * Get the block with id i.
      *
      * @param i ID of the block to getBlock.
-     * @return Block with the given index.
+     * @return Block with the given index, null if the block was archived or belongs to the implicit history.
      */
     static Block getBlock(int i) {
-        return BLOCKS_LIST.get(i);
+        return i < blocksOffset ? null : BLOCKS_LIST.get(i - blocksOffset);
     }
 
     /**
@@ -84,7 +147,14 @@ public final class Blocks {
      * @return The newly created block.
      */
     public static Block nextBlock(Block previous, TransactionsWrapper transactions, long timestamp) {
-        final Block block = new Block(blocksCounter, previous.height + 1, previous, transactions, timestamp);
+        assert !previous.archived : "blocks can not be mined on top of archived ones";
+        final int height = previous.height + 1;
+        final int heightSkip = Block.skipHeight(height);
+        // NB: the skip pointer can not point to an archived block
+        final Block skip = heightSkip >= root.height ? previous.getAncestor(heightSkip) : null;
+        final PersistentBitSet processed = previous.processedTransactions
+            .with(transactions.toArray(), transactions.transactionsNumber);
+        final Block block = new Block(blocksCounter, height, previous, skip, transactions, timestamp, processed);
         blocksCounter++;
         updateChildren(previous, block);
         updateLongestChain(block);
@@ -138,9 +208,219 @@ public final class Blocks {
     }
 
     /**
-     * @return The number of blocks generated during the simulation.
+     * Archive all blocks that can not be part of any future longest chain, given the current tips of all nodes.
+     * The new root is the deepest common ancestor of all tips that is buried under at least the given
+     * number of blocks in every tip. Only the descendants of the root are kept alive: all other blocks
+     * are stored in compact form and all references from the live blocks to them are cut.
+     * The blockchains of the nodes must be updated afterwards with {@link Blockchain#onBlocksFinalized()}.
+     *
+     * @param tips  Last block of the longest chain of each node.
+     * @param depth Minimum number of blocks on top of the new root in every tip.
+     * @return True if some block was archived, false otherwise.
+     */
+    public static boolean finalizeBlocks(Block[] tips, int depth) {
+        assert tips.length > 0 && depth > 0;
+
+        // find the new root
+        Block common = tips[0];
+        int minHeight = tips[0].height;
+        for (Block tip : tips) {
+            common = common.height <= tip.height
+                ? Blockchain.findCommonAncestor(common, tip)
+                : Blockchain.findCommonAncestor(tip, common);
+            minHeight = Math.min(minHeight, tip.height);
+        }
+        final int height = Math.min(common.height, minHeight - depth);
+        if (height <= root.height) {
+            return false;
+        }
+        final Block newRoot = common.getAncestor(height);
+
+        // the blocks below the new root are on the main chain of every node forever
+        // NB: the walk stops at the old root, since its parent was already cut
+        for (int h = root.height; h < height; h++) {
+            finalizedChain.add(newRoot.getAncestor(h).id);
+        }
+        for (Block block = newRoot.getPrevious(); block != null; block = block.getPrevious()) {
+            final TransactionsWrapper wrapper = block.transactions;
+            for (int r = 0; r < wrapper.rangesNumber(); r++) {
+                for (int id = wrapper.rangeStart(r); id < wrapper.rangeEnd(r); id++) {
+                    finalizedTransactions.add(id);
+                    finalizedTimestamps.add(block.timestamp);
+                }
+            }
+        }
+
+        // archive all blocks that do not descend from the new root
+        // NB: they all have an ID greater than the old root (the previous ones are already archived)
+        lastArchivedIds.clear();
+        for (int id = root.id; id < blocksCounter; id++) {
+            final Block block = getBlock(id);
+            final boolean live = block == newRoot || (block != null && block.height > height
+                && block.getAncestor(height) == newRoot);
+            if (block != null && !live) {
+                archive(block);
+                if (id > newRoot.id) {
+                    lastArchivedIds.add(id);
+                }
+            }
+        }
+
+        // cut the references from the live blocks to the archived ones
+        rootParent = newRoot.getPrevious().id;
+        newRoot.setPrevious(null);
+        newRoot.skip = null;
+        for (int id = newRoot.id + 1; id < blocksCounter; id++) {
+            final Block block = getBlock(id);
+            if (block != null && block.skip != null && block.skip.archived) {
+                block.skip = null;
+            }
+        }
+        root = newRoot;
+
+        // all blocks before the new root are archived, so their slots can be dropped
+        BLOCKS_LIST.subList(0, newRoot.id - blocksOffset).clear();
+        blocksOffset = newRoot.id;
+
+        globalBlockchain.onBlocksFinalized();
+        return true;
+    }
+
+    /**
+     * Move the given block to the archive.
+     *
+     * @param block Block to archive.
+     */
+    private static void archive(Block block) {
+        archivedIds.add(block.id);
+        archivedHeights.add(block.height);
+        archivedParents.add(block.getPrevious() != null ? block.getPrevious().id : rootParent);
+        archivedTimestamps.add(block.timestamp);
+        block.archived = true;
+        BLOCKS_LIST.set(block.id - blocksOffset, null);
+    }
+
+    /**
+     * @return The most recent block that is an ancestor of all blocks that are not archived.
+     */
+    public static Block getRoot() {
+        return root;
+    }
+
+    /**
+     * Find the ID of the ancestor of the given block at the given height. The ancestors are looked up
+     * in the live blocks, in the archived part of the main chain, or computed for the implicit history.
+     *
+     * @param block  Live block.
+     * @param height Height of the ancestor, must be between 0 and the height of the block.
+     * @return ID of the ancestor of the block at the given height.
+     */
+    public static int getAncestorId(Block block, int height) {
+        assert !block.archived && height >= 0 && height <= block.height;
+        if (height >= root.height) {
+            return block.getAncestor(height).id;
+        }
+        if (height >= genesis.height) {
+            return finalizedChain.get(height - genesis.height);
+        }
+        return height;
+    }
+
+    /**
+     * Build the block locator of the given block, as done by Bitcoin Core: the IDs of the last blocks,
+     * then of ancestors exponentially further back, ending with the first block of the chain.
+     *
+     * @param block Live block, usually the tip of the longest chain of a node.
+     * @return IDs of the ancestors of the block, from the most recent to the oldest one.
+     */
+    public static int[] locator(Block block) {
+        final IntList ids = new IntList();
+        int step = 1;
+        int height = block.height;
+        while (height > 0) {
+            ids.add(getAncestorId(block, height));
+            if (ids.size() >= LOCATOR_DENSE_BLOCKS) {
+                step *= 2;
+            }
+            height -= step;
+        }
+        ids.add(getAncestorId(block, 0));
+        return ids.toArray();
+    }
+
+    /**
+     * @return IDs of the blocks archived by the last finalization that are more recent than the root.
+     */
+    static IntList getLastArchivedIds() {
+        return lastArchivedIds;
+    }
+
+    /**
+     * @return The number of archived blocks.
+     */
+    public static int getArchivedBlocksCount() {
+        return archivedIds.size();
+    }
+
+    /**
+     * @param i Index of the archived block (in order of archival).
+     * @return ID of the i-th archived block.
+     */
+    public static int getArchivedId(int i) {
+        return archivedIds.get(i);
+    }
+
+    /**
+     * @param i Index of the archived block (in order of archival).
+     * @return Height of the i-th archived block.
+     */
+    public static int getArchivedHeight(int i) {
+        return archivedHeights.get(i);
+    }
+
+    /**
+     * @param i Index of the archived block (in order of archival).
+     * @return ID of the parent of the i-th archived block (-1 for the genesis).
+     */
+    public static int getArchivedParent(int i) {
+        return archivedParents.get(i);
+    }
+
+    /**
+     * @param i Index of the archived block (in order of archival).
+     * @return Creation timestamp of the i-th archived block.
+     */
+    public static long getArchivedTimestamp(int i) {
+        return archivedTimestamps.get(i);
+    }
+
+    /**
+     * @return The number of transactions stored in the archived part of the main chain.
+     */
+    public static int getFinalizedTransactionsCount() {
+        return finalizedTransactions.size();
+    }
+
+    /**
+     * @param i Index of the finalized transaction (between 0 and the number of finalized transactions).
+     * @return ID of the i-th finalized transaction.
+     */
+    public static int getFinalizedTransaction(int i) {
+        return finalizedTransactions.get(i);
+    }
+
+    /**
+     * @param i Index of the finalized transaction (between 0 and the number of finalized transactions).
+     * @return Timestamp of the block that stores the i-th finalized transaction.
+     */
+    public static long getFinalizedTimestamp(int i) {
+        return finalizedTimestamps.get(i);
+    }
+
+    /**
+     * @return The number of blocks generated during the simulation (the implicit history is not counted).
      */
     public static int getBlocksCount() {
-        return BLOCKS_LIST.size();
+        return blocksCounter - genesis.id;
     }
 }
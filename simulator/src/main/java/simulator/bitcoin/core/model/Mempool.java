@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.core.model;
+
+import simulator.collections.SlidingBitSet;
+
+/**
+ * Transactions known by a node that are not stored yet in its longest chain, i.e. the candidates
+ * for the next mined block. The set is updated incrementally when the node learns a new transaction
+ * and when the longest chain changes, so selecting the transactions for a new block does not need
+ * to scan all transactions known by the node. Transaction IDs are assigned in order of generation,
+ * so iterating the set by ID returns the transactions in arrival order (the simulation has no fees).
+ */
+public final class Mempool {
+
+    // NB: all transactions with an ID below the window are either unknown or already in the longest chain
+    private final SlidingBitSet transactions;
+    private int size;
+
+    /**
+     * Create a new empty mempool.
+     */
+    public Mempool() {
+        this.transactions = new SlidingBitSet(false);
+        this.size = 0;
+    }
+
+    /**
+     * Create a copy of the given mempool.
+     *
+     * @param original Original object to copy.
+     */
+    public Mempool(Mempool original) {
+        this.transactions = new SlidingBitSet(original.transactions);
+        this.size = original.size;
+    }
+
+    /**
+     * @return Number of transactions in the mempool.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param id ID of the transaction.
+     * @return True if the transaction is in the mempool, false otherwise.
+     */
+    public boolean contains(int id) {
+        return transactions.get(id);
+    }
+
+    /**
+     * Add a transaction to the mempool, if not present.
+     *
+     * @param id ID of the transaction.
+     */
+    public void add(int id) {
+        if (!transactions.get(id)) {
+            transactions.set(id);
+            size++;
+        }
+    }
+
+    /**
+     * Remove a transaction from the mempool, if present.
+     *
+     * @param id ID of the transaction.
+     */
+    public void remove(int id) {
+        if (transactions.get(id)) {
+            transactions.clear(id);
+            size--;
+        }
+    }
+
+    /**
+     * Update the mempool after a change of the longest chain: the transactions of the disconnected blocks
+     * go back to the mempool (if known), while the ones of the connected blocks are removed.
+     * Only the blocks after the common ancestor of the two tips are visited.
+     *
+     * @param oldTip Last block of the old longest chain.
+     * @param newTip Last block of the new longest chain.
+     * @param known  Transactions known by the node.
+     */
+    public void updateTip(Block oldTip, Block newTip, SlidingBitSet known) {
+        final Block commonAncestor = oldTip.height <= newTip.height
+            ? Blockchain.findCommonAncestor(oldTip, newTip)
+            : Blockchain.findCommonAncestor(newTip, oldTip);
+
+        // disconnect the blocks of the old longest chain
+        for (Block block = oldTip; block != commonAncestor; block = block.getPrevious()) {
+            final TransactionsWrapper wrapper = block.transactions;
+            for (int r = 0; r < wrapper.rangesNumber(); r++) {
+                for (int id = wrapper.rangeStart(r); id < wrapper.rangeEnd(r); id++) {
+                    if (known.get(id)) {
+                        add(id);
+                    }
+                }
+            }
+        }
+
+        // connect the blocks of the new longest chain
+        for (Block block = newTip; block != commonAncestor; block = block.getPrevious()) {
+            final TransactionsWrapper wrapper = block.transactions;
+            for (int r = 0; r < wrapper.rangesNumber(); r++) {
+                for (int id = wrapper.rangeStart(r); id < wrapper.rangeEnd(r); id++) {
+                    remove(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Select the transactions for a new block, in arrival order.
+     *
+     * @param maxBlockSize Maximum number of transactions in the block.
+     * @return The selected transactions.
+     */
+    public TransactionsWrapper select(int maxBlockSize) {
+        final int[] ids = new int[maxBlockSize];
+        int count = 0;
+        int id = transactions.nextSetBit(0);
+        while (count < maxBlockSize && id >= 0) {
+            ids[count] = id;
+            count++;
+            id = transactions.nextSetBit(id + 1);
+        }
+        return new TransactionsWrapper(ids, count);
+    }
+}
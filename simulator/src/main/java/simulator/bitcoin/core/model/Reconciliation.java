@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.core.model;
+
+import simulator.collections.IntList;
+import simulator.collections.SlidingBitSet;
+
+/**
+ * Set reconciliation of the known transactions between two peers, as done by Erlay.
+ * The sketches are not really encoded: the sketch carries the transactions of the sender above the
+ * watermark of the requester, i.e. the lowest transaction it does not know, and its capacity is only used
+ * to detect the rounds where decoding a real sketch would fail.
+ */
+public final class Reconciliation {
+
+    // coefficient used to estimate the capacity of the sketches (see the Erlay paper)
+    private static final double SKETCH_Q = 0.25;
+
+    // prevent class construction
+    private Reconciliation() {
+    }
+
+    /**
+     * @param known Transactions known by the node.
+     * @return ID of the lowest transaction not known by the node: all transactions below it are known.
+     */
+    public static int watermark(SlidingBitSet known) {
+        return known.nextClearBit(0);
+    }
+
+    /**
+     * @param known     Transactions known by the node.
+     * @param watermark Watermark of the peer.
+     * @return The transactions known by the node above the watermark, sorted by ID.
+     */
+    public static int[] knownAbove(SlidingBitSet known, int watermark) {
+        final IntList transactions = new IntList();
+        int id = known.nextSetBit(watermark);
+        while (id >= 0) {
+            transactions.add(id);
+            id = known.nextSetBit(id + 1);
+        }
+        return transactions.toArray();
+    }
+
+    /**
+     * Estimate the capacity of a sketch from the sizes of the two sets, as in Erlay.
+     *
+     * @param localSize  Number of transactions of the sender of the sketch.
+     * @param remoteSize Number of transactions of the receiver of the sketch.
+     * @return Capacity of the sketch (number of elements).
+     */
+    public static int capacity(int localSize, int remoteSize) {
+        return Math.abs(localSize - remoteSize) + (int) (SKETCH_Q * Math.min(localSize, remoteSize)) + 1;
+    }
+
+    /**
+     * Compute the difference between the transactions known by the node and the ones in a sketch.
+     * NB: this must be computed before learning the transactions of the sketch.
+     *
+     * @param known         Transactions known by the node.
+     * @param watermark     Watermark used to build the sketch.
+     * @param remote        Transactions in the sketch, sorted by ID.
+     * @param missingRemote Output list, filled with the transactions missing to the sender of the sketch.
+     * @return Number of transactions missing to the node.
+     */
+    public static int difference(SlidingBitSet known, int watermark, int[] remote, IntList missingRemote) {
+        int missingLocal = 0;
+
+        // the transactions in the sketch are sorted by ID, so we can merge the two sets in a single pass
+        int r = 0;
+        int id = known.nextSetBit(watermark);
+        while (id >= 0) {
+            while (r < remote.length && remote[r] < id) {
+                r++;
+                missingLocal++;
+            }
+            if (r < remote.length && remote[r] == id) {
+                r++;
+            } else {
+                missingRemote.add(id);
+            }
+            id = known.nextSetBit(id + 1);
+        }
+        return missingLocal + remote.length - r;
+    }
+}
@@ -19,46 +19,166 @@ package simulator.bitcoin.core.model;
 
 import simulator.bitcoin.core.initializers.TransactionsInitializer;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * Global storage all ALL generated transactions. This class is populated at the beginning
  * for the simulation by {@link TransactionsInitializer}. The store contains all transactions,
  * even before they are scheduled to the nodes.
+ * <p>
+ * A transaction is identified by its ID, assigned progressively in order of generation,
+ * and the only other attribute is its creation timestamp. The timestamps are stored in columns
+ * of primitive values, split in chunks of fixed size, so no object is allocated per transaction.
+ * The chunks can optionally live outside of the Java heap.
  */
 public final class Transactions {
 
-    // keep track of all transactions, in order of generation
-    public static final List<Transaction> TRANSACTION_LIST = new ArrayList<>();
+    // size of each chunk of timestamps
+    private static final int CHUNK_BITS = 14;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    // true if the users generate transactions in this simulation
+    private static boolean enabled;
+
+    // timestamps, stored either in the heap or in direct buffers
+    private static boolean offHeap;
+    private static long[][] chunks;
+    private static ByteBuffer[] buffers;
 
     // assign to each transaction a different progressive ID
-    private static int transactionCounter = 0;
+    private static int transactionCounter;
+
+    // initialize the static variables
+    static {
+        _init();
+    }
 
     // prevent class construction
     private Transactions() {
     }
 
     /**
-     * Get the transaction with ID i.
+     * Reset the store to the original state (transactions disabled, timestamps stored in the heap).
+     */
+    public static void _init() {
+        _init(false);
+    }
+
+    /**
+     * Reset the store to the original state (transactions disabled, no transactions). This is called at the
+     * beginning of each experiment, since the store is shared by all experiments run in the same JVM.
      *
-     * @param i ID of the transaction to getBlock.
-     * @return Transaction with the given index.
+     * @param offHeap True to store the timestamps in direct buffers outside the Java heap, false otherwise.
+     */
+    public static void _init(boolean offHeap) {
+        enabled = false;
+        Transactions.offHeap = offHeap;
+        chunks = new long[1][];
+        buffers = new ByteBuffer[1];
+        transactionCounter = 0;
+    }
+
+    /**
+     * Mark the transactions as enabled, i.e. the users generate transactions in this simulation.
      */
-    public static Transaction getTransaction(int i) {
-        return TRANSACTION_LIST.get(i);
+    public static void enable() {
+        enabled = true;
+    }
+
+    /**
+     * @return True if the users generate transactions in this simulation, false otherwise.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Get the creation timestamp of the transaction with ID i.
+     *
+     * @param i ID of the transaction.
+     * @return Creation timestamp of the transaction.
+     */
+    public static long getTimestamp(int i) {
+        assert i >= 0 && i < transactionCounter;
+        final int chunk = i >>> CHUNK_BITS;
+        final int offset = i & CHUNK_MASK;
+        return offHeap ? buffers[chunk].getLong(offset << 3) : chunks[chunk][offset];
+    }
+
+    /**
+     * @return The number of generated transactions.
+     */
+    public static int getTransactionsCount() {
+        return transactionCounter;
     }
 
     /**
      * Generate a new transaction with the given timestamp and adds it to the store.
      *
      * @param timestamp Transaction creation timestamp.
-     * @return Newly generated transaction.
+     * @return ID of the newly generated transaction.
      */
-    public static Transaction nextTransaction(long timestamp) {
-        final Transaction transaction = new Transaction(transactionCounter, timestamp);
-        TRANSACTION_LIST.add(transaction);
+    public static int nextTransaction(long timestamp) {
+        final int id = transactionCounter;
+        final int chunk = id >>> CHUNK_BITS;
+        final int offset = id & CHUNK_MASK;
+        if (offset == 0) {
+            allocateChunk(chunk);
+        }
+        if (offHeap) {
+            buffers[chunk].putLong(offset << 3, timestamp);
+        } else {
+            chunks[chunk][offset] = timestamp;
+        }
         transactionCounter++;
-        return transaction;
+        return id;
+    }
+
+    /**
+     * Find the last transaction generated at or before the given time. Transactions are generated
+     * in order of time, so this is a binary search over the timestamps and runs in O(log(n)).
+     *
+     * @param timestamp Maximum timestamp.
+     * @return ID of the last transaction with a timestamp lower or equal to the given one,
+     * -1 if there is no such transaction.
+     */
+    public static int lastTransactionBefore(long timestamp) {
+        int result = -1;
+        int start = 0;
+        int end = transactionCounter - 1;
+        while (start <= end) {
+            final int middle = (start + end) >>> 1;
+            if (getTimestamp(middle) <= timestamp) {
+                result = middle;
+                start = middle + 1;
+            } else {
+                end = middle - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Allocate a new chunk of timestamps, growing the array of chunks if needed.
+     *
+     * @param chunk Index of the chunk.
+     */
+    private static void allocateChunk(int chunk) {
+        if (chunk == chunks.length) {
+            final int newSize = 2 * chunks.length;
+            final long[][] newChunks = new long[newSize][];
+            final ByteBuffer[] newBuffers = new ByteBuffer[newSize];
+            System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+            System.arraycopy(buffers, 0, newBuffers, 0, buffers.length);
+            chunks = newChunks;
+            buffers = newBuffers;
+        }
+        if (offHeap) {
+            buffers[chunk] = ByteBuffer.allocateDirect(CHUNK_SIZE << 3).order(ByteOrder.nativeOrder());
+        } else {
+            chunks[chunk] = new long[CHUNK_SIZE];
+        }
     }
 }
@@ -17,23 +17,92 @@
 
 package simulator.bitcoin.core.model;
 
+import java.util.Arrays;
+
 /**
- * Container of transactions that fit in one {@link Block}.
- * This class is used for performances reasons. It always allocate the maximum number of
- * transactions that can be contained in a single Block and keeps count of the real number.
+ * Container of the transactions stored in one {@link Block}. The IDs of the transactions are kept sorted
+ * and compressed in ranges of consecutive IDs: the mining template picks transactions in order of ID,
+ * so a block usually needs only a few ranges, regardless of the number of transactions it contains.
  */
 public final class TransactionsWrapper {
 
-    public final Transaction[] transactions;
-    public int transactionsNumber;
+    /**
+     * Container without transactions (eg. for the genesis block).
+     */
+    public static final TransactionsWrapper EMPTY = new TransactionsWrapper(new int[0], 0);
+
+    // ranges of IDs: the i-th range is [ranges[2 * i], ranges[2 * i + 1])
+    private final int[] ranges;
+    public final int transactionsNumber;
+
+    /**
+     * Create a new container with the given transactions.
+     *
+     * @param ids    Array that contains the IDs of the transactions, in any order. The array is not modified.
+     * @param length Number of IDs to consider, starting from the first position of the array.
+     */
+    public TransactionsWrapper(int[] ids, int length) {
+        final int[] sorted = Arrays.copyOf(ids, length);
+        Arrays.sort(sorted);
+
+        // compress the IDs, skipping duplicates
+        final int[] tmp = new int[2 * length];
+        int size = 0;
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            final int id = sorted[i];
+            if (size > 0 && id < tmp[size - 1]) {
+                continue;
+            }
+            if (size > 0 && id == tmp[size - 1]) {
+                tmp[size - 1]++;
+            } else {
+                tmp[size] = id;
+                tmp[size + 1] = id + 1;
+                size += 2;
+            }
+            count++;
+        }
+
+        this.ranges = Arrays.copyOf(tmp, size);
+        this.transactionsNumber = count;
+    }
+
+    /**
+     * @return Number of ranges of consecutive IDs.
+     */
+    public int rangesNumber() {
+        return ranges.length / 2;
+    }
+
+    /**
+     * @param range Index of the range.
+     * @return First ID of the range (inclusive).
+     */
+    public int rangeStart(int range) {
+        return ranges[2 * range];
+    }
 
-    public TransactionsWrapper(int blockSize) {
-        this.transactions = new Transaction[blockSize];
-        this.transactionsNumber = 0;
+    /**
+     * @param range Index of the range.
+     * @return Last ID of the range (exclusive).
+     */
+    public int rangeEnd(int range) {
+        return ranges[2 * range + 1];
     }
 
-    TransactionsWrapper(Transaction[] transactions) {
-        this.transactions = transactions;
-        this.transactionsNumber = transactions.length;
+    /**
+     * @return Array with the IDs of all transactions, sorted.
+     */
+    public int[] toArray() {
+        final int[] ids = new int[transactionsNumber];
+        int count = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            for (int id = ranges[i]; id < ranges[i + 1]; id++) {
+                ids[count] = id;
+                count++;
+            }
+        }
+        return ids;
     }
 }
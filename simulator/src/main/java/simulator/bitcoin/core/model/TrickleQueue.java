@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.core.model;
+
+import simulator.collections.IntList;
+import simulator.collections.LongList;
+
+/**
+ * Transactions waiting for the next trickle of a node, together with the ID of the peer each of them
+ * was learned from. Bitcoin Core marks the transactions announced by a peer as known to it, so they are
+ * never announced back: {@link #toArray(long)} skips them in the same way.
+ */
+public final class TrickleQueue {
+
+    /**
+     * Source of the transactions that were not learned from a peer, e.g. the ones generated by the users.
+     */
+    public static final long NO_SOURCE = -1;
+
+    private static final int[] EMPTY = new int[0];
+
+    private final IntList transactions;
+    private final LongList sources;
+
+    /**
+     * Create a new empty queue.
+     */
+    public TrickleQueue() {
+        this.transactions = new IntList();
+        this.sources = new LongList();
+    }
+
+    /**
+     * Create a copy of the given queue.
+     *
+     * @param original Original object to copy.
+     */
+    public TrickleQueue(TrickleQueue original) {
+        this.transactions = new IntList(original.transactions);
+        this.sources = new LongList(original.sources);
+    }
+
+    /**
+     * @return Number of queued transactions.
+     */
+    public int size() {
+        return transactions.size();
+    }
+
+    /**
+     * @return True if no transaction is queued, false otherwise.
+     */
+    public boolean isEmpty() {
+        return transactions.isEmpty();
+    }
+
+    /**
+     * Queue a transaction.
+     *
+     * @param id     ID of the transaction.
+     * @param source ID of the peer that sent the transaction, or {@link #NO_SOURCE}.
+     */
+    public void add(int id, long source) {
+        transactions.add(id);
+        sources.add(source);
+    }
+
+    /**
+     * @return All queued transactions, in order.
+     */
+    public int[] toArray() {
+        return transactions.toArray();
+    }
+
+    /**
+     * Select the transactions to announce to the given peer, i.e. the ones not learned from it.
+     *
+     * @param peer ID of the peer.
+     * @return The queued transactions not sent by the peer, in order, or null if the peer did not send
+     * any of them: in this case, the caller can share the array returned by {@link #toArray()}.
+     */
+    public int[] toArray(long peer) {
+        int skipped = 0;
+        for (int i = 0; i < sources.size(); i++) {
+            if (sources.get(i) == peer) {
+                skipped++;
+            }
+        }
+        if (skipped == 0) {
+            return null;
+        }
+        if (skipped == sources.size()) {
+            return EMPTY;
+        }
+        final int[] result = new int[sources.size() - skipped];
+        int j = 0;
+        for (int i = 0; i < sources.size(); i++) {
+            if (sources.get(i) != peer) {
+                result[j++] = transactions.get(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Remove all queued transactions.
+     */
+    public void clear() {
+        transactions.clear();
+        sources.clear();
+    }
+}
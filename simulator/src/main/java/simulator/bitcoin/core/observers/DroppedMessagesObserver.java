@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.core.observers;
+
+import peersim.core.CommonState;
+import peersim.core.Control;
+import peersim.core.Network;
+import peersim.util.IncrementalStats;
+import simulator.bitcoin.core.BitcoinCore;
+
+import static peersim.utilities.ConfigurationHelper.readPid;
+
+/**
+ * Observer of the number of messages dropped by the {@link BitcoinCore} protocol because the connection
+ * to the peer was closed while the request was traveling (eg. because of churn).
+ */
+public final class DroppedMessagesObserver implements Control {
+
+    // fields
+    private final String prefix;
+    private final int pid;
+
+    /**
+     * Default constructor, following the PeerSim conventions.
+     * The prefix field is automatically provided by the PeerSim engine.
+     *
+     * @param prefix Prefix of this control in the configuration file.
+     */
+    public DroppedMessagesObserver(String prefix) {
+        this.prefix = prefix;
+        this.pid = readPid(prefix);
+    }
+
+    @Override
+    public boolean execute() {
+
+        // compute the statistics over all nodes in the network
+        final IncrementalStats dropped = new IncrementalStats();
+        for (int i = 0; i < Network.size(); i++) {
+            final BitcoinCore protocol = (BitcoinCore) Network.get(i).getProtocol(pid);
+            dropped.add(protocol.droppedMessages());
+        }
+
+        // print them out, following PeerSim conventions
+        System.out.println(prefix + ": [" + CommonState.getTime() + "] " + dropped);
+
+        // false == do NOT stop the simulation
+        return false;
+    }
+}
@@ -22,10 +22,6 @@ import peersim.core.Control;
 import peersim.util.IncrementalStats;
 import simulator.bitcoin.core.model.*;
 
-import java.util.function.BiFunction;
-
-import static simulator.collections.ArrayUtilities.binarySearch;
-
 /**
  * Observer that measures the time needed to store a transaction on the main branch
  * of the blockchain. NB: the same transaction can be in more than one chain.
@@ -50,23 +46,30 @@ public final class TransactionsObserver implements Control {
         final IncrementalStats stats = new IncrementalStats();
 
         // find the index of the last transaction seen so far
-        final BiFunction<Transaction, Long, Boolean> comparator = (tx, timestamp) -> tx.timestamp <= timestamp;
-        final int lastTransactionIndex = binarySearch(Transactions.TRANSACTION_LIST, CommonState.getTime(), comparator);
+        final int lastTransactionIndex = Transactions.lastTransactionBefore(CommonState.getTime());
 
         // nothing to compute if there are no transactions issued before the maximum timestamp
         if (lastTransactionIndex >= 0) {
 
             // compute the time needed to enter a block in the blockchain
+            // NB: the archived part of the main chain is not reachable from the longest chain anymore
             final long[] times = new long[lastTransactionIndex + 1];
+            for (int i = 0; i < Blocks.getFinalizedTransactionsCount(); i++) {
+                final int id = Blocks.getFinalizedTransaction(i);
+                if (id <= lastTransactionIndex) {
+                    times[id] = Blocks.getFinalizedTimestamp(i) - Transactions.getTimestamp(id);
+                }
+            }
             Block block = Blocks.getLongestChain();
             while (block != null) {
                 final TransactionsWrapper wrapper = block.transactions;
-                for (int i = 0; i < wrapper.transactionsNumber; i++) {
-                    final Transaction transaction = wrapper.transactions[i];
-                    final long delta = block.timestamp - transaction.timestamp;
-                    times[transaction.id] = delta;
+                for (int r = 0; r < wrapper.rangesNumber(); r++) {
+                    for (int id = wrapper.rangeStart(r); id < wrapper.rangeEnd(r); id++) {
+                        final long delta = block.timestamp - Transactions.getTimestamp(id);
+                        times[id] = delta;
+                    }
                 }
-                block = block.previous;
+                block = block.getPrevious();
             }
 
             // compute the statistics over all transactions generated so far...
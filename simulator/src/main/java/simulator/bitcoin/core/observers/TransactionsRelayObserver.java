@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.core.observers;
+
+import peersim.core.CommonState;
+import peersim.core.Control;
+import peersim.core.Network;
+import peersim.util.IncrementalStats;
+import simulator.bitcoin.core.BitcoinCore;
+
+import static peersim.utilities.ConfigurationHelper.readPid;
+
+/**
+ * Observer of the number of messages used by the {@link BitcoinCore} protocol to relay transactions.
+ */
+public final class TransactionsRelayObserver implements Control {
+
+    // fields
+    private final String prefix;
+    private final int pid;
+
+    /**
+     * Default constructor, following the PeerSim conventions.
+     * The prefix field is automatically provided by the PeerSim engine.
+     *
+     * @param prefix Prefix of this control in the configuration file.
+     */
+    public TransactionsRelayObserver(String prefix) {
+        this.prefix = prefix;
+        this.pid = readPid(prefix);
+    }
+
+    @Override
+    public boolean execute() {
+
+        // compute the statistics over all nodes in the network
+        final IncrementalStats messages = new IncrementalStats();
+        final IncrementalStats announcements = new IncrementalStats();
+        final IncrementalStats reconciliations = new IncrementalStats();
+        final IncrementalStats reconciliationsFailed = new IncrementalStats();
+        final IncrementalStats sketchCapacity = new IncrementalStats();
+        final IncrementalStats roundTrips = new IncrementalStats();
+        for (int i = 0; i < Network.size(); i++) {
+            final BitcoinCore protocol = (BitcoinCore) Network.get(i).getProtocol(pid);
+            messages.add(protocol.txMessages());
+            announcements.add(protocol.txAnnouncements());
+            reconciliations.add(protocol.reconciliations());
+            reconciliationsFailed.add(protocol.reconciliationsFailed());
+            sketchCapacity.add(protocol.sketchCapacity());
+            roundTrips.add(protocol.reconciliationRoundTrips());
+        }
+
+        // print them out, following PeerSim conventions
+        System.out.println(prefix + "-messages: [" + CommonState.getTime() + "] " + messages);
+        System.out.println(prefix + "-announcements: [" + CommonState.getTime() + "] " + announcements);
+        System.out.println(prefix + "-reconciliations: [" + CommonState.getTime() + "] " + reconciliations);
+        System.out.println(prefix + "-reconciliations-failed: [" + CommonState.getTime() + "] " + reconciliationsFailed);
+        System.out.println(prefix + "-sketch: [" + CommonState.getTime() + "] " + sketchCapacity);
+        System.out.println(prefix + "-round-trips: [" + CommonState.getTime() + "] " + roundTrips);
+
+        // false == do NOT stop the simulation
+        return false;
+    }
+}
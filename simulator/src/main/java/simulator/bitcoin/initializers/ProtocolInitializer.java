@@ -18,14 +18,18 @@
 package simulator.bitcoin.initializers;
 
 import peersim.core.Control;
+import peersim.core.Node;
+import peersim.dynamics.NodeInitializer;
+import peersim.edsim.EDSimulator;
 
 import static peersim.utilities.ConfigurationHelper.readPid;
 import static peersim.utilities.SimulationUtilities.scheduleEventForAllNodes;
 
 /**
  * {@link Control} used to initialize a protocol, using a {@link StartEvent}.
+ * It can also start the protocol of the nodes added to the network during the simulation.
  */
-public final class ProtocolInitializer implements Control {
+public final class ProtocolInitializer implements Control, NodeInitializer {
 
     // fields
     private final int pid;
@@ -50,4 +54,9 @@ public final class ProtocolInitializer implements Control {
         // false == do NOT stop the simulation
         return false;
     }
+
+    @Override
+    public void initialize(Node node) {
+        EDSimulator.add(0, StartEvent.INSTANCE, node, pid);
+    }
 }
@@ -0,0 +1,311 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.topology;
+
+import peersim.core.Node;
+import simulator.collections.IntIntMap;
+import simulator.collections.NodeSampler;
+import simulator.collections.NodeSet;
+
+import java.util.Random;
+
+import static peersim.utilities.NodeUtilities.key;
+
+/**
+ * Table of the known peer addresses, modelled on the address manager of Bitcoin Core (addrman).
+ * Addresses are stored either in the "new" table, for the addresses learned from other peers,
+ * or in the "tried" table, for the addresses we successfully connected to. Each table is split
+ * in buckets with a fixed number of slots, and each address is stored in the bucket chosen by hashing
+ * its ID with a secret salt, so the memory used by the table is bounded by the number of slots,
+ * regardless of the size of the network.
+ * <p>
+ * As done by Bitcoin Core, the addresses already stored are kept: a new address takes the first free slot
+ * of its bucket and is dropped if the bucket is full. NB: the simulation has no notion of stale addresses,
+ * so an address is evicted only when the whole table is full. An address evicted from the tried table
+ * is moved back to the new table, as done by Bitcoin Core.
+ */
+public final class AddressManager {
+
+    /**
+     * Number of slots in each bucket (same as Bitcoin Core).
+     */
+    public static final int BUCKET_SIZE = 64;
+
+    /**
+     * Bitcoin Core uses 4 times more buckets for the new table than for the tried one.
+     */
+    private static final int NEW_BUCKETS_PER_TRIED_BUCKET = 4;
+
+    /**
+     * Sampler shared by all address managers, since each sample is drawn within a single call.
+     */
+    private static final NodeSampler SAMPLER = new NodeSampler();
+
+    // salt used to place the addresses in the buckets, different for each node
+    private final long salt;
+    private final int newBuckets;
+    private final int triedBuckets;
+
+    // addresses stored in the tables, used for lookups and random selection
+    private final NodeSet newTable;
+    private final NodeSet triedTable;
+
+    // occupied slots of each table: slot -> ID of the node stored in the slot
+    private final IntIntMap newSlots;
+    private final IntIntMap triedSlots;
+
+    /**
+     * Create a new empty address manager.
+     *
+     * @param capacity Maximum number of addresses to store, split between the new and the tried tables.
+     * @param salt     Secret used to place the addresses in the buckets.
+     */
+    public AddressManager(int capacity, long salt) {
+        final int buckets = Math.max(1 + NEW_BUCKETS_PER_TRIED_BUCKET, capacity / BUCKET_SIZE);
+        this.salt = salt;
+        this.triedBuckets = Math.max(1, buckets / (1 + NEW_BUCKETS_PER_TRIED_BUCKET));
+        this.newBuckets = buckets - triedBuckets;
+        this.newTable = new NodeSet();
+        this.triedTable = new NodeSet();
+        this.newSlots = new IntIntMap();
+        this.triedSlots = new IntIntMap();
+    }
+
+    /**
+     * Create a copy of the given address manager with a different salt.
+     * The addresses are placed again in the buckets, so some of them may be evicted.
+     *
+     * @param original Address manager to copy.
+     * @param salt     Secret used to place the addresses in the buckets.
+     */
+    public AddressManager(AddressManager original, long salt) {
+        this.salt = salt;
+        this.newBuckets = original.newBuckets;
+        this.triedBuckets = original.triedBuckets;
+        this.newTable = new NodeSet();
+        this.triedTable = new NodeSet();
+        this.newSlots = new IntIntMap();
+        this.triedSlots = new IntIntMap();
+        for (int i = 0; i < original.newTable.size(); i++) {
+            add(original.newTable.get(i));
+        }
+        for (int i = 0; i < original.triedTable.size(); i++) {
+            good(original.triedTable.get(i));
+        }
+    }
+
+    /**
+     * @return Number of addresses stored in both tables.
+     */
+    public int size() {
+        return newTable.size() + triedTable.size();
+    }
+
+    /**
+     * @return Maximum number of addresses that can be stored in both tables.
+     */
+    public int capacity() {
+        return (newBuckets + triedBuckets) * BUCKET_SIZE;
+    }
+
+    /**
+     * Check if the given address is stored in one of the tables.
+     *
+     * @param node Node.
+     * @return True if the address is present, false otherwise.
+     */
+    public boolean contains(Node node) {
+        return newTable.contains(node) || triedTable.contains(node);
+    }
+
+    /**
+     * @return Addresses stored in the new table. Please do not modify the returned set.
+     */
+    public NodeSet newAddresses() {
+        return newTable;
+    }
+
+    /**
+     * @return Addresses stored in the tried table. Please do not modify the returned set.
+     */
+    public NodeSet triedAddresses() {
+        return triedTable;
+    }
+
+    /**
+     * Select k distinct random addresses from both tables, i.e. the first k addresses of a random permutation.
+     * The cost depends only on the number of selected addresses, not on the size of the tables.
+     *
+     * @param k      Number of addresses to select (at most the size of the tables).
+     * @param random Random number generator used to choose the addresses.
+     * @return Array with the selected addresses.
+     */
+    public Node[] sample(int k, Random random) {
+        assert k >= 0 && k <= size();
+        final Node[] sample = new Node[k];
+        SAMPLER.reset(size(), random);
+        for (int i = 0; i < k; i++) {
+            final int index = SAMPLER.nextPosition();
+            sample[i] = index < newTable.size() ? newTable.get(index) : triedTable.get(index - newTable.size());
+        }
+        return sample;
+    }
+
+    /**
+     * Add an address learned from another peer to the first free slot of its bucket in the new table.
+     * If the bucket is full, the address is dropped, unless the table is full: in that case,
+     * the address stored in its preferred slot is evicted.
+     *
+     * @param node Address to add.
+     * @return True if the address was added, false if it was already present or its bucket is full.
+     */
+    public boolean add(Node node) {
+        if (contains(node)) {
+            return false;
+        }
+        final int first = slot(node.getID(), newBuckets, false);
+        int slot = freeSlot(newSlots, first);
+        if (slot == IntIntMap.MISSING) {
+            if (newTable.size() < newBuckets * BUCKET_SIZE) {
+                return false;
+            }
+            slot = first;
+            evict(newTable, newSlots, slot);
+        }
+        newTable.add(node);
+        newSlots.put(slot, key(node));
+        return true;
+    }
+
+    /**
+     * Remove an address from the tables, eg. because the node is not reachable anymore.
+     *
+     * @param node Address to remove.
+     * @return True if the address was removed, false if it was not present.
+     */
+    public boolean remove(Node node) {
+        final long id = node.getID();
+        if (newTable.remove(node)) {
+            newSlots.remove(storedSlot(newSlots, slot(id, newBuckets, false), key(node)));
+            return true;
+        }
+        if (triedTable.remove(node)) {
+            triedSlots.remove(storedSlot(triedSlots, slot(id, triedBuckets, true), key(node)));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Mark an address as good, i.e. we successfully connected to it, and move it to the first free slot
+     * of its bucket in the tried table. If the bucket is full, the address stored in its preferred slot
+     * is moved back to the new table.
+     *
+     * @param node Address to mark as good.
+     */
+    public void good(Node node) {
+        if (triedTable.contains(node)) {
+            return;
+        }
+        remove(node);
+
+        // make space in the tried table
+        final int first = slot(node.getID(), triedBuckets, true);
+        int slot = freeSlot(triedSlots, first);
+        Node evicted = null;
+        if (slot == IntIntMap.MISSING) {
+            slot = first;
+            evicted = evict(triedTable, triedSlots, slot);
+        }
+        triedTable.add(node);
+        triedSlots.put(slot, key(node));
+
+        // NB: the evicted address is still a valid one, so we keep it in the new table
+        if (evicted != null) {
+            add(evicted);
+        }
+    }
+
+    /**
+     * Remove the address stored in the given slot of a table, if any.
+     *
+     * @return The evicted address, or null if the slot was free.
+     */
+    private static Node evict(NodeSet table, IntIntMap slots, int slot) {
+        final int id = slots.remove(slot);
+        if (id == IntIntMap.MISSING) {
+            return null;
+        }
+        final Node evicted = table.getById(id);
+        table.remove(evicted);
+        return evicted;
+    }
+
+    /**
+     * Find the first free slot of a bucket, starting from the given slot and wrapping around the bucket.
+     *
+     * @return The free slot, or {@link IntIntMap#MISSING} if the bucket is full.
+     */
+    private static int freeSlot(IntIntMap slots, int first) {
+        final int bucketStart = first - first % BUCKET_SIZE;
+        for (int i = 0; i < BUCKET_SIZE; i++) {
+            final int slot = bucketStart + (first + i) % BUCKET_SIZE;
+            if (slots.get(slot) == IntIntMap.MISSING) {
+                return slot;
+            }
+        }
+        return IntIntMap.MISSING;
+    }
+
+    /**
+     * Find the slot of a bucket where the given address is stored, searching in the same order as
+     * {@link #freeSlot(IntIntMap, int)}. The caller makes sure that the address is stored in the bucket.
+     */
+    private static int storedSlot(IntIntMap slots, int first, int key) {
+        final int bucketStart = first - first % BUCKET_SIZE;
+        for (int i = 0; i < BUCKET_SIZE; i++) {
+            final int slot = bucketStart + (first + i) % BUCKET_SIZE;
+            if (slots.get(slot) == key) {
+                return slot;
+            }
+        }
+        throw new IllegalStateException("Address " + key + " not found in its bucket");
+    }
+
+    /**
+     * Preferred slot of a table for the address with the given ID: the bucket and the position in
+     * the bucket are chosen by hashing the ID with the salt, so that each node fills its tables differently.
+     */
+    private int slot(long id, int buckets, boolean tried) {
+        final long bucketHash = mix(salt ^ mix(id) ^ (tried ? 1 : 0));
+        final int bucket = (int) Long.remainderUnsigned(bucketHash, buckets);
+        final long positionHash = mix(bucketHash ^ mix(bucket));
+        final int position = (int) Long.remainderUnsigned(positionHash, BUCKET_SIZE);
+        return bucket * BUCKET_SIZE + position;
+    }
+
+    /**
+     * Finalizer of SplitMix64, a fast hash function with good avalanche properties.
+     */
+    static long mix(long value) {
+        long h = value;
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+}
@@ -31,13 +31,21 @@ import simulator.bitcoin.topology.events.PingTimeEvent;
 import simulator.bitcoin.topology.events.ScheduleQueueAddrEvent;
 import simulator.bitcoin.topology.messages.*;
 import simulator.collections.ArrayUtilities;
-import simulator.collections.CircularQueue;
-import simulator.collections.ObjectList;
+import simulator.collections.IntIntMap;
+import simulator.collections.IntList;
+import simulator.collections.NodeSampler;
+import simulator.collections.NodeSet;
+import simulator.collections.RollingBloomFilter;
+
+import java.util.Arrays;
 
 import static peersim.utilities.ConfigurationHelper.readBoolean;
 import static peersim.utilities.ConfigurationHelper.readInt;
+import static peersim.utilities.ConfigurationHelper.readString;
 import static peersim.utilities.NetworkUtilities.send;
+import static peersim.utilities.NodeUtilities.key;
 import static peersim.utilities.TimeUnits.*;
+import static simulator.bitcoin.topology.AddressManager.mix;
 
 /**
  * Bitcoin underlining P2P protocol to discover peers and construct the network topology:
@@ -59,6 +67,8 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
     private static final String PARAM_MAX_IPS_ADDR_MESSAGE = "max_ips_addr_message";
     private static final String PARAM_NODES_ADDR_GOSSIP = "nodes_addr_gossip";
     private static final String PARAM_PING_PONG_ENABLED = "ping_pong_enabled";
+    private static final String PARAM_MAX_ADDR_KNOWN = "max_addr_known";
+    private static final String PARAM_ADDR_RELAY = "addr_relay";
 
     // default configuration
     private static final int DEFAULT_MAX_INCOMING_CONNECTIONS = 117;
@@ -72,6 +82,34 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
     private static final int DEFAULT_MAX_IPS_ADDR_MESSAGE_FOR_GOSSIP = 10;
     private static final int DEFAULT_NODES_TO_GOSSIP_ADDR_MESSAGES = 2;
     private static final boolean DEFAULT_PING_PONG_ENABLED = true;
+    private static final int DEFAULT_MAX_ADDR_KNOWN = 5000;
+    private static final String DEFAULT_ADDR_RELAY = "legacy";
+
+    // maximum number of addresses in a single addr message (same as Bitcoin Core)
+    private static final int MAX_ADDR_TO_SEND = 1000;
+
+    // false positive rate of the filters of the addresses known by each neighbour (same as Bitcoin Core)
+    private static final double ADDR_KNOWN_FALSE_POSITIVE_RATE = 0.001;
+
+    // only the addresses advertised in the last 10 minutes are relayed (same as Bitcoin Core)
+    private static final int ADDR_RELAY_WINDOW = 10 * MINUTES;
+
+    // the targets of the relay of each address change once a day (same as Bitcoin Core)
+    private static final int ADDR_RELAY_PERIOD = 24 * HOURS;
+
+    // timestamp of the addresses sent in reply to a getaddr: the table of known peers does not keep the timestamps,
+    // so they are never relayed (Bitcoin Core penalizes the addresses learned from other peers by 2 hours)
+    private static final int OLD_ADDRESS_TIME = Integer.MIN_VALUE;
+
+    // shared by all nodes without connections, the arrays grow on demand up to the maximum number of connections
+    private static final int[] NO_CONNECTIONS = new int[0];
+    private static final RollingBloomFilter[] NO_FILTERS = new RollingBloomFilter[0];
+
+    // shared by all nodes, since the events are processed one at a time
+    private static final NodeSampler PEERS_SAMPLER = new NodeSampler();
+    private static final IntList ADDR_TO_SEND = new IntList();
+    private static final IntList ADDR_TIMES = new IntList();
+    private static final NodeSet DEAD_PEERS = new NodeSet();
 
     // configuration actual values, extracted from configuration and defaults
     private final int maxIncomingConnections;
@@ -85,6 +123,8 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
     private final int maxIpsAddrMessage;
     private final int nodesAddrGossip;
     private final boolean pingPongEnabled;
+    private final int maxAddrKnown;
+    private final AddrRelay addrRelay;
 
     // metrics
     private long versionMessages;
@@ -95,17 +135,25 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
     private long pongMessages;
     private long nodesRemovedForPongTimeout;
 
-    // status of the outgoing and incoming connections
+    // IDs of the outgoing and incoming connections, their status is kept in the global store (see Connections)
     private int outgoingConnectionsNumber;
-    private Connection[] outgoingConnections;
+    private int[] outgoingConnections;
     private int incomingConnectionsNumber;
-    private Connection[] incomingConnections;
+    private int[] incomingConnections;
+
+    // filters of the addresses known by each neighbour, in the same positions of the connections
+    // NB: they are objects, so they are kept here and not in the global store of primitive values
+    private RollingBloomFilter[] outgoingAddrKnown;
+    private RollingBloomFilter[] incomingAddrKnown;
 
-    // list of known peers
-    private ObjectList<Node> peers;
+    // position of each neighbour in the arrays of connections, indexed by node ID (see #encodeSlot)
+    private IntIntMap neighboursIndex;
 
-    // tells if this node is currently opening a connection with another node
-    private boolean connecting;
+    // table of known peers
+    private AddressManager peers;
+
+    // timeout of the connection this node is currently opening with another node, null if none
+    private ConnectionTimeoutEvent connectionAttempt;
 
     /**
      * Default constructor, following the PeerSim conventions.
@@ -127,18 +175,23 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
         this.maxIpsAddrMessage = readInt(prefix, PARAM_MAX_IPS_ADDR_MESSAGE, DEFAULT_MAX_IPS_ADDR_MESSAGE_FOR_GOSSIP);
         this.nodesAddrGossip = readInt(prefix, PARAM_NODES_ADDR_GOSSIP, DEFAULT_NODES_TO_GOSSIP_ADDR_MESSAGES);
         this.pingPongEnabled = readBoolean(prefix, PARAM_PING_PONG_ENABLED, DEFAULT_PING_PONG_ENABLED);
+        this.maxAddrKnown = readInt(prefix, PARAM_MAX_ADDR_KNOWN, DEFAULT_MAX_ADDR_KNOWN);
+        this.addrRelay = AddrRelay.parse(readString(prefix, PARAM_ADDR_RELAY, DEFAULT_ADDR_RELAY));
 
         // keep track of the neighbors
         this.outgoingConnectionsNumber = 0;
-        this.outgoingConnections = new Connection[maxOutgoingConnections];
+        this.outgoingConnections = NO_CONNECTIONS;
         this.incomingConnectionsNumber = 0;
-        this.incomingConnections = new Connection[maxIncomingConnections];
+        this.incomingConnections = NO_CONNECTIONS;
+        this.outgoingAddrKnown = NO_FILTERS;
+        this.incomingAddrKnown = NO_FILTERS;
+        this.neighboursIndex = new IntIntMap();
 
         // keep track of the known peers
-        this.peers = new ObjectList<>();
+        this.peers = new AddressManager(maxPeerAddresses, CommonState.r.nextLong());
 
         // keep track if I am trying to establish a connection
-        this.connecting = false;
+        this.connectionAttempt = null;
 
         // metrics: keep track of the number of messages used to construct and maintain the topology
         this.versionMessages = 0;
@@ -157,17 +210,14 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
         try {
             final BitcoinTopology clone = (BitcoinTopology) super.clone();
 
-            clone.outgoingConnections = new Connection[this.outgoingConnections.length];
-            for (int i = 0; i < outgoingConnectionsNumber; i++) {
-                clone.outgoingConnections[i] = this.outgoingConnections[i].clone();
-            }
+            clone.outgoingConnections = cloneConnections(this.outgoingConnections, outgoingConnectionsNumber);
+            clone.incomingConnections = cloneConnections(this.incomingConnections, incomingConnectionsNumber);
+            clone.outgoingAddrKnown = cloneFilters(this.outgoingAddrKnown, outgoingConnectionsNumber);
+            clone.incomingAddrKnown = cloneFilters(this.incomingAddrKnown, incomingConnectionsNumber);
+            clone.neighboursIndex = new IntIntMap(this.neighboursIndex);
 
-            clone.incomingConnections = new Connection[this.incomingConnections.length];
-            for (int i = 0; i < incomingConnectionsNumber; i++) {
-                clone.incomingConnections[i] = this.incomingConnections[i].clone();
-            }
-
-            clone.peers = new ObjectList<>(this.peers);
+            // NB: each node places the addresses in the buckets with its own salt
+            clone.peers = new AddressManager(this.peers, CommonState.r.nextLong());
 
             return clone;
 
@@ -176,14 +226,88 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
         }
     }
 
+    /**
+     * Copy of the given connections. The array of nodes without connections is shared.
+     *
+     * @param connections Array of IDs of connections.
+     * @param number      Number of connections stored in the array.
+     * @return IDs of the copies of the connections.
+     */
+    private static int[] cloneConnections(int[] connections, int number) {
+        if (number == 0) {
+            return NO_CONNECTIONS;
+        }
+        final int[] clone = new int[connections.length];
+        for (int i = 0; i < number; i++) {
+            clone[i] = Connections.copy(connections[i]);
+        }
+        return clone;
+    }
+
+    /**
+     * Copy of the given filters. The array of nodes without connections is shared.
+     *
+     * @param filters Array of filters of the addresses known by the neighbours.
+     * @param number  Number of connections stored in the array.
+     * @return Copies of the filters.
+     */
+    private static RollingBloomFilter[] cloneFilters(RollingBloomFilter[] filters, int number) {
+        if (number == 0) {
+            return NO_FILTERS;
+        }
+        final RollingBloomFilter[] clone = new RollingBloomFilter[filters.length];
+        for (int i = 0; i < number; i++) {
+            clone[i] = new RollingBloomFilter(filters[i]);
+        }
+        return clone;
+    }
+
+    /**
+     * Make sure the given array of connections can store one more connection.
+     *
+     * @param connections Array of IDs of connections.
+     * @param number      Number of connections stored in the array.
+     * @param max         Maximum number of connections.
+     * @return The same array if it has free slots, a bigger copy otherwise.
+     */
+    private static int[] ensureCapacity(int[] connections, int number, int max) {
+        if (number < connections.length) {
+            return connections;
+        }
+        return Arrays.copyOf(connections, Math.min(max, Math.max(4, 2 * connections.length)));
+    }
+
+    /**
+     * Make sure the given array of filters has the same length of the array of the connections.
+     *
+     * @param filters Array of filters of the addresses known by the neighbours.
+     * @param length  Length of the array of the connections.
+     * @return The same array if long enough, a bigger copy otherwise.
+     */
+    private static RollingBloomFilter[] ensureCapacity(RollingBloomFilter[] filters, int length) {
+        if (length <= filters.length) {
+            return filters;
+        }
+        return Arrays.copyOf(filters, length);
+    }
+
     @Override
     public void onKill() {
+        for (int i = 0; i < outgoingConnectionsNumber; i++) {
+            Connections.close(outgoingConnections[i]);
+        }
+        for (int i = 0; i < incomingConnectionsNumber; i++) {
+            Connections.close(incomingConnections[i]);
+        }
         this.outgoingConnectionsNumber = 0;
         this.outgoingConnections = null;
         this.incomingConnectionsNumber = 0;
         this.incomingConnections = null;
+        this.outgoingAddrKnown = null;
+        this.incomingAddrKnown = null;
+        this.neighboursIndex = null;
         this.peers = null;
-        this.connecting = false;
+        this.connectionAttempt = null;
     }
 
     @Override
@@ -274,23 +398,18 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
      * Check if the number of outgoing connections hasBlock been reached.
      * If not, try to connect to a new peer.
      */
-    private void onCheckOutgoingConnections(Node me, int pid) {
+    void onCheckOutgoingConnections(Node me, int pid) {
 
         // this method can be called even if the limit of connections is reached
         // or the node is already connecting to another node
-        if (!connecting && outgoingConnectionsNumber < maxOutgoingConnections) {
+        if (connectionAttempt == null && outgoingConnectionsNumber < maxOutgoingConnections) {
 
-            // select a random node to connect to
+            // select a random node to connect to, from the tried or the new table with the same probability
             // NB: this is an approximation of the real Bitcoin protocol
-            final Node[] nodes = peers.dump(new Node[0]);
-            ArrayUtilities.shuffleInPlace(nodes);
-            Node node = null;
-            for (Node current : nodes) {
-                final boolean contains = contains(current);
-                if (!contains) {
-                    node = current;
-                    break;
-                }
+            final boolean triedFirst = CommonState.r.nextBoolean();
+            Node node = selectPeerToConnect(triedFirst ? peers.triedAddresses() : peers.newAddresses());
+            if (node == null) {
+                node = selectPeerToConnect(triedFirst ? peers.newAddresses() : peers.triedAddresses());
             }
 
             // a node which I am not already connected to hasBlock been found... try to connect
@@ -299,11 +418,11 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
                 assert node != me : "My peers should never contain myself";
 
                 // try to connect to the node == send the first message
-                connecting = true;
+                connectionAttempt = new ConnectionTimeoutEvent(node);
                 send(me, node, pid, new VersionMessage(me));
 
                 // schedule a timeout to simulate a possibly refused connection
-                EDSimulator.add(connectTimeoutInterval, new ConnectionTimeoutEvent(node), me, pid);
+                EDSimulator.add(connectTimeoutInterval, connectionAttempt, me, pid);
 
                 // update metrics
                 versionMessages++;
@@ -311,33 +430,62 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
         }
     }
 
+    /**
+     * Select a random peer from the given table which this node is not connected to.
+     * NB: the peers are shuffled lazily, so we pay only for the peers we look at.
+     * The addresses of the nodes that left the network are purged when they are found.
+     *
+     * @return A random peer, or null if this node is connected to all peers in the table.
+     */
+    private Node selectPeerToConnect(NodeSet table) {
+        PEERS_SAMPLER.reset(table, CommonState.r);
+        Node node = null;
+        while (node == null && PEERS_SAMPLER.hasNext()) {
+            final Node current = PEERS_SAMPLER.next();
+            if (!current.isUp()) {
+                DEAD_PEERS.add(current);
+            } else if (!contains(current)) {
+                node = current;
+            }
+        }
+
+        // NB: the table can not be modified while it is sampled
+        for (int i = DEAD_PEERS.size() - 1; i >= 0; i--) {
+            final Node dead = DEAD_PEERS.get(i);
+            DEAD_PEERS.remove(dead);
+            peers.remove(dead);
+        }
+        return node;
+    }
+
     /**
      * Addr messages are not immediately sent to the target... instead they are
      * queued and delivered in the round that corresponds to the target node.
      */
     private void onFlushAddrEvent(Node me, int pid) {
-        clearKnownLists();
+        if (addrRelay == AddrRelay.LEGACY) {
+            clearAddrKnown();
+        }
         flushAddrMessages(me, pid);
         scheduleNextFlushAddrEvent(me, pid);
     }
 
     /**
-     * Clear the content of the knownList lists, that keep track of the IP addresses
-     * learned and sent to each neighbor. The lists are cleared every 24 hours.
+     * Forget the addresses known by all neighbours, as done at each flush by the legacy relay model.
      */
-    private void clearKnownLists() {
+    private void clearAddrKnown() {
         for (int i = 0; i < outgoingConnectionsNumber; i++) {
-            outgoingConnections[i].knownList.clear();
+            outgoingAddrKnown[i].clear();
         }
         for (int i = 0; i < incomingConnectionsNumber; i++) {
-            incomingConnections[i].knownList.clear();
+            incomingAddrKnown[i].clear();
         }
     }
 
     /**
      * Every 100ms, a Bitcoin node randomly selects one of its peer and flushes
-     * its addr queue messages, i.e. sends to the selected peer all addr messages
-     * that where previously scheduled for it.
+     * its addr queue, i.e. sends to the selected peer all addresses that where
+     * previously scheduled for it, packed in messages of at most 1000 addresses.
      */
     private void flushAddrMessages(Node me, int pid) {
         final int degree = degree();
@@ -345,13 +493,20 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
 
             // pick a random neighbour
             final int random = CommonState.r.nextInt(degree);
-            final Connection connection = getConnection(random);
-
-            // flush all messages
-            AddrMessage message;
-            while ((message = connection.addrQueue.dequeue()) != null) {
-                send(me, connection.neighbour, pid, message);
-                addrMessages += Math.ceil(1.0 * message.peers.length / 1000);
+            final int connection = getConnection(random);
+
+            // flush all addresses
+            final Node neighbour = Connections.getNeighbour(connection);
+            final IntList addrToSend = ADDR_TO_SEND;
+            final IntList addrTimes = ADDR_TIMES;
+            addrToSend.clear();
+            addrTimes.clear();
+            Connections.drainAddresses(connection, addrToSend, addrTimes);
+            final int pending = addrToSend.size();
+            for (int from = 0; from < pending; from += MAX_ADDR_TO_SEND) {
+                final int to = Math.min(pending, from + MAX_ADDR_TO_SEND);
+                send(me, neighbour, pid, AddressPool.batch(addrToSend, addrTimes, from, to));
+                addrMessages++;
             }
         }
     }
@@ -369,15 +524,26 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
      * Broadcast my address to all neighbors.
      */
     private void broadcastMyAddress(Node me) {
-        final AddrMessage message = new AddrMessage(me);
+        final int myAddress = AddressPool.encode(me);
+        final int now = timestamp(CommonState.getTime());
         for (int i = 0; i < outgoingConnectionsNumber; i++) {
-            outgoingConnections[i].addrQueue.enqueue(message);
+            Connections.enqueueAddress(outgoingConnections[i], myAddress, now);
         }
         for (int i = 0; i < incomingConnectionsNumber; i++) {
-            incomingConnections[i].addrQueue.enqueue(message);
+            Connections.enqueueAddress(incomingConnections[i], myAddress, now);
         }
     }
 
+    /**
+     * Timestamp of an address (nTime in Bitcoin Core), in seconds.
+     *
+     * @param time Simulation time.
+     * @return The timestamp corresponding to the given time.
+     */
+    private static int timestamp(long time) {
+        return (int) Math.floorDiv(time, SECONDS);
+    }
+
     /**
      * Once every 2 minutes, a Bitcoin node will ping its nodes to check they are alive.
      * If a peer does not reply for a long time, the node will drop the connection.
@@ -404,9 +570,10 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
      */
     private void checkPongTimeouts(Node me, int pid) {
         final long currentTime = CommonState.getTime();
-        for (int i = 0; i < degree(); i++) {
-            final Connection connection = getConnection(i);
-            if (currentTime - connection.lastPong > pongTimeout) {
+        // NB: iterate backwards, since removing a neighbour moves one of the following ones in its place
+        for (int i = degree() - 1; i >= 0; i--) {
+            final int connection = getConnection(i);
+            if (currentTime - Connections.getLastPong(connection) > pongTimeout) {
                 removeNeighborBothSides(me, pid, i);
                 nodesRemovedForPongTimeout++;
             }
@@ -435,10 +602,11 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
      */
     private void onConnectTimeout(Node me, int pid, ConnectionTimeoutEvent event) {
 
-        // check if the node was already added... in this case do nothing!
+        // check if the attempt already succeeded (or a new one was started)... in this case do nothing!
         // else, this is really a timeout and we should go for the next node!
-        final boolean present = containsOutgoing(event.peer);
-        if (!present) {
+        // NB: the attempt must be cleared, otherwise this node would never try to connect again
+        if (event == connectionAttempt) {
+            connectionAttempt = null;
             onCheckOutgoingConnections(me, pid);
         }
     }
@@ -451,8 +619,13 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
     private void onVersionMessage(Node me, int pid, VersionMessage event) {
         assert me != event.sender : "A node should not send messages to itself";
 
-        // check if both nodes can create the connection
+        // NB: the sender may have left the network while the message was traveling
         final Node peer = event.sender;
+        if (!peer.isUp()) {
+            return;
+        }
+
+        // check if both nodes can create the connection
         final BitcoinTopology peerTopology = (BitcoinTopology) peer.getProtocol(pid);
         assert peerTopology.canCreateOutgoingConnection(peer) :
             "Received a version message from a node that cannot open an outgoing connection.";
@@ -471,8 +644,8 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
 
             // send my address to a random peer (see coinscope.pdf)
             final int randomIndex = CommonState.r.nextInt(degree());
-            final Node neighbour = getConnection(randomIndex).neighbour;
-            send(me, neighbour, pid, new AddrMessage(me));
+            final Node neighbour = getNeighbor(randomIndex);
+            send(me, neighbour, pid, AddressPool.single(me, timestamp(CommonState.getTime())));
         }
     }
 
@@ -498,30 +671,25 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
     private void onGetAddrMessage(GetAddrMessage event) {
 
         // the number of peers to send is randomly selected from min(23%, 2500)
-        // addr messages are limited to 1000 addresses in reality...
-        // here we do not implement this but rather increment the counter
-        // to simulate the real number of messages
-
-        // create the message
-        // we need to shuffle the peers before sending them
-        final Node[] peersToShuffle = peers.dump(new Node[0]);
-        ArrayUtilities.shuffleInPlace(peersToShuffle);
-
-        // select only a subset of peers to gossip
-        final int peersToSendNumber = Math.min((int) Math.ceil(1.0 * peersToShuffle.length * 23 / 100), 2500);
-        final Node[] peersToSend = new Node[peersToSendNumber];
-        System.arraycopy(peersToShuffle, 0, peersToSend, 0, peersToSendNumber);
+        // NB: addr messages are limited to 1000 addresses, the addresses are split when they are flushed
 
-        // create and schedule the message
-        final AddrMessage message = new AddrMessage(peersToSend);
-        final Connection connection = getConnection(getIndexOfNeighbour(event.sender));
-        connection.addrQueue.enqueue(message);
+        // select only a random subset of peers to gossip
+        final int peersToSendNumber = Math.min((int) Math.ceil(1.0 * peers.size() * 23 / 100), 2500);
+        final Node[] peersToSend = peers.sample(peersToSendNumber, CommonState.r);
 
-        // keep track of the nodes send to this peer... for the next 24 hour
-        // they won't be forwarded to this node again, to avoid loop of messages
-        final ObjectList<Node> knownList = connection.knownList;
-        for (int i = 0; i < peersToSendNumber; i++) {
-            knownList.add(peersToSend[i]);
+        // schedule the addresses and keep track of the nodes send to this peer... as long as the filter
+        // remembers them, they won't be forwarded to this node again, to avoid loop of messages
+        // NB: the connection may have been closed while the message was traveling
+        final int index = getIndexOfNeighbour(event.sender);
+        if (index < 0) {
+            return;
+        }
+        final int connection = getConnection(index);
+        final RollingBloomFilter addrKnown = getAddrKnown(index);
+        for (Node peer : peersToSend) {
+            final int address = AddressPool.encode(peer);
+            addrKnown.insert(address);
+            Connections.enqueueAddress(connection, address, OLD_ADDRESS_TIME);
         }
     }
 
@@ -531,40 +699,28 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
      */
     private void onAddrMessage(Node me, int pid, AddrMessage receivedMessage) {
 
-        // handle table of peers is full
-        if (peers.size() >= maxPeerAddresses) {
-            throw new IllegalStateException("Got more peers that the maximum number (" + maxPeerAddresses + "). " +
-                "This feature is not yet implemented since it was not used in small simulations.");
-        }
-
         // addBlock the received nodes to my peers table
-        final Node[] receivedPeers = receivedMessage.peers;
-        for (Node peer : receivedPeers) {
+        // NB: when the table is full, the new addresses evict some of the old ones
+        // NB: the addresses of the nodes that left the network can not be decoded anymore, they are skipped
+        final int receivedPeersNumber = receivedMessage.size();
+        for (int j = 0; j < receivedPeersNumber; j++) {
+            final Node peer = receivedMessage.get(j);
             // never addBlock myself to the list of known peers
-            if (peer != me) {
+            if (peer != null && peer != me) {
                 peers.add(peer);
             }
         }
 
         // if the addr message contains few addresses (<= 10) we need to gossip them
-        if (receivedPeers.length <= maxIpsAddrMessage) {
-
-            // process each address in the message individually
-            for (Node peer : receivedPeers) {
-
-                // select up to 2 random peers to gossip the message to
-                final int[] selectedPeersIndexes = ArrayUtilities.selectNRandomIntegers(nodesAddrGossip, degree());
-                for (int i = 0; i < selectedPeersIndexes.length; i++) {
-
-                    // keep track of the sent addresses
-                    final Connection connection = getConnection(i);
-                    final boolean alreadySent = connection.knownList.add(peer);
-
-                    // enqueue the addr message
-                    if (!alreadySent) {
-                        final AddrMessage message = new AddrMessage(peer);
-                        connection.addrQueue.enqueue(message);
-                    }
+        // NB: the timestamp of an address is the last time the node advertised it, it is relayed unchanged
+        if (receivedPeersNumber <= maxIpsAddrMessage) {
+            final int oldestFresh = timestamp(CommonState.getTime() - ADDR_RELAY_WINDOW);
+            for (int j = 0; j < receivedPeersNumber; j++) {
+                final int time = receivedMessage.getTime(j);
+                if (addrRelay == AddrRelay.LEGACY) {
+                    relayAddressLegacy(receivedMessage.getId(j), time);
+                } else if (time >= oldestFresh) {
+                    relayAddress(me, receivedMessage.getId(j), time);
                 }
             }
         }
@@ -573,6 +729,63 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
         onCheckOutgoingConnections(me, pid);
     }
 
+    /**
+     * Relay an address to the neighbours with the highest hash of (this node, address, day, neighbour),
+     * as done by Bitcoin Core. The targets of each address are stable for a day, so an address received
+     * many times is always relayed to the same few neighbours and it does not flood the overlay.
+     * The addresses already known by a target are not sent again.
+     */
+    private void relayAddress(Node me, int address, int time) {
+        final int degree = degree();
+        final int targets = Math.min(nodesAddrGossip, degree);
+
+        // NB: each address starts its day at a different time, so that the targets do not change all together
+        final long day = (CommonState.getTime() + Long.remainderUnsigned(mix(address), ADDR_RELAY_PERIOD))
+            / ADDR_RELAY_PERIOD;
+        final long seed = mix(key(me) ^ mix(address ^ mix(day)));
+
+        // select the targets by decreasing hash, the number of targets is small
+        long previousHash = 0;
+        for (int k = 0; k < targets; k++) {
+            int best = -1;
+            long bestHash = 0;
+            for (int i = 0; i < degree; i++) {
+                final long hash = mix(seed ^ Connections.getNeighbourId(getConnection(i)));
+                if ((k == 0 || hash < previousHash) && (best < 0 || hash > bestHash)) {
+                    best = i;
+                    bestHash = hash;
+                }
+            }
+            previousHash = bestHash;
+
+            // enqueue the address, it will be sent with the others at the next flush
+            final int connection = getConnection(best);
+            final RollingBloomFilter addrKnown = getAddrKnown(best);
+            if (!addrKnown.contains(address)) {
+                addrKnown.insert(address);
+                Connections.enqueueAddress(connection, address, time);
+            }
+        }
+    }
+
+    /**
+     * Relay an address as done by the legacy model of the simulator, kept to reproduce the previous results:
+     * up to 2 random neighbours are selected, but the address is queued for the first neighbours instead,
+     * and only if the address was already sent to them since the last flush.
+     * NB: the random neighbours are drawn anyway, so that the sequence of random numbers does not change.
+     */
+    private void relayAddressLegacy(int address, int time) {
+        final int[] selectedPeersIndexes = ArrayUtilities.selectNRandomIntegers(nodesAddrGossip, degree());
+        for (int i = 0; i < selectedPeersIndexes.length; i++) {
+            final RollingBloomFilter addrKnown = getAddrKnown(i);
+            if (addrKnown.contains(address)) {
+                Connections.enqueueAddress(getConnection(i), address, time);
+            } else {
+                addrKnown.insert(address);
+            }
+        }
+    }
+
     /**
      * On a {@link PingMessage} the node immediately replies to the sender with a pong message.
      */
@@ -586,8 +799,12 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
      */
     private void onPongMessage(PongMessage event) {
         final int index = getIndexOfNeighbour(event.sender);
-        final Connection connection = getConnection(index);
-        connection.lastPong = CommonState.getTime();
+
+        // NB: the connection may have been closed while the pong was traveling
+        if (index >= 0) {
+            final int connection = getConnection(index);
+            Connections.setLastPong(connection, CommonState.getTime());
+        }
     }
 
     @Override
@@ -619,55 +836,67 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
     }
 
     /**
-     * Check if the current node as an outgoing connection with the given neighbour.
+     * Get the ID of the connection with the given index.
      */
-    private boolean containsOutgoing(Node neighbour) {
-        for (int i = 0; i < outgoingConnectionsNumber; i++) {
-            if (outgoingConnections[i].neighbour == neighbour) {
-                return true;
-            }
+    int getConnection(int index) {
+        assert index >= 0 : "Cannot request a connection with a negative index.";
+        if (index < outgoingConnectionsNumber) {
+            return outgoingConnections[index];
+        } else {
+            return incomingConnections[index - outgoingConnectionsNumber];
         }
-        return false;
     }
 
     /**
-     * Get the status of the connection with the given index.
+     * Get the filter of the addresses known by the neighbour with the given index.
      */
-    private Connection getConnection(int index) {
-        assert index >= 0 : "Cannot request a connection with a negative index.";
+    private RollingBloomFilter getAddrKnown(int index) {
         if (index < outgoingConnectionsNumber) {
-            return outgoingConnections[index];
+            return outgoingAddrKnown[index];
         } else {
-            return incomingConnections[index - outgoingConnectionsNumber];
+            return incomingAddrKnown[index - outgoingConnectionsNumber];
         }
     }
 
     /**
      * Returns the index of the given neighbour it is it present, -1 otherwise.
      */
-    private int getIndexOfNeighbour(Node neighbour) {
+    int getIndexOfNeighbour(Node neighbour) {
+        final int slot = neighboursIndex.get(key(neighbour));
 
-        // search in the outgoing connections
-        for (int i = 0; i < outgoingConnectionsNumber; i++) {
-            if (outgoingConnections[i].neighbour == neighbour) {
-                return i;
-            }
+        // if here, the node was not found...
+        if (slot == IntIntMap.MISSING) {
+            return -1;
         }
 
-        // search in the incoming connections
-        for (int i = 0; i < incomingConnectionsNumber; i++) {
-            if (incomingConnections[i].neighbour == neighbour) {
-                return outgoingConnectionsNumber + i;
-            }
-        }
+        // NB: the index of the incoming connections depends on the current number of outgoing ones
+        return isIncomingSlot(slot) ? outgoingConnectionsNumber + slotPosition(slot) : slotPosition(slot);
+    }
 
-        // if here, the node was not found...
-        return -1;
+    /**
+     * Encode the position of a connection in the outgoing or incoming array as a single non-negative integer.
+     */
+    private static int encodeSlot(int position, boolean incoming) {
+        return (position << 1) | (incoming ? 1 : 0);
+    }
+
+    /**
+     * Returns true if the encoded slot refers to an incoming connection, false otherwise.
+     */
+    private static boolean isIncomingSlot(int slot) {
+        return (slot & 1) != 0;
+    }
+
+    /**
+     * Returns the position of the encoded slot in the array of outgoing or incoming connections.
+     */
+    private static int slotPosition(int slot) {
+        return slot >>> 1;
     }
 
     @Override
     public Node getNeighbor(int i) {
-        return getConnection(i).neighbour;
+        return Connections.getNeighbour(getConnection(i));
     }
 
     /**
@@ -709,8 +938,11 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
         // addBlock the node
         addOutgoingConnection(neighbour);
 
+        // the address is good, since we managed to connect to it
+        peers.good(neighbour);
+
         // change the node state, since the connection hasBlock been established
-        connecting = false;
+        connectionAttempt = null;
 
         // schedule the next connection attempt
         onCheckOutgoingConnections(me, pid);
@@ -722,11 +954,16 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
      * Returns true if the node is added, false if is already present and is not added.
      */
     private void addOutgoingConnection(Node neighbour) {
-        assert connecting : "Some node invoked #addOutgoingConnection on a node which was not connecting to anybody...";
+        assert connectionAttempt != null :
+            "Some node invoked #addOutgoingConnection on a node which was not connecting to anybody...";
         assert canCreateOutgoingConnection(neighbour) : "The node cannot create the outgoing connection.";
 
         // addBlock the connection
-        outgoingConnections[outgoingConnectionsNumber] = new Connection(neighbour);
+        outgoingConnections = ensureCapacity(outgoingConnections, outgoingConnectionsNumber, maxOutgoingConnections);
+        outgoingConnections[outgoingConnectionsNumber] = Connections.open(neighbour, CommonState.getTime());
+        outgoingAddrKnown = ensureCapacity(outgoingAddrKnown, outgoingConnections.length);
+        outgoingAddrKnown[outgoingConnectionsNumber] = newAddrKnown();
+        neighboursIndex.put(key(neighbour), encodeSlot(outgoingConnectionsNumber, false));
         outgoingConnectionsNumber++;
     }
 
@@ -739,17 +976,28 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
         assert canAcceptIncomingConnection(neighbour) : "The node cannot accept the incoming connection.";
 
         // addBlock the peer
-        incomingConnections[incomingConnectionsNumber] = new Connection(neighbour);
+        incomingConnections = ensureCapacity(incomingConnections, incomingConnectionsNumber, maxIncomingConnections);
+        incomingConnections[incomingConnectionsNumber] = Connections.open(neighbour, CommonState.getTime());
+        incomingAddrKnown = ensureCapacity(incomingAddrKnown, incomingConnections.length);
+        incomingAddrKnown[incomingConnectionsNumber] = newAddrKnown();
+        neighboursIndex.put(key(neighbour), encodeSlot(incomingConnectionsNumber, true));
         incomingConnectionsNumber++;
     }
 
+    /**
+     * @return A new empty filter of the addresses known by a neighbour.
+     */
+    private RollingBloomFilter newAddrKnown() {
+        return new RollingBloomFilter(maxAddrKnown, ADDR_KNOWN_FALSE_POSITIVE_RATE);
+    }
+
     /**
      * NB: this method will NOT addBlock the nodes to the list of connected peers, but just to the list
      * of knownList peers of the given node. This can be useful to initialize the protocol using classes
      * already available in PeerSim, such as {@link peersim.dynamics.WireKOut} and similar.
      *
      * @param neighbour Node to addBlock to the knownList peers.
-     * @return True if the peer was added, false if the peer was already present and cannot be added.
+     * @return True if the peer was added, false if the peer was already present or its bucket is full.
      */
     @Override
     public boolean addNeighbor(Node neighbour) {
@@ -767,21 +1015,46 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
 
     /**
      * Remove the given neighbour with the given index from the list of connected nodes.
+     * The last connection with the same direction takes the place of the removed one.
      */
-    @SuppressWarnings("Duplicates")
     private void removeNeighbor(int index) {
+        neighboursIndex.remove(key(getNeighbor(index)));
+        Connections.close(getConnection(index));
         if (index < outgoingConnectionsNumber) {
-            final int elementsToCopy = outgoingConnectionsNumber - index - 1;
-            System.arraycopy(outgoingConnections, index + 1, outgoingConnections, index, elementsToCopy);
-            final int indexToRemove = outgoingConnectionsNumber - 1;
-            outgoingConnections[indexToRemove] = null;
             outgoingConnectionsNumber--;
+            if (index != outgoingConnectionsNumber) {
+                final int moved = outgoingConnections[outgoingConnectionsNumber];
+                outgoingConnections[index] = moved;
+                outgoingAddrKnown[index] = outgoingAddrKnown[outgoingConnectionsNumber];
+                neighboursIndex.put(Connections.getNeighbourId(moved), encodeSlot(index, false));
+            }
+            outgoingAddrKnown[outgoingConnectionsNumber] = null;
         } else {
-            final int elementsToCopy = incomingConnectionsNumber - index - 1;
-            System.arraycopy(incomingConnections, index + 1, incomingConnections, index, elementsToCopy);
-            final int indexToRemove = incomingConnectionsNumber - 1;
-            incomingConnections[indexToRemove] = null;
+            final int position = index - outgoingConnectionsNumber;
             incomingConnectionsNumber--;
+            if (position != incomingConnectionsNumber) {
+                final int moved = incomingConnections[incomingConnectionsNumber];
+                incomingConnections[position] = moved;
+                incomingAddrKnown[position] = incomingAddrKnown[incomingConnectionsNumber];
+                neighboursIndex.put(Connections.getNeighbourId(moved), encodeSlot(position, true));
+            }
+            incomingAddrKnown[incomingConnectionsNumber] = null;
+        }
+    }
+
+    /**
+     * Close all connections of this node, eg. because it is leaving the network.
+     * The former neighbours immediately look for new peers to replace the lost outgoing connections.
+     *
+     * @param me  Node that owns this protocol.
+     * @param pid Protocol identifier of this protocol.
+     */
+    public void disconnectAll(Node me, int pid) {
+        for (int i = degree() - 1; i >= 0; i--) {
+            final Node peer = getNeighbor(i);
+            removeNeighborBothSides(me, pid, i);
+            final BitcoinTopology peerTopology = (BitcoinTopology) peer.getProtocol(pid);
+            peerTopology.onCheckOutgoingConnections(peer, pid);
         }
     }
 
@@ -796,12 +1069,12 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
     private void multicast(Node from, int pid, Object message) {
         final Transport transport = (Transport) from.getProtocol(FastConfig.getTransport(pid));
         for (int i = 0; i < outgoingConnectionsNumber; i++) {
-            final Node to = outgoingConnections[i].neighbour;
+            final Node to = Connections.getNeighbour(outgoingConnections[i]);
             transport.send(from, to, message, pid);
             assert from != to;
         }
         for (int i = 0; i < incomingConnectionsNumber; i++) {
-            final Node to = incomingConnections[i].neighbour;
+            final Node to = Connections.getNeighbour(incomingConnections[i]);
             transport.send(from, to, message, pid);
             assert from != to;
         }
@@ -839,35 +1112,24 @@ public final class BitcoinTopology implements EDProtocol, Linkable {
         return nodesRemovedForPongTimeout;
     }
 
-
-    // -----------------------------------------------------------------------------------------------------
-    //  Utilities
-    // -----------------------------------------------------------------------------------------------------
-
     /**
-     * Structure used to keep track of all information about a single connection
-     * with a peer, such as the last pong time or the queue of pending addr messages.
+     * Models used to relay the addresses received in small addr messages.
      */
-    private static class Connection implements Cloneable {
+    private enum AddrRelay {
 
-        Node neighbour;
-        CircularQueue<AddrMessage> addrQueue;
-        ObjectList<Node> knownList;
-        long lastPong;
+        // original model of the simulator, the default to keep the results of the previous experiments
+        LEGACY,
 
-        Connection(Node neighbour) {
-            this.neighbour = neighbour;
-            this.addrQueue = new CircularQueue<>();
-            this.knownList = new ObjectList<>();
-            this.lastPong = CommonState.getTime();
-        }
+        // only the fresh addresses are relayed, to the same few neighbours for a day, like Bitcoin Core does
+        FRESH;
 
-        @Override
-        protected Connection clone() throws CloneNotSupportedException {
-            final Connection clone = (Connection) super.clone();
-            clone.addrQueue = new CircularQueue<>(this.addrQueue);
-            clone.knownList = new ObjectList<>(this.knownList);
-            return clone;
+        static AddrRelay parse(String value) {
+            try {
+                return AddrRelay.valueOf(value.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                final String values = "legacy, fresh";
+                throw new IllegalArgumentException("Parameter " + PARAM_ADDR_RELAY + " must be one of: " + values, e);
+            }
         }
     }
 }
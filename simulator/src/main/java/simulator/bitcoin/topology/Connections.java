@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.topology;
+
+import peersim.core.Node;
+import simulator.bitcoin.topology.messages.AddressPool;
+import simulator.collections.IntList;
+
+import java.util.Arrays;
+
+/**
+ * Global store of the connections of all nodes. Each connection is seen by each of its two ends as a different
+ * record, identified by a progressive ID and stored in columns of primitive values: neighbour, time of the last
+ * pong, and the queue of addresses waiting to be sent. The queues are linked lists of addresses in a shared pool.
+ * The IDs of closed connections, as well as the space of the delivered addresses, are recycled. Nodes only keep
+ * the IDs of their connections, so the state of the overlay is made of a few big arrays, cheap to scan and copy.
+ */
+public final class Connections {
+
+    // marker of the end of a queue of addresses
+    private static final int NONE = -1;
+
+    // initial size of the columns, they grow on demand
+    private static final int INITIAL_CAPACITY = 16;
+
+    // columns of the connections
+    private static int[] neighbours;
+    private static long[] lastPongs;
+    private static int[] queueHeads;
+    private static int[] queueTails;
+    private static int[] queueSizes;
+
+    // IDs of the closed connections, to be reused
+    private static IntList freeConnections;
+    private static int connectionsCounter;
+
+    // pool of the queued addresses: each entry stores an address, its timestamp and the next entry of the same queue
+    private static int[] poolAddresses;
+    private static int[] poolTimes;
+    private static int[] poolNext;
+    private static int poolFree;
+    private static int poolCounter;
+
+    // initialize the static variables
+    static {
+        _init();
+    }
+
+    // prevent class construction
+    private Connections() {
+    }
+
+    /**
+     * Reset the store to the original state (no connections).
+     */
+    public static void _init() {
+        neighbours = new int[INITIAL_CAPACITY];
+        lastPongs = new long[INITIAL_CAPACITY];
+        queueHeads = new int[INITIAL_CAPACITY];
+        queueTails = new int[INITIAL_CAPACITY];
+        queueSizes = new int[INITIAL_CAPACITY];
+        freeConnections = new IntList();
+        connectionsCounter = 0;
+        poolAddresses = new int[INITIAL_CAPACITY];
+        poolTimes = new int[INITIAL_CAPACITY];
+        poolNext = new int[INITIAL_CAPACITY];
+        poolFree = NONE;
+        poolCounter = 0;
+    }
+
+    /**
+     * Open a new connection towards the given neighbour.
+     *
+     * @param neighbour Node at the other end of the connection.
+     * @param lastPong  Initial time of the last pong.
+     * @return ID of the new connection.
+     */
+    public static int open(Node neighbour, long lastPong) {
+        final int connection;
+        if (freeConnections.isEmpty()) {
+            connection = connectionsCounter++;
+            if (connection == neighbours.length) {
+                growConnections();
+            }
+        } else {
+            connection = freeConnections.removeLast();
+        }
+        neighbours[connection] = AddressPool.encode(neighbour);
+        lastPongs[connection] = lastPong;
+        queueHeads[connection] = NONE;
+        queueTails[connection] = NONE;
+        queueSizes[connection] = 0;
+        return connection;
+    }
+
+    /**
+     * Open a new connection with the same state of the given one.
+     *
+     * @param original ID of the connection to copy.
+     * @return ID of the new connection.
+     */
+    public static int copy(int original) {
+        final Node neighbour = getNeighbour(original);
+        final int connection = open(neighbour, lastPongs[original]);
+        for (int entry = queueHeads[original]; entry != NONE; entry = poolNext[entry]) {
+            enqueueAddress(connection, poolAddresses[entry], poolTimes[entry]);
+        }
+        return connection;
+    }
+
+    /**
+     * Close a connection, its ID can be reused by a new connection.
+     *
+     * @param connection ID of the connection.
+     */
+    public static void close(int connection) {
+        releaseQueue(connection);
+        freeConnections.add(connection);
+    }
+
+    /**
+     * @return Number of open connections.
+     */
+    public static int size() {
+        return connectionsCounter - freeConnections.size();
+    }
+
+    /**
+     * @param connection ID of the connection.
+     * @return ID of the node at the other end of the connection.
+     */
+    public static int getNeighbourId(int connection) {
+        return neighbours[connection];
+    }
+
+    /**
+     * @param connection ID of the connection.
+     * @return Node at the other end of the connection.
+     */
+    public static Node getNeighbour(int connection) {
+        return AddressPool.decode(neighbours[connection]);
+    }
+
+    /**
+     * @param connection ID of the connection.
+     * @return Time of the last pong received from the neighbour.
+     */
+    public static long getLastPong(int connection) {
+        return lastPongs[connection];
+    }
+
+    /**
+     * @param connection ID of the connection.
+     * @param time       Time of the last pong received from the neighbour.
+     */
+    public static void setLastPong(int connection, long time) {
+        lastPongs[connection] = time;
+    }
+
+    /**
+     * @param connection ID of the connection.
+     * @return Number of addresses waiting to be sent to the neighbour.
+     */
+    public static int getQueuedAddresses(int connection) {
+        return queueSizes[connection];
+    }
+
+    /**
+     * Queue an address to be sent to the neighbour.
+     *
+     * @param connection ID of the connection.
+     * @param address    Address to send, as encoded by {@link AddressPool#encode(Node)}.
+     * @param time       Timestamp of the address, in seconds.
+     */
+    public static void enqueueAddress(int connection, int address, int time) {
+        final int entry;
+        if (poolFree == NONE) {
+            entry = poolCounter++;
+            if (entry == poolAddresses.length) {
+                poolAddresses = Arrays.copyOf(poolAddresses, 2 * entry);
+                poolTimes = Arrays.copyOf(poolTimes, 2 * entry);
+                poolNext = Arrays.copyOf(poolNext, 2 * entry);
+            }
+        } else {
+            entry = poolFree;
+            poolFree = poolNext[entry];
+        }
+        poolAddresses[entry] = address;
+        poolTimes[entry] = time;
+        poolNext[entry] = NONE;
+        if (queueTails[connection] == NONE) {
+            queueHeads[connection] = entry;
+        } else {
+            poolNext[queueTails[connection]] = entry;
+        }
+        queueTails[connection] = entry;
+        queueSizes[connection]++;
+    }
+
+    /**
+     * Remove all addresses waiting to be sent to the neighbour, in order of insertion.
+     *
+     * @param connection ID of the connection.
+     * @param addresses  List where to append the addresses.
+     * @param times      List where to append the timestamps of the addresses.
+     */
+    public static void drainAddresses(int connection, IntList addresses, IntList times) {
+        for (int entry = queueHeads[connection]; entry != NONE; entry = poolNext[entry]) {
+            addresses.add(poolAddresses[entry]);
+            times.add(poolTimes[entry]);
+        }
+        releaseQueue(connection);
+    }
+
+    /**
+     * Give the entries of the queue of the connection back to the pool, in constant time.
+     */
+    private static void releaseQueue(int connection) {
+        if (queueHeads[connection] != NONE) {
+            poolNext[queueTails[connection]] = poolFree;
+            poolFree = queueHeads[connection];
+        }
+        queueHeads[connection] = NONE;
+        queueTails[connection] = NONE;
+        queueSizes[connection] = 0;
+    }
+
+    /**
+     * Double the size of the columns of the connections.
+     */
+    private static void growConnections() {
+        final int newLength = 2 * neighbours.length;
+        neighbours = Arrays.copyOf(neighbours, newLength);
+        lastPongs = Arrays.copyOf(lastPongs, newLength);
+        queueHeads = Arrays.copyOf(queueHeads, newLength);
+        queueTails = Arrays.copyOf(queueTails, newLength);
+        queueSizes = Arrays.copyOf(queueSizes, newLength);
+    }
+}
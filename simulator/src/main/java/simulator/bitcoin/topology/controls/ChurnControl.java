@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.topology.controls;
+
+import peersim.config.Configuration;
+import peersim.core.*;
+import peersim.dynamics.NodeInitializer;
+import peersim.utilities.Distributions;
+import simulator.bitcoin.topology.BitcoinTopology;
+import simulator.bitcoin.topology.messages.AddressPool;
+
+import java.util.PriorityQueue;
+
+import static peersim.utilities.ConfigurationHelper.*;
+import static peersim.utilities.TimeUnits.HOURS;
+
+/**
+ * Control that simulates the churn of the network: nodes join the network following a Poisson process
+ * and stay online for a random session length, then they leave. Each node (including the initial ones)
+ * gets its session length when it is first seen by the control. A joining node learns the addresses
+ * of some random online nodes (as if it queried the DNS seeds) and is then initialized with the
+ * {@link NodeInitializer}s configured with the prefix "init", eg. a
+ * {@link simulator.bitcoin.initializers.ProtocolInitializer} for each protocol to start.
+ * A leaving node closes all its connections, so its former neighbours can immediately replace them.
+ * The addresses of the nodes that left are released from the {@link AddressPool}, so their state can be
+ * garbage collected, and purged lazily from the tables of known peers.
+ */
+public final class ChurnControl implements Control {
+
+    // parameters
+    private static final String PARAMETER_JOIN_RATE = "join_rate";
+    private static final String PARAMETER_SESSION_LENGTH = "session_length";
+    private static final String PARAMETER_SESSION_DISTRIBUTION = "session_distribution";
+    private static final String PARAMETER_SESSION_SHAPE = "session_shape";
+    private static final String PARAMETER_SEEDS = "seeds";
+    private static final String PARAMETER_INIT = "init";
+
+    // default configuration
+    private static final int DEFAULT_JOIN_RATE = 0;
+    private static final long DEFAULT_SESSION_LENGTH = 0;
+    private static final String DEFAULT_SESSION_DISTRIBUTION = "exponential";
+    private static final double DEFAULT_SESSION_SHAPE = 2.0;
+    private static final int DEFAULT_SEEDS = 8;
+
+    // configuration
+    private final int pid;
+    private final int joinRate;
+    private final long sessionLength;
+    private final SessionDistribution sessionDistribution;
+    private final double sessionShape;
+    private final int seeds;
+    private final NodeInitializer[] initializers;
+
+    // sessions of the online nodes, ordered by end time
+    private final PriorityQueue<Session> sessions;
+    private boolean initialNodesSeen;
+    private long nextJoin;
+
+    // metrics
+    private long joinedNodes;
+    private long leftNodes;
+
+    /**
+     * Default constructor, following the PeerSim conventions.
+     * The prefix field is automatically provided by the PeerSim engine.
+     *
+     * @param prefix Prefix of this control in the configuration file.
+     */
+    public ChurnControl(String prefix) {
+        this.pid = readPid(prefix);
+        this.joinRate = readInt(prefix, PARAMETER_JOIN_RATE, DEFAULT_JOIN_RATE);
+        this.sessionLength = readLong(prefix, PARAMETER_SESSION_LENGTH, DEFAULT_SESSION_LENGTH);
+        this.sessionDistribution = SessionDistribution.parse(
+            readString(prefix, PARAMETER_SESSION_DISTRIBUTION, DEFAULT_SESSION_DISTRIBUTION));
+        this.sessionShape = readDouble(prefix, PARAMETER_SESSION_SHAPE, DEFAULT_SESSION_SHAPE);
+        this.seeds = readInt(prefix, PARAMETER_SEEDS, DEFAULT_SEEDS);
+
+        // same convention used by peersim.dynamics.DynamicNetwork
+        final Object[] instances = Configuration.getInstanceArray(prefix + "." + PARAMETER_INIT);
+        this.initializers = new NodeInitializer[instances.length];
+        for (int i = 0; i < instances.length; i++) {
+            this.initializers[i] = (NodeInitializer) instances[i];
+        }
+
+        if (sessionDistribution == SessionDistribution.PARETO && sessionShape <= 1) {
+            throw new IllegalArgumentException("Parameter " + PARAMETER_SESSION_SHAPE + " must be greater than 1.");
+        }
+
+        this.sessions = new PriorityQueue<>();
+        this.initialNodesSeen = false;
+        this.nextJoin = -1;
+        this.joinedNodes = 0;
+        this.leftNodes = 0;
+    }
+
+    @Override
+    public boolean execute() {
+        final long now = CommonState.getTime();
+
+        // the initial nodes get their session the first time the control runs
+        if (!initialNodesSeen) {
+            initialNodesSeen = true;
+            for (int i = 0; i < Network.size(); i++) {
+                startSession(Network.get(i), now);
+            }
+        }
+
+        // remove the nodes whose session expired
+        while (!sessions.isEmpty() && sessions.peek().end <= now) {
+            final Node node = sessions.poll().node;
+            if (node.isUp()) {
+                leave(node);
+            }
+        }
+
+        // add the nodes that joined since the last execution
+        // NB: the joins happen when the control is executed, so the step should be small compared to the rate
+        if (joinRate > 0) {
+            if (nextJoin < 0) {
+                nextJoin = now + nextJoinInterval();
+            }
+            while (nextJoin <= now) {
+                join(now);
+                nextJoin += nextJoinInterval();
+            }
+        }
+
+        // false == do NOT stop the simulation
+        return false;
+    }
+
+    /**
+     * @return Number of nodes added to the network by this control.
+     */
+    public long joinedNodes() {
+        return joinedNodes;
+    }
+
+    /**
+     * @return Number of nodes removed from the network by this control.
+     */
+    public long leftNodes() {
+        return leftNodes;
+    }
+
+    /**
+     * Add a new node to the network.
+     */
+    private void join(long now) {
+        final Node node = (Node) Network.prototype.clone();
+
+        // give the new node some addresses to start from
+        final BitcoinTopology topology = (BitcoinTopology) node.getProtocol(pid);
+        final int size = Network.size();
+        for (int i = 0; i < Math.min(seeds, size); i++) {
+            topology.addNeighbor(Network.get(CommonState.r.nextInt(size)));
+        }
+
+        for (NodeInitializer initializer : initializers) {
+            initializer.initialize(node);
+        }
+        Network.add(node);
+        startSession(node, now);
+        joinedNodes++;
+    }
+
+    /**
+     * Remove a node from the network.
+     */
+    private void leave(Node node) {
+        final BitcoinTopology topology = (BitcoinTopology) node.getProtocol(pid);
+        topology.disconnectAll(node, pid);
+
+        // NB: PeerSim moves the last node of the network in the place of the removed one
+        Network.remove(node.getIndex());
+        node.setFailState(Fallible.DEAD);
+        AddressPool.release(node);
+        leftNodes++;
+    }
+
+    /**
+     * Extract the length of the session of the given node, if sessions are enabled.
+     */
+    private void startSession(Node node, long now) {
+        if (sessionLength > 0) {
+            final long length = Math.max(1, Math.round(nextSessionLength()));
+            sessions.add(new Session(now + length, node));
+        }
+    }
+
+    private double nextSessionLength() {
+        switch (sessionDistribution) {
+            case PARETO:
+                return Distributions.nextPareto(sessionLength, sessionShape);
+            case EXPONENTIAL:
+            default:
+                return Distributions.nextExponential(sessionLength);
+        }
+    }
+
+    private long nextJoinInterval() {
+        return Distributions.nextExponentialRounded(1.0 * HOURS / joinRate);
+    }
+
+    /**
+     * Session of a node, ordered by end time.
+     */
+    private static final class Session implements Comparable<Session> {
+
+        private final long end;
+        private final Node node;
+
+        Session(long end, Node node) {
+            this.end = end;
+            this.node = node;
+        }
+
+        @Override
+        public int compareTo(Session other) {
+            final int result = Long.compare(end, other.end);
+            return result != 0 ? result : Long.compare(node.getID(), other.node.getID());
+        }
+    }
+
+    /**
+     * Distributions of the length of the sessions.
+     */
+    private enum SessionDistribution {
+
+        // memoryless sessions with the given mean
+        EXPONENTIAL,
+
+        // heavy tailed sessions with the given mean and shape, as measured in real P2P networks
+        PARETO;
+
+        static SessionDistribution parse(String value) {
+            try {
+                return SessionDistribution.valueOf(value.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                final String values = "exponential, pareto";
+                throw new IllegalArgumentException(
+                    "Parameter " + PARAMETER_SESSION_DISTRIBUTION + " must be one of: " + values, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.topology.initializers;
+
+import peersim.core.Control;
+import simulator.bitcoin.topology.Connections;
+import simulator.bitcoin.topology.messages.AddressPool;
+
+/**
+ * {@link Control} used to reset the global stores of the {@link simulator.bitcoin.topology.BitcoinTopology}
+ * protocol at the beginning of each experiment, so that nothing leaks between the experiments.
+ * This initializer must run before any other one that uses the topology.
+ */
+public final class TopologyInitializer implements Control {
+
+    /**
+     * Default constructor, following the PeerSim conventions.
+     * The prefix field is automatically provided by the PeerSim engine.
+     *
+     * @param prefix Prefix of this control in the configuration file.
+     */
+    public TopologyInitializer(String prefix) {
+    }
+
+    @Override
+    public boolean execute() {
+        AddressPool._init();
+        Connections._init();
+
+        // false == do NOT stop the simulation
+        return false;
+    }
+}
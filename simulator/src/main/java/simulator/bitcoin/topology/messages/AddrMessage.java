@@ -22,12 +22,54 @@ import peersim.core.Node;
 /**
  * Bitcoin `addr` message: it is used to push a list of peers to another node.
  * See: https://bitcoin.org/en/developer-reference#addr
+ * The addresses are stored as node IDs in a slice of an array shared with other messages, together with
+ * their timestamps in a slice of a parallel array, please use {@link AddressPool} to create new messages.
  */
 public final class AddrMessage {
 
-    public final Node[] peers;
+    // NB: the slice is filled by the pool right after the creation of the message
+    final int[] ids;
+    final int[] times;
+    final int offset;
+    private final int length;
 
-    public AddrMessage(Node... peers) {
-        this.peers = peers;
+    AddrMessage(int[] ids, int[] times, int offset, int length) {
+        this.ids = ids;
+        this.times = times;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * @return Number of addresses in the message.
+     */
+    public int size() {
+        return length;
+    }
+
+    /**
+     * @param i Index of the address, between 0 and the size of the message.
+     * @return ID of the i-th node advertised by the message.
+     */
+    public int getId(int i) {
+        assert i >= 0 && i < length;
+        return ids[offset + i];
+    }
+
+    /**
+     * @param i Index of the address, between 0 and the size of the message.
+     * @return Timestamp of the i-th address in seconds, i.e. the last time the node advertised it (nTime).
+     */
+    public int getTime(int i) {
+        assert i >= 0 && i < length;
+        return times[offset + i];
+    }
+
+    /**
+     * @param i Index of the address, between 0 and the size of the message.
+     * @return The i-th node advertised by the message.
+     */
+    public Node get(int i) {
+        return AddressPool.decode(getId(i));
     }
 }
@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.topology.messages;
+
+import peersim.core.Node;
+import simulator.collections.IntIntMap;
+import simulator.collections.IntList;
+
+import java.util.Arrays;
+
+import static peersim.utilities.NodeUtilities.key;
+
+/**
+ * Global store of the addresses carried by the {@link AddrMessage}s. The addresses are encoded as node IDs
+ * and packed in chunks of fixed size, with their timestamps in parallel chunks: each message is an immutable
+ * slice of a chunk, so no array is allocated per message. A chunk is released by the garbage collector once
+ * all messages pointing to it are delivered. Messages with a single address are shared by all senders,
+ * as long as they carry the same timestamp.
+ * The nodes that leave the network must be released, so that their state can be garbage collected:
+ * their addresses can still be carried by the messages, but they can no longer be decoded.
+ */
+public final class AddressPool {
+
+    // size of each chunk of addresses
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    // initial number of slots for the nodes
+    private static final int INITIAL_SLOTS = 1024;
+
+    // slot of each node in the network, indexed by node ID
+    // NB: the IDs only grow with the churn, so the slots of the released nodes are reused
+    private static IntIntMap slots;
+    private static IntList freeSlots;
+
+    // nodes indexed by slot, used to decode the addresses
+    private static Node[] nodes;
+
+    // shared messages with a single address, indexed by slot
+    private static AddrMessage[] singles;
+
+    // chunk currently being filled, for the IDs and the timestamps
+    private static int[] chunk;
+    private static int[] timesChunk;
+    private static int chunkLength;
+
+    // initialize the static variables
+    static {
+        _init();
+    }
+
+    // prevent class construction
+    private AddressPool() {
+    }
+
+    /**
+     * Reset the pool to the original state (no addresses).
+     */
+    public static void _init() {
+        slots = new IntIntMap();
+        freeSlots = new IntList();
+        nodes = new Node[INITIAL_SLOTS];
+        singles = new AddrMessage[INITIAL_SLOTS];
+        for (int slot = INITIAL_SLOTS - 1; slot >= 0; slot--) {
+            freeSlots.add(slot);
+        }
+        chunk = new int[CHUNK_SIZE];
+        timesChunk = new int[CHUNK_SIZE];
+        chunkLength = 0;
+    }
+
+    /**
+     * Encode a node as an ID which can be stored in the messages.
+     *
+     * @param node Node to encode.
+     * @return ID of the node.
+     */
+    public static int encode(Node node) {
+        final int id = key(node);
+
+        // NB: the departed nodes may still be found in the tables of known peers, they must not be stored again
+        if (node.isUp() && !slots.containsKey(id)) {
+            if (freeSlots.isEmpty()) {
+                growSlots();
+            }
+            final int slot = freeSlots.removeLast();
+            slots.put(id, slot);
+            nodes[slot] = node;
+        }
+        return id;
+    }
+
+    /**
+     * Release a node that left the network: its address can no longer be decoded.
+     *
+     * @param node Node to release.
+     */
+    public static void release(Node node) {
+        final int slot = slots.remove(key(node));
+        if (slot != IntIntMap.MISSING) {
+            nodes[slot] = null;
+            singles[slot] = null;
+            freeSlots.add(slot);
+        }
+    }
+
+    /**
+     * Double the number of slots, the new ones are used in order.
+     */
+    private static void growSlots() {
+        final int length = nodes.length;
+        nodes = Arrays.copyOf(nodes, 2 * length);
+        singles = Arrays.copyOf(singles, 2 * length);
+        for (int slot = 2 * length - 1; slot >= length; slot--) {
+            freeSlots.add(slot);
+        }
+    }
+
+    /**
+     * Get the message with the address of a single node.
+     *
+     * @param node Node to advertise.
+     * @param time Timestamp of the address, in seconds.
+     * @return Shared message with the address of the given node.
+     */
+    public static AddrMessage single(Node node, int time) {
+        return single(encode(node), time);
+    }
+
+    /**
+     * Create a message with the addresses of the given nodes, all with the same timestamp.
+     *
+     * @param time  Timestamp of the addresses, in seconds.
+     * @param peers Nodes to advertise.
+     * @return New message with the addresses of the given nodes.
+     */
+    public static AddrMessage batch(int time, Node... peers) {
+        final AddrMessage message = allocate(peers.length);
+        for (int i = 0; i < peers.length; i++) {
+            message.ids[message.offset + i] = encode(peers[i]);
+            message.times[message.offset + i] = time;
+        }
+        return message;
+    }
+
+    /**
+     * Create a message with the addresses in the given range of a list of IDs.
+     * The IDs must be obtained with {@link #encode(Node)}.
+     *
+     * @param ids   List of IDs.
+     * @param times List of the timestamps of the addresses, in seconds.
+     * @param from  Index of the first ID to include in the message.
+     * @param to    Index after the last ID to include in the message.
+     * @return Message with the addresses of the given nodes, shared if it contains a single address.
+     */
+    public static AddrMessage batch(IntList ids, IntList times, int from, int to) {
+        assert from >= 0 && from <= to && to <= ids.size() && ids.size() == times.size();
+        if (to - from == 1) {
+            return single(ids.get(from), times.get(from));
+        }
+        final AddrMessage message = allocate(to - from);
+        for (int i = from; i < to; i++) {
+            message.ids[message.offset + i - from] = ids.get(i);
+            message.times[message.offset + i - from] = times.get(i);
+        }
+        return message;
+    }
+
+    /**
+     * Get the shared message with the address of the node with the given ID and the given timestamp.
+     * NB: a node advertises its address rarely, so the same message is relayed many times before a new one is needed.
+     */
+    private static AddrMessage single(int id, int time) {
+        final int slot = slots.get(id);
+        if (slot != IntIntMap.MISSING && singles[slot] != null && singles[slot].getTime(0) == time) {
+            return singles[slot];
+        }
+        final AddrMessage message = allocate(1);
+        message.ids[message.offset] = id;
+        message.times[message.offset] = time;
+        if (slot != IntIntMap.MISSING) {
+            singles[slot] = message;
+        }
+        return message;
+    }
+
+    /**
+     * Reserve the space for a new message with the given number of addresses.
+     * NB: if the message does not fit, the remaining part of the current chunk is wasted.
+     */
+    private static AddrMessage allocate(int length) {
+        if (length > CHUNK_SIZE) {
+            return new AddrMessage(new int[length], new int[length], 0, length);
+        }
+        if (chunkLength + length > CHUNK_SIZE) {
+            chunk = new int[CHUNK_SIZE];
+            timesChunk = new int[CHUNK_SIZE];
+            chunkLength = 0;
+        }
+        final AddrMessage message = new AddrMessage(chunk, timesChunk, chunkLength, length);
+        chunkLength += length;
+        return message;
+    }
+
+    /**
+     * Decode a node from its ID.
+     *
+     * @param id ID of a node, as returned by {@link #encode(Node)}.
+     * @return Node with the given ID, or null if the node was released since it left the network.
+     */
+    public static Node decode(int id) {
+        final int slot = slots.get(id);
+        return slot == IntIntMap.MISSING ? null : nodes[slot];
+    }
+}
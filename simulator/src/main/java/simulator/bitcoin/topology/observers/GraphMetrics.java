@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.topology.observers;
+
+import simulator.collections.IntList;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Metrics of the graph of an {@link OverlaySnapshot}. The metrics are computed in parallel,
+ * splitting the nodes among the workers of the fork/join pool the computation is running on:
+ * <ul>
+ * <li>connected components and size of the largest one;</li>
+ * <li>lower bound of the diameter, using double sweeps (2 BFS) from some random nodes;</li>
+ * <li>average distance between the nodes, estimated from the BFS of the random nodes;</li>
+ * <li>average local clustering coefficient (nodes with less than 2 neighbours count as 0);</li>
+ * <li>number of edges between different partitions of the balance attack, -1 if not available;</li>
+ * <li>eigenvector centrality of each node, approximated with the power iteration.</li>
+ * </ul>
+ */
+public final class GraphMetrics {
+
+    // format of the binary output (see #writeHeader and #write)
+    static final int MAGIC = 0x4F564C59;
+    static final int VERSION = 1;
+
+    // number of nodes processed by a single task, to limit the overhead of the fork/join framework
+    private static final int GRANULARITY = 1024;
+
+    // the power iteration stops when the average change of the centralities is below this threshold
+    private static final double TOLERANCE = 1e-6;
+
+    // metrics
+    public final long time;
+    public final int nodes;
+    public final long edges;
+    public final int components;
+    public final int largestComponent;
+    public final int diameter;
+    public final double averageDistance;
+    public final double clustering;
+    public final long crossingEdges;
+    public final int iterations;
+    private final int[] ids;
+    private final float[] centrality;
+
+    private GraphMetrics(OverlaySnapshot snapshot, int components, int largestComponent, int diameter,
+                         double averageDistance, double clustering, long crossingEdges, int iterations,
+                         float[] centrality) {
+        final int size = snapshot.size();
+        this.time = snapshot.time;
+        this.nodes = size;
+        this.edges = snapshot.edges();
+        this.components = components;
+        this.largestComponent = largestComponent;
+        this.diameter = diameter;
+        this.averageDistance = averageDistance;
+        this.clustering = clustering;
+        this.crossingEdges = crossingEdges;
+        this.iterations = iterations;
+        this.ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            this.ids[i] = snapshot.getId(i);
+        }
+        this.centrality = centrality;
+    }
+
+    /**
+     * Compute the metrics of the given snapshot. This method should be called from a task running
+     * on a fork/join pool, otherwise the computation runs on the common pool.
+     *
+     * @param snapshot      Snapshot of the overlay.
+     * @param sources       Indexes of the nodes to start the BFS from, to estimate the diameter and the distances.
+     * @param maxIterations Maximum number of iterations of the power method.
+     * @return Metrics of the graph.
+     */
+    public static GraphMetrics compute(OverlaySnapshot snapshot, int[] sources, int maxIterations) {
+        final int size = snapshot.size();
+
+        // connected components (linear, not worth parallelizing)
+        final int[] componentSizes = components(snapshot);
+        int largestComponent = 0;
+        for (int componentSize : componentSizes) {
+            largestComponent = Math.max(largestComponent, componentSize);
+        }
+
+        // double sweep from each source: the eccentricity of the farthest node is a lower bound of the diameter
+        final int[] eccentricities = new int[sources.length];
+        final long[] distances = new long[sources.length];
+        final long[] pairs = new long[sources.length];
+        sum(sources.length, 1, (from, to) -> {
+            final int[] distance = new int[size];
+            final int[] queue = new int[size];
+            for (int s = from; s < to; s++) {
+                final int reached = bfs(snapshot, sources[s], distance, queue);
+                long total = 0;
+                for (int i = 0; i < reached; i++) {
+                    total += distance[queue[i]];
+                }
+                distances[s] = total;
+                pairs[s] = reached - 1;
+
+                final int farthest = queue[reached - 1];
+                final int reachedFromFarthest = bfs(snapshot, farthest, distance, queue);
+                eccentricities[s] = distance[queue[reachedFromFarthest - 1]];
+            }
+            return 0;
+        });
+        int diameter = 0;
+        long totalDistance = 0;
+        long totalPairs = 0;
+        for (int s = 0; s < sources.length; s++) {
+            diameter = Math.max(diameter, eccentricities[s]);
+            totalDistance += distances[s];
+            totalPairs += pairs[s];
+        }
+        final double averageDistance = totalPairs > 0 ? 1.0 * totalDistance / totalPairs : 0;
+
+        // average local clustering coefficient
+        final double clustering = size == 0 ? 0 : sum(size, GRANULARITY, (from, to) -> {
+            double total = 0;
+            for (int node = from; node < to; node++) {
+                final int degree = snapshot.degree(node);
+                if (degree >= 2) {
+                    long links = 0;
+                    for (int i = 0; i < degree; i++) {
+                        links += snapshot.commonNeighbours(node, snapshot.getNeighbour(node, i));
+                    }
+                    // NB: each link between 2 neighbours is counted twice
+                    total += 1.0 * links / ((long) degree * (degree - 1));
+                }
+            }
+            return total;
+        }) / size;
+
+        // edges between different partitions (each undirected edge is counted once)
+        long crossingEdges = -1;
+        if (snapshot.hasPartitions()) {
+            crossingEdges = (long) sum(size, GRANULARITY, (from, to) -> {
+                long crossing = 0;
+                for (int node = from; node < to; node++) {
+                    final long partition = snapshot.getPartition(node);
+                    for (int i = 0; i < snapshot.degree(node); i++) {
+                        final int neighbour = snapshot.getNeighbour(node, i);
+                        if (neighbour > node && snapshot.getPartition(neighbour) != partition) {
+                            crossing++;
+                        }
+                    }
+                }
+                return crossing;
+            });
+        }
+
+        // eigenvector centrality, using the power iteration on (A + I) to avoid oscillations
+        double[] current = new double[size];
+        double[] next = new double[size];
+        for (int i = 0; i < size; i++) {
+            current[i] = 1 / Math.sqrt(size);
+        }
+        int iterations = 0;
+        while (size > 0 && iterations < maxIterations) {
+            iterations++;
+            final double[] x = current;
+            final double[] y = next;
+            final double norm = Math.sqrt(sum(size, GRANULARITY, (from, to) -> {
+                double squares = 0;
+                for (int node = from; node < to; node++) {
+                    double value = x[node];
+                    for (int i = 0; i < snapshot.degree(node); i++) {
+                        value += x[snapshot.getNeighbour(node, i)];
+                    }
+                    y[node] = value;
+                    squares += value * value;
+                }
+                return squares;
+            }));
+            final double change = sum(size, GRANULARITY, (from, to) -> {
+                double total = 0;
+                for (int node = from; node < to; node++) {
+                    y[node] /= norm;
+                    total += Math.abs(y[node] - x[node]);
+                }
+                return total;
+            });
+            current = y;
+            next = x;
+            if (change < size * TOLERANCE) {
+                break;
+            }
+        }
+        final float[] centrality = new float[size];
+        for (int i = 0; i < size; i++) {
+            centrality[i] = (float) current[i];
+        }
+
+        return new GraphMetrics(snapshot, componentSizes.length, largestComponent, diameter, averageDistance,
+            clustering, crossingEdges, iterations, centrality);
+    }
+
+    /**
+     * @param node Index of the node in the snapshot.
+     * @return ID of the node.
+     */
+    public int getId(int node) {
+        return ids[node];
+    }
+
+    /**
+     * @param node Index of the node in the snapshot.
+     * @return Eigenvector centrality of the node (the vector of all centralities has unitary norm).
+     */
+    public float getCentrality(int node) {
+        return centrality[node];
+    }
+
+    /**
+     * Write the header of the binary format: a magic number and the version of the format.
+     *
+     * @param out Output to write to.
+     * @throws IOException If the output can not be written.
+     */
+    public static void writeHeader(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /**
+     * Write the metrics in the binary format: the time (long), the number of nodes (int), the number
+     * of edges (long), the number and the largest size of the components (int, int), the diameter
+     * (int), the average distance and the clustering coefficient (double, double), the crossing
+     * edges (long), the number of iterations of the power method (int), followed by the ID (int)
+     * and the eigenvector centrality (float) of each node.
+     *
+     * @param out Output to write to.
+     * @throws IOException If the output can not be written.
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(time);
+        out.writeInt(nodes);
+        out.writeLong(edges);
+        out.writeInt(components);
+        out.writeInt(largestComponent);
+        out.writeInt(diameter);
+        out.writeDouble(averageDistance);
+        out.writeDouble(clustering);
+        out.writeLong(crossingEdges);
+        out.writeInt(iterations);
+        for (int i = 0; i < nodes; i++) {
+            out.writeInt(ids[i]);
+            out.writeFloat(centrality[i]);
+        }
+    }
+
+    /**
+     * Find the connected components of the snapshot.
+     *
+     * @return Size of each component.
+     */
+    private static int[] components(OverlaySnapshot snapshot) {
+        final int size = snapshot.size();
+        final int[] distance = new int[size];
+        final int[] queue = new int[size];
+        final boolean[] visited = new boolean[size];
+        final IntList sizes = new IntList();
+        for (int node = 0; node < size; node++) {
+            if (!visited[node]) {
+                final int reached = bfs(snapshot, node, distance, queue);
+                for (int i = 0; i < reached; i++) {
+                    visited[queue[i]] = true;
+                }
+                sizes.add(reached);
+            }
+        }
+        return sizes.toArray();
+    }
+
+    /**
+     * Breadth first search from the given node. The reached nodes are stored in the queue
+     * in order of distance, so the last one is one of the farthest from the source.
+     *
+     * @param source   Index of the node to start from.
+     * @param distance Distance of each node from the source, valid only for the reached nodes.
+     * @param queue    Reached nodes, in order of distance.
+     * @return Number of reached nodes, including the source.
+     */
+    private static int bfs(OverlaySnapshot snapshot, int source, int[] distance, int[] queue) {
+        Arrays.fill(distance, -1);
+        distance[source] = 0;
+        queue[0] = source;
+        int head = 0;
+        int tail = 1;
+        while (head < tail) {
+            final int node = queue[head++];
+            for (int i = 0; i < snapshot.degree(node); i++) {
+                final int neighbour = snapshot.getNeighbour(node, i);
+                if (distance[neighbour] < 0) {
+                    distance[neighbour] = distance[node] + 1;
+                    queue[tail++] = neighbour;
+                }
+            }
+        }
+        return tail;
+    }
+
+    /**
+     * Sum the values computed over the ranges of [0, size), computing the ranges in parallel.
+     */
+    private static double sum(int size, int granularity, RangeFunction function) {
+        return new RangeTask(function, 0, size, granularity).invoke();
+    }
+
+    /**
+     * Function computed over a range of nodes [from, to).
+     */
+    @FunctionalInterface
+    private interface RangeFunction {
+        double apply(int from, int to);
+    }
+
+    /**
+     * Task that splits its range in 2 halves until they are small enough, then sums the results.
+     */
+    private static final class RangeTask extends RecursiveTask<Double> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RangeFunction function;
+        private final int from;
+        private final int to;
+        private final int granularity;
+
+        RangeTask(RangeFunction function, int from, int to, int granularity) {
+            this.function = function;
+            this.from = from;
+            this.to = to;
+            this.granularity = granularity;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from <= granularity) {
+                return function.apply(from, to);
+            }
+            final int middle = (from + to) >>> 1;
+            final RangeTask left = new RangeTask(function, from, middle, granularity);
+            left.fork();
+            final double right = new RangeTask(function, middle, to, granularity).compute();
+            return left.join() + right;
+        }
+    }
+}
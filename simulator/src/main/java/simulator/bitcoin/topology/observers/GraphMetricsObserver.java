@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.topology.observers;
+
+import peersim.config.Configuration;
+import peersim.core.CommonState;
+import peersim.core.Control;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static peersim.utilities.ConfigurationHelper.*;
+
+/**
+ * Observer of the structure of the overlay network built by the
+ * {@link simulator.bitcoin.topology.BitcoinTopology} protocol (see {@link GraphMetrics}).
+ * The simulation is paused only to copy the overlay in an {@link OverlaySnapshot}: the metrics
+ * are computed on a fork/join pool while the simulation goes on. The results are written
+ * in order, as soon as they are ready, to a binary file (see {@link GraphMetrics#write}), which is flushed
+ * after each execution. The observer waits for the pending computations and closes the file when it is
+ * executed at the end of the simulation (see the FINAL parameter of PeerSim), or when the JVM exits.
+ */
+public final class GraphMetricsObserver implements Control {
+
+    // parameters
+    private static final String PARAMETER_TRANSPORT = "transport";
+    private static final String PARAMETER_FILE = "file";
+    private static final String PARAMETER_SAMPLES = "samples";
+    private static final String PARAMETER_ITERATIONS = "iterations";
+    private static final String PARAMETER_THREADS = "threads";
+
+    // default configuration
+    private static final String DEFAULT_FILE = "graph_metrics.bin";
+    private static final int DEFAULT_SAMPLES = 16;
+    private static final int DEFAULT_ITERATIONS = 100;
+
+    // configuration
+    private final int pid;
+    private final int transportPid;
+    private final int samples;
+    private final int iterations;
+
+    // fields
+    private final Random random;
+    private final ForkJoinPool pool;
+    private final Queue<ForkJoinTask<GraphMetrics>> pending;
+    private final DataOutputStream output;
+    private boolean closed;
+
+    /**
+     * Default constructor, following the PeerSim conventions.
+     * The prefix field is automatically provided by the PeerSim engine.
+     *
+     * @param prefix Prefix of this control in the configuration file.
+     */
+    public GraphMetricsObserver(String prefix) {
+        this.pid = readPid(prefix);
+        this.transportPid = Configuration.contains(prefix + "." + PARAMETER_TRANSPORT) ?
+            Configuration.getPid(prefix + "." + PARAMETER_TRANSPORT) : -1;
+        this.samples = readInt(prefix, PARAMETER_SAMPLES, DEFAULT_SAMPLES);
+        this.iterations = readInt(prefix, PARAMETER_ITERATIONS, DEFAULT_ITERATIONS);
+
+        // NB: the random generator of the simulation can not be used by other threads
+        // and using it here would change the simulation depending on this observer
+        this.random = new Random(CommonState.r.getLastSeed());
+        this.pool = new ForkJoinPool(readInt(prefix, PARAMETER_THREADS, Runtime.getRuntime().availableProcessors()));
+        this.pending = new ArrayDeque<>();
+
+        final String file = readString(prefix, PARAMETER_FILE, DEFAULT_FILE);
+        try {
+            this.output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            GraphMetrics.writeHeader(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write the graph metrics to " + file, e);
+        }
+        this.closed = false;
+
+        // NB: the simulator does not notify the controls when the simulation ends
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> write(true)));
+    }
+
+    @Override
+    public boolean execute() {
+
+        // copy the overlay... this is the only step that blocks the simulation
+        final OverlaySnapshot snapshot = OverlaySnapshot.take(pid, transportPid);
+        final int[] sources = new int[snapshot.size() == 0 ? 0 : samples];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = random.nextInt(snapshot.size());
+        }
+        pending.add(pool.submit(() -> GraphMetrics.compute(snapshot, sources, iterations)));
+        write(CommonState.getPhase() == CommonState.POST_SIMULATION);
+
+        // false == do NOT stop the simulation
+        return false;
+    }
+
+    /**
+     * Write the results which are ready, keeping the order of the snapshots, and flush the file.
+     * NB: this is also called by the shutdown hook, so it may run on a different thread.
+     *
+     * @param last True to wait for all computations and close the file.
+     */
+    private synchronized void write(boolean last) {
+        if (closed) {
+            return;
+        }
+        try {
+            while (!pending.isEmpty() && (last || pending.peek().isDone())) {
+                pending.poll().join().write(output);
+            }
+            if (last) {
+                closed = true;
+                output.close();
+                pool.shutdown();
+            } else {
+                output.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write the graph metrics", e);
+        }
+    }
+}
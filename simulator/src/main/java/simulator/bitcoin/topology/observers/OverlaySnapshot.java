@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.topology.observers;
+
+import peersim.core.CommonState;
+import peersim.core.Network;
+import peersim.core.Node;
+import simulator.attacks.BalanceAttackTransport;
+import simulator.bitcoin.topology.BitcoinTopology;
+
+import java.util.Arrays;
+
+/**
+ * Immutable snapshot of the overlay network, stored in the compressed sparse row format: the neighbours
+ * of the node with index i are stored in targets[offsets[i]] ... targets[offsets[i + 1] - 1], sorted.
+ * Nodes are identified by their index in the snapshot, which is the index in the {@link Network}
+ * at the time the snapshot was taken. Since the connections are symmetric, each edge appears twice.
+ * The snapshot does not reference any simulation object, so it can be safely read by other threads.
+ */
+public final class OverlaySnapshot {
+
+    // time of the simulation when the snapshot was taken
+    public final long time;
+
+    // ID of each node
+    private final int[] ids;
+
+    // adjacency lists, in the compressed sparse row format
+    private final int[] offsets;
+    private final int[] targets;
+
+    // partition of each node for the balance attack, null if not available
+    private final long[] partitions;
+
+    OverlaySnapshot(long time, int[] ids, int[] offsets, int[] targets, long[] partitions) {
+        assert offsets.length == ids.length + 1;
+        assert offsets[ids.length] == targets.length;
+        assert partitions == null || partitions.length == ids.length;
+        this.time = time;
+        this.ids = ids;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.partitions = partitions;
+    }
+
+    /**
+     * Copy the current overlay network.
+     *
+     * @param pid          ID of the {@link BitcoinTopology} protocol.
+     * @param transportPid ID of the {@link BalanceAttackTransport} protocol, or -1 to skip the partitions.
+     * @return Snapshot of the overlay network.
+     */
+    public static OverlaySnapshot take(int pid, int transportPid) {
+        final int size = Network.size();
+
+        // count the edges to allocate the arrays only once
+        final int[] ids = new int[size];
+        final int[] offsets = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            final Node node = Network.get(i);
+            ids[i] = (int) node.getID();
+            offsets[i + 1] = offsets[i] + ((BitcoinTopology) node.getProtocol(pid)).degree();
+        }
+
+        // copy the neighbours of each node
+        final int[] targets = new int[offsets[size]];
+        for (int i = 0; i < size; i++) {
+            final BitcoinTopology topology = (BitcoinTopology) Network.get(i).getProtocol(pid);
+            final int from = offsets[i];
+            final int degree = offsets[i + 1] - from;
+            for (int j = 0; j < degree; j++) {
+                final int index = topology.getNeighbor(j).getIndex();
+                assert index >= 0 : "The connections with the nodes that left the network should be closed.";
+                targets[from + j] = index;
+            }
+            Arrays.sort(targets, from, from + degree);
+        }
+
+        // partitions used by the balance attack
+        long[] partitions = null;
+        if (transportPid >= 0) {
+            partitions = new long[size];
+            for (int i = 0; i < size; i++) {
+                final Node node = Network.get(i);
+                partitions[i] = ((BalanceAttackTransport) node.getProtocol(transportPid)).partition(node);
+            }
+        }
+
+        return new OverlaySnapshot(CommonState.getTime(), ids, offsets, targets, partitions);
+    }
+
+    /**
+     * @return Number of nodes in the snapshot.
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @return Number of (undirected) edges in the snapshot.
+     */
+    public long edges() {
+        return targets.length / 2;
+    }
+
+    /**
+     * @param node Index of the node.
+     * @return ID of the node.
+     */
+    public int getId(int node) {
+        return ids[node];
+    }
+
+    /**
+     * @param node Index of the node.
+     * @return Number of neighbours of the node.
+     */
+    public int degree(int node) {
+        return offsets[node + 1] - offsets[node];
+    }
+
+    /**
+     * @param node Index of the node.
+     * @param i    Position of the neighbour, between 0 and the degree of the node.
+     * @return Index of the i-th neighbour of the node (the neighbours are sorted).
+     */
+    public int getNeighbour(int node, int i) {
+        assert i >= 0 && i < degree(node);
+        return targets[offsets[node] + i];
+    }
+
+    /**
+     * @return True if the partitions of the balance attack are available, false otherwise.
+     */
+    public boolean hasPartitions() {
+        return partitions != null;
+    }
+
+    /**
+     * @param node Index of the node.
+     * @return Partition of the node for the balance attack.
+     */
+    public long getPartition(int node) {
+        return partitions[node];
+    }
+
+    /**
+     * Count the common neighbours of two nodes, by merging their sorted adjacency lists.
+     *
+     * @param a Index of the first node.
+     * @param b Index of the second node.
+     * @return Number of nodes connected to both nodes.
+     */
+    public int commonNeighbours(int a, int b) {
+        int i = offsets[a];
+        int j = offsets[b];
+        final int iEnd = offsets[a + 1];
+        final int jEnd = offsets[b + 1];
+        int common = 0;
+        while (i < iEnd && j < jEnd) {
+            final int x = targets[i];
+            final int y = targets[j];
+            if (x == y) {
+                common++;
+                i++;
+                j++;
+            } else if (x < y) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return common;
+    }
+}
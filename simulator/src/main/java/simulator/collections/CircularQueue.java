@@ -55,8 +55,7 @@ public final class CircularQueue<T> {
     public CircularQueue(CircularQueue<T> original) {
         this.head = original.head;
         this.tail = original.tail;
-        this.buffer = (T[]) new Object[original.buffer.length];
-        System.arraycopy(this.buffer, 0, original.buffer, 0, original.buffer.length);
+        this.buffer = original.buffer.clone();
     }
 
     /**
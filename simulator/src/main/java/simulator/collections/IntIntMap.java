@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.collections;
+
+/**
+ * Simple hash map from non-negative integer keys to non-negative integer values.
+ * It uses open addressing with linear probing on primitive arrays, so lookups
+ * and updates do not allocate any object. Deletions shift back the following
+ * entries of the cluster, so no tombstone is ever left in the table.
+ */
+public final class IntIntMap {
+
+    /**
+     * Value returned when a key is not present in the map.
+     */
+    public static final int MISSING = -1;
+
+    /**
+     * Default initial capacity of the underlying arrays (must be a power of 2).
+     */
+    private static final int DEFAULT_INITIAL_CAPACITY = 8;
+
+    // marker of the free slots
+    private static final int FREE = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    // true if the arrays may be shared with a copy of this map (they are duplicated on the first write)
+    private boolean shared;
+
+    /**
+     * Create a new map with the default initial capacity.
+     */
+    public IntIntMap() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * Create a new map with a custom initial capacity.
+     *
+     * @param initialCapacity Custom initial capacity (must be a power of 2).
+     */
+    IntIntMap(int initialCapacity) {
+        assert initialCapacity >= 2 && Integer.bitCount(initialCapacity) == 1;
+        this.keys = newKeys(initialCapacity);
+        this.values = new int[initialCapacity];
+        this.size = 0;
+        this.shared = false;
+    }
+
+    /**
+     * Create a copy of the given map. The arrays are shared between the two maps
+     * until one of them is modified (copy-on-write).
+     *
+     * @param original Map to copy.
+     */
+    public IntIntMap(IntIntMap original) {
+        this.keys = original.keys;
+        this.values = original.values;
+        this.size = original.size;
+        this.shared = true;
+        original.shared = true;
+    }
+
+    /**
+     * @return The number of entries stored in the map.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return True if the map does not contain any entry, false otherwise.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Check if the map contains the given key.
+     *
+     * @param key Key to lookup.
+     * @return True if the key is present, false otherwise.
+     */
+    public boolean containsKey(int key) {
+        return get(key) != MISSING;
+    }
+
+    /**
+     * Lookup the value associated to the given key.
+     *
+     * @param key Key to lookup.
+     * @return Value associated to the key, or {@link #MISSING} if the key is not present.
+     */
+    public int get(int key) {
+        assert key >= 0 : "Keys must be non-negative";
+        final int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    /**
+     * Associate the given value to the given key, replacing the old value if any.
+     *
+     * @param key   Key.
+     * @param value Value to associate to the key.
+     * @return The old value associated to the key, or {@link #MISSING} if the key was not present.
+     */
+    public int put(int key, int value) {
+        assert key >= 0 : "Keys must be non-negative";
+        assert value >= 0 : "Values must be non-negative";
+        ensureNotShared();
+        final int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) {
+                final int old = values[slot];
+                values[slot] = value;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        resizeIfNeeded();
+        return MISSING;
+    }
+
+    /**
+     * Remove the given key from the map.
+     *
+     * @param key Key to remove.
+     * @return The value associated to the key, or {@link #MISSING} if the key was not present.
+     */
+    public int remove(int key) {
+        assert key >= 0 : "Keys must be non-negative";
+        final int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != FREE) {
+            if (keys[slot] == key) {
+                final int old = values[slot];
+                ensureNotShared();
+                shiftBack(slot);
+                size--;
+                return old;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    /**
+     * Remove all entries from the map. The underlying arrays are kept to avoid reallocations.
+     */
+    public void clear() {
+        ensureNotShared();
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = FREE;
+        }
+        size = 0;
+    }
+
+    /**
+     * Free the given slot and move back the following entries of the same cluster
+     * that would not be reachable anymore from their home slot.
+     *
+     * @param free Slot to free.
+     */
+    private void shiftBack(int free) {
+        final int mask = keys.length - 1;
+        int slot = (free + 1) & mask;
+        while (keys[slot] != FREE) {
+            final int home = hash(keys[slot]) & mask;
+            // the entry can be moved if its home slot is not in the (cyclic) interval (free, slot]
+            final boolean movable = free <= slot ? (home <= free || home > slot) : (home <= free && home > slot);
+            if (movable) {
+                keys[free] = keys[slot];
+                values[free] = values[slot];
+                free = slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[free] = FREE;
+    }
+
+    /**
+     * Duplicate the arrays before a write if they may be shared with another map.
+     */
+    private void ensureNotShared() {
+        if (shared) {
+            keys = keys.clone();
+            values = values.clone();
+            shared = false;
+        }
+    }
+
+    /**
+     * Double the size of the table when it is more than half full.
+     */
+    private void resizeIfNeeded() {
+        if (2 * size > keys.length) {
+            final int[] oldKeys = keys;
+            final int[] oldValues = values;
+            final int newSize = 2 * oldKeys.length;
+            final int mask = newSize - 1;
+            keys = newKeys(newSize);
+            values = new int[newSize];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != FREE) {
+                    int slot = hash(oldKeys[i]) & mask;
+                    while (keys[slot] != FREE) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Scramble the bits of the key, since keys are often consecutive integers.
+     *
+     * @param key Key.
+     * @return Hash of the key.
+     */
+    private static int hash(int key) {
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Allocate a new array of keys with all slots free.
+     *
+     * @param size Size of the array.
+     * @return Array of free keys.
+     */
+    private static int[] newKeys(int size) {
+        final int[] keys = new int[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = FREE;
+        }
+        return keys;
+    }
+
+    // test utility ONLY!
+    int _capacity() {
+        return keys.length;
+    }
+}
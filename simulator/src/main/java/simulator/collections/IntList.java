@@ -17,11 +17,16 @@
 
 package simulator.collections;
 
+import java.util.Arrays;
+
 /**
  * Simple data structure that stores a list of integer in an array.
  */
 public final class IntList {
 
+    // shared by all empty lists, the array is allocated when the first element is added
+    private static final int[] EMPTY = new int[0];
+
     private int[] array;
     private int length;
 
@@ -29,10 +34,20 @@ public final class IntList {
      * Default constructor.
      */
     public IntList() {
-        this.array = new int[2];
+        this.array = EMPTY;
         this.length = 0;
     }
 
+    /**
+     * Create a copy of the given list.
+     *
+     * @param original List to copy.
+     */
+    public IntList(IntList original) {
+        this.array = original.length == 0 ? EMPTY : Arrays.copyOf(original.array, original.length);
+        this.length = original.length;
+    }
+
     /**
      * @return True if the list does not contain any element, false otherwise.
      */
@@ -57,6 +72,46 @@ public final class IntList {
         return this.array[index];
     }
 
+    /**
+     * Replace the element stored in the given position.
+     *
+     * @param index   Index of the element.
+     * @param element New element.
+     */
+    public void set(int index, int element) {
+        assert index < this.length;
+        this.array[index] = element;
+    }
+
+    /**
+     * Remove the last element of the list.
+     *
+     * @return The removed element.
+     */
+    public int removeLast() {
+        assert this.length > 0;
+        this.length--;
+        return this.array[this.length];
+    }
+
+    /**
+     * Copy the elements stored in the list to a new array.
+     *
+     * @return Array with the elements of the list, in insertion order.
+     */
+    public int[] toArray() {
+        final int[] copy = new int[this.length];
+        System.arraycopy(this.array, 0, copy, 0, this.length);
+        return copy;
+    }
+
+    /**
+     * Remove all elements from the list. The underlying array is kept to avoid reallocations.
+     */
+    public void clear() {
+        this.length = 0;
+    }
+
     /**
      * Add an element to the list (after the last one).
      *
@@ -65,7 +120,7 @@ public final class IntList {
     public void add(int element) {
         if (this.array.length == this.length) {
             final int oldSize = this.length;
-            final int newSize = 3 * oldSize / 2;
+            final int newSize = Math.max(2, 3 * oldSize / 2);
             final int[] newArray = new int[newSize];
             System.arraycopy(this.array, 0, newArray, 0, oldSize);
             this.array = newArray;
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.collections;
+
+import java.util.Arrays;
+
+/**
+ * Simple data structure that stores a list of long in an array.
+ */
+public final class LongList {
+
+    private long[] array;
+    private int length;
+
+    /**
+     * Default constructor.
+     */
+    public LongList() {
+        this.array = new long[2];
+        this.length = 0;
+    }
+
+    /**
+     * Create a copy of the given list.
+     *
+     * @param original List to copy.
+     */
+    public LongList(LongList original) {
+        this.array = Arrays.copyOf(original.array, Math.max(2, original.length));
+        this.length = original.length;
+    }
+
+    /**
+     * @return The number of elements stored in the list.
+     */
+    public int size() {
+        return this.length;
+    }
+
+    /**
+     * Lookup an element by index.
+     *
+     * @param index Index of the element.
+     * @return Element stored in the given position.
+     */
+    public long get(int index) {
+        return this.array[index];
+    }
+
+    /**
+     * Remove all elements from the list. The underlying array is kept to avoid reallocations.
+     */
+    public void clear() {
+        this.length = 0;
+    }
+
+    /**
+     * Add an element to the list (after the last one).
+     *
+     * @param element Element to add.
+     */
+    public void add(long element) {
+        if (this.array.length == this.length) {
+            final int oldSize = this.length;
+            final int newSize = 3 * oldSize / 2;
+            final long[] newArray = new long[newSize];
+            System.arraycopy(this.array, 0, newArray, 0, oldSize);
+            this.array = newArray;
+        }
+        this.array[this.length] = element;
+        this.length++;
+    }
+}
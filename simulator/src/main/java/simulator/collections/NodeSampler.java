@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.collections;
+
+import peersim.core.Node;
+
+import java.util.Random;
+
+/**
+ * Lazy partial Fisher-Yates shuffle over a {@link NodeSet}. The nodes are returned in random order
+ * without copying the set: only the positions touched by the shuffle are remembered, so drawing
+ * k nodes costs O(k) in time and memory, regardless of the size of the set (resets included).
+ * The set must not be modified while it is being sampled. The sampler can also shuffle the positions
+ * of a sequence of nodes stored elsewhere, eg. in more than one set (see {@link #reset(int, Random)}).
+ */
+public final class NodeSampler {
+
+    // positions swapped by the shuffle so far: position -> position in the set of the node virtually stored there
+    private final IntIntMap swaps;
+
+    // keys stored in the map of swaps, so that a reset does not need to scan the whole map
+    private final IntList touched;
+
+    private NodeSet set;
+    private int size;
+    private Random random;
+    private int next;
+
+    /**
+     * Create a new sampler. Please call {@link #reset(NodeSet, Random)} before drawing any node.
+     */
+    public NodeSampler() {
+        this.swaps = new IntIntMap();
+        this.touched = new IntList();
+        this.set = null;
+        this.size = 0;
+        this.random = null;
+        this.next = 0;
+    }
+
+    /**
+     * Start a new random permutation of the given set. The sampler can be reused any number of times.
+     *
+     * @param set    Set to sample.
+     * @param random Random number generator used to shuffle the set.
+     */
+    public void reset(NodeSet set, Random random) {
+        reset(set.size(), random);
+        this.set = set;
+    }
+
+    /**
+     * Start a new random permutation of the positions from 0 (included) to the given size (excluded).
+     * The positions must be drawn with {@link #nextPosition()}.
+     *
+     * @param size   Number of positions to shuffle.
+     * @param random Random number generator used to shuffle the positions.
+     */
+    public void reset(int size, Random random) {
+        for (int i = 0; i < touched.size(); i++) {
+            swaps.remove(touched.get(i));
+        }
+        this.touched.clear();
+        this.set = null;
+        this.size = size;
+        this.random = random;
+        this.next = 0;
+    }
+
+    /**
+     * @return True if some node was not returned yet, false otherwise.
+     */
+    public boolean hasNext() {
+        return next < size;
+    }
+
+    /**
+     * Draw the next node of the random permutation.
+     *
+     * @return A node that was not returned yet since the last reset.
+     */
+    public Node next() {
+        assert set != null : "The sampler was not reset with a set.";
+        return set.get(nextPosition());
+    }
+
+    /**
+     * Draw the next position of the random permutation.
+     *
+     * @return A position that was not returned yet since the last reset.
+     */
+    public int nextPosition() {
+        assert hasNext();
+        final int position = next + random.nextInt(size - next);
+        final int chosen = at(position);
+
+        // NB: the current position is never looked up again, so only the other one needs to be remembered
+        if (position != next && swaps.put(position, at(next)) == IntIntMap.MISSING) {
+            touched.add(position);
+        }
+        next++;
+        return chosen;
+    }
+
+    /**
+     * Position in the set of the node virtually stored at the given position of the permutation.
+     */
+    private int at(int position) {
+        final int swapped = swaps.get(position);
+        return swapped == IntIntMap.MISSING ? position : swapped;
+    }
+}
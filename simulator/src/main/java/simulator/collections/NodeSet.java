@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.collections;
+
+import peersim.core.Node;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static peersim.utilities.NodeUtilities.key;
+
+/**
+ * Set of nodes with constant time insertion, lookup, removal and random sampling.
+ * The nodes are stored in a dense array, while a hash map from node ID to position
+ * in the array is used to detect duplicates without scanning the whole array.
+ */
+public final class NodeSet {
+
+    /**
+     * Array shared by all empty sets, replaced when the first node is added.
+     */
+    private static final Node[] EMPTY = new Node[0];
+
+    /**
+     * Sampler shared by all sets, since each sample is drawn within a single call.
+     */
+    private static final NodeSampler SAMPLER = new NodeSampler();
+
+    private Node[] nodes;
+    private int size;
+    private final IntIntMap positions;
+
+    /**
+     * Create a new empty set.
+     */
+    public NodeSet() {
+        this.nodes = EMPTY;
+        this.size = 0;
+        this.positions = new IntIntMap();
+    }
+
+    /**
+     * Create a copy of the given set.
+     *
+     * @param original Set to copy.
+     */
+    public NodeSet(NodeSet original) {
+        this.nodes = original.size == 0 ? EMPTY : Arrays.copyOf(original.nodes, original.size);
+        this.size = original.size;
+        this.positions = new IntIntMap(original.positions);
+    }
+
+    /**
+     * @return The number of nodes stored in the set.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check if the given node is stored in the set.
+     *
+     * @param node Node.
+     * @return True if the node is present, false otherwise.
+     */
+    public boolean contains(Node node) {
+        return positions.containsKey(key(node));
+    }
+
+    /**
+     * Add a node to the set.
+     *
+     * @param node Node to add.
+     * @return True if the node was added, false if it was already present.
+     */
+    public boolean add(Node node) {
+        final int key = key(node);
+        if (positions.containsKey(key)) {
+            return false;
+        }
+        if (nodes.length == size) {
+            nodes = Arrays.copyOf(nodes, Math.max(4, 2 * size));
+        }
+        nodes[size] = node;
+        positions.put(key, size);
+        size++;
+        return true;
+    }
+
+    /**
+     * Remove a node from the set. The last node takes the place of the removed one.
+     *
+     * @param node Node to remove.
+     * @return True if the node was removed, false if it was not present.
+     */
+    public boolean remove(Node node) {
+        final int position = positions.remove(key(node));
+        if (position == IntIntMap.MISSING) {
+            return false;
+        }
+        size--;
+        if (position != size) {
+            nodes[position] = nodes[size];
+            positions.put(key(nodes[position]), position);
+        }
+        nodes[size] = null;
+        return true;
+    }
+
+    /**
+     * Get the node with the given ID, if it is stored in the set.
+     *
+     * @param id ID of the node.
+     * @return The node with the given ID, or null if it is not present.
+     */
+    public Node getById(long id) {
+        assert id >= 0 && id <= Integer.MAX_VALUE : "Node IDs are expected to fit in an integer.";
+        final int position = positions.get((int) id);
+        return position == IntIntMap.MISSING ? null : nodes[position];
+    }
+
+    /**
+     * Get the node stored at the given position. Positions are stable as long as no node is removed.
+     *
+     * @param index Position of the node, between 0 and the size of the set.
+     * @return Node stored at the given position.
+     */
+    public Node get(int index) {
+        assert index >= 0 && index < size;
+        return nodes[index];
+    }
+
+    /**
+     * Return a random node stored in the set.
+     *
+     * @param random Random number generator used to choose the random node.
+     * @return Random node stored in the set.
+     */
+    public Node random(Random random) {
+        assert size > 0;
+        return nodes[random.nextInt(size)];
+    }
+
+    /**
+     * Select k distinct random nodes from the set, i.e. the first k nodes of a random permutation.
+     * The cost depends only on the number of selected nodes, not on the size of the set.
+     *
+     * @param k      Number of nodes to select (at most the size of the set).
+     * @param random Random number generator used to choose the nodes.
+     * @return Array with the selected nodes.
+     */
+    public Node[] sample(int k, Random random) {
+        assert k >= 0 && k <= size;
+        final Node[] sample = new Node[k];
+        SAMPLER.reset(this, random);
+        for (int i = 0; i < k; i++) {
+            sample[i] = SAMPLER.next();
+        }
+        return sample;
+    }
+
+    /**
+     * @return Copy of the nodes in the set, in order of position.
+     */
+    public Node[] toArray() {
+        return Arrays.copyOf(nodes, size);
+    }
+}
@@ -31,6 +31,11 @@ public final class ObjectList<T> {
      */
     private static final int DEFAULT_INITIAL_CAPACITY = 10;
 
+    /**
+     * Array shared by the copies of empty lists, replaced when the first element is added.
+     */
+    private static final Object[] EMPTY = new Object[0];
+
     private final int capacity;
     private int length;
     private T[] array;
@@ -64,8 +69,7 @@ public final class ObjectList<T> {
     public ObjectList(ObjectList<T> original) {
         this.capacity = original.capacity;
         this.length = original.length;
-        this.array = (T[]) new Object[original.array.length];
-        System.arraycopy(original.array, 0, this.array, 0, original.array.length);
+        this.array = original.length == 0 ? (T[]) EMPTY : Arrays.copyOf(original.array, original.array.length);
     }
 
     /**
@@ -86,7 +90,7 @@ public final class ObjectList<T> {
         // dynamically resize the array if needed
         if (this.array.length == this.length) {
             final int oldSize = this.length;
-            final int newSize = 2 * oldSize;
+            final int newSize = Math.max(capacity, 2 * oldSize);
             final T[] newArray = (T[]) new Object[newSize];
             System.arraycopy(this.array, 0, newArray, 0, oldSize);
             this.array = newArray;
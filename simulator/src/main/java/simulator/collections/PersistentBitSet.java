@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.collections;
+
+import java.util.Arrays;
+
+/**
+ * Immutable bit set with structural sharing. The bits are stored in a 32-way trie,
+ * where each leaf holds 32 words (2048 bits). Setting some bits creates a new set that
+ * copies only the nodes on the paths to the touched leaves, while all other nodes are
+ * shared with the original set. This makes it cheap to keep many versions of a set
+ * that differ only by a few bits, eg. one version for each block of the blockchain.
+ */
+public final class PersistentBitSet {
+
+    /**
+     * The empty set: all sets are built starting from this one.
+     */
+    public static final PersistentBitSet EMPTY = new PersistentBitSet(null, 0);
+
+    // shape of the trie
+    private static final int BITS_PER_LEVEL = 5;
+    private static final int WIDTH = 1 << BITS_PER_LEVEL;
+    private static final int MASK = WIDTH - 1;
+    private static final int LEAF_SHIFT = 11;
+
+    // root of the trie: a leaf (long[]) if there are no levels, an internal node (Object[]) otherwise
+    // NB: a null node represents a sub-tree with no bits set
+    private final Object root;
+    private final int levels;
+
+    private PersistentBitSet(Object root, int levels) {
+        this.root = root;
+        this.levels = levels;
+    }
+
+    /**
+     * Get the value of a bit.
+     *
+     * @param index Index of the bit (non-negative).
+     * @return Value of the bit.
+     */
+    public boolean get(int index) {
+        assert index >= 0;
+        final int leaf = index >>> LEAF_SHIFT;
+        if (leaf >>> (BITS_PER_LEVEL * levels) != 0) {
+            return false;
+        }
+        Object node = root;
+        for (int level = levels; level > 0 && node != null; level--) {
+            node = ((Object[]) node)[(leaf >>> (BITS_PER_LEVEL * (level - 1))) & MASK];
+        }
+        return node != null && (((long[]) node)[(index >>> 6) & MASK] & (1L << index)) != 0;
+    }
+
+    /**
+     * Create a new set that contains all bits of this one, plus the given ones.
+     * This set is not modified.
+     *
+     * @param indexes Array that contains the indexes of the bits to set.
+     * @param length  Number of indexes to consider, starting from the first position of the array.
+     * @return The new set.
+     */
+    public PersistentBitSet with(int[] indexes, int length) {
+        if (length == 0) {
+            return this;
+        }
+
+        // sort the indexes, so that the ones in the same sub-tree are contiguous
+        final int[] sorted = Arrays.copyOf(indexes, length);
+        Arrays.sort(sorted);
+
+        // add levels on top of the root until the largest index fits in the trie
+        Object newRoot = root;
+        int newLevels = levels;
+        final int maxLeaf = sorted[length - 1] >>> LEAF_SHIFT;
+        while (maxLeaf >>> (BITS_PER_LEVEL * newLevels) != 0) {
+            if (newRoot != null) {
+                final Object[] node = new Object[WIDTH];
+                node[0] = newRoot;
+                newRoot = node;
+            }
+            newLevels++;
+        }
+
+        return new PersistentBitSet(with(newRoot, newLevels, sorted, 0, length), newLevels);
+    }
+
+    /**
+     * Copy the given node and set the given bits in the copy, recursively.
+     *
+     * @param node    Node to copy (null if empty).
+     * @param level   Level of the node (0 for the leaves).
+     * @param indexes Sorted indexes of the bits to set.
+     * @param from    First index to consider (inclusive).
+     * @param to      Last index to consider (exclusive).
+     * @return The updated copy of the node.
+     */
+    private static Object with(Object node, int level, int[] indexes, int from, int to) {
+
+        // leaf: set all bits in a copy of the words
+        if (level == 0) {
+            final long[] words = node == null ? new long[WIDTH] : ((long[]) node).clone();
+            for (int i = from; i < to; i++) {
+                words[(indexes[i] >>> 6) & MASK] |= 1L << indexes[i];
+            }
+            return words;
+        }
+
+        // internal node: copy it and update each child once with all its indexes
+        final Object[] children = node == null ? new Object[WIDTH] : ((Object[]) node).clone();
+        final int shift = LEAF_SHIFT + BITS_PER_LEVEL * (level - 1);
+        int i = from;
+        while (i < to) {
+            final int child = (indexes[i] >>> shift) & MASK;
+            int j = i + 1;
+            while (j < to && ((indexes[j] >>> shift) & MASK) == child) {
+                j++;
+            }
+            children[child] = with(children[child], level - 1, indexes, i, j);
+            i = j;
+        }
+        return children;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.collections;
+
+import java.util.Arrays;
+
+/**
+ * Probabilistic set of non-negative integer keys which remembers (at least) the most recently inserted keys,
+ * modelled on the rolling bloom filter of Bitcoin Core (CRollingBloomFilter).
+ * Each position of the filter stores the generation (1, 2 or 3) of the last key that set it, using 2 bits
+ * spread over a pair of words. When a generation is full, the positions of the oldest one are wiped.
+ * The filter remembers between the last {@code elements} and {@code 3/2 * elements} inserted keys,
+ * with a false positive rate of about {@code falsePositiveRate}. Insert and lookup cost a constant time.
+ * <p>
+ * NB: most filters see only a few keys in a simulation, so the memory grows with the insertions: the keys
+ * of the first generation are stored in an exact set (open addressing with linear probing), which is turned
+ * into the bloom filter only when it would use more memory than the filter, or when the generation is full.
+ */
+public final class RollingBloomFilter {
+
+    /**
+     * Arrays shared by all filters without keys, replaced when the first key is inserted.
+     */
+    private static final long[] EMPTY = new long[0];
+    private static final int[] NO_KEYS = new int[0];
+
+    // initial size of the exact set of keys (must be a power of 2)
+    private static final int INITIAL_KEYS = 8;
+
+    // marker of the free slots of the exact set of keys
+    private static final int FREE = -1;
+
+    // configuration
+    private final int entriesPerGeneration;
+    private final int hashFunctions;
+    private final int dataSize;
+
+    // fields
+    // NB: the exact set of keys is used as long as the data of the bloom filter is not allocated
+    private int[] keys;
+    private int keysSize;
+    private long[] data;
+    private int generation;
+    private int entriesThisGeneration;
+
+    /**
+     * Create a new empty filter.
+     *
+     * @param elements          Number of most recent keys that the filter should remember.
+     * @param falsePositiveRate Probability that the filter contains a key which was not inserted.
+     */
+    public RollingBloomFilter(int elements, double falsePositiveRate) {
+        assert elements > 0 : "The filter should remember at least one element.";
+        assert falsePositiveRate > 0 && falsePositiveRate < 1 : "The false positive rate should be in (0, 1).";
+        final double logFalsePositiveRate = Math.log(falsePositiveRate);
+
+        // NB: same sizes used by Bitcoin Core
+        this.entriesPerGeneration = (elements + 1) / 2;
+        final int maxElements = 3 * entriesPerGeneration;
+        this.hashFunctions = Math.max(1, Math.min((int) Math.round(logFalsePositiveRate / Math.log(0.5)), 50));
+        final double filterBits = Math.ceil(-1.0 * hashFunctions * maxElements /
+            Math.log(1.0 - Math.exp(logFalsePositiveRate / hashFunctions)));
+        this.dataSize = (((int) filterBits + 63) / 64) << 1;
+
+        this.keys = NO_KEYS;
+        this.keysSize = 0;
+        this.data = EMPTY;
+        this.generation = 1;
+        this.entriesThisGeneration = 0;
+    }
+
+    /**
+     * Create a copy of the given filter.
+     *
+     * @param original Filter to copy.
+     */
+    public RollingBloomFilter(RollingBloomFilter original) {
+        this.entriesPerGeneration = original.entriesPerGeneration;
+        this.hashFunctions = original.hashFunctions;
+        this.dataSize = original.dataSize;
+        this.keys = original.keys.length == 0 ? NO_KEYS : original.keys.clone();
+        this.keysSize = original.keysSize;
+        this.data = original.data.length == 0 ? EMPTY : original.data.clone();
+        this.generation = original.generation;
+        this.entriesThisGeneration = original.entriesThisGeneration;
+    }
+
+    /**
+     * Insert a key in the filter.
+     *
+     * @param key Key to insert (non-negative).
+     */
+    public void insert(int key) {
+        assert key >= 0 : "The keys of the filter should be non-negative.";
+        if (data.length == 0) {
+            if (entriesThisGeneration < entriesPerGeneration && insertKey(key)) {
+                entriesThisGeneration++;
+                return;
+            }
+            switchToBloomFilter();
+        }
+
+        // start a new generation, forgetting the keys of the oldest one
+        if (entriesThisGeneration == entriesPerGeneration) {
+            entriesThisGeneration = 0;
+            generation = generation == 3 ? 1 : generation + 1;
+            final long generationMask1 = -(long) (generation & 1);
+            final long generationMask2 = -(long) (generation >>> 1);
+            for (int p = 0; p < data.length; p += 2) {
+                final long p1 = data[p];
+                final long p2 = data[p + 1];
+                final long mask = (p1 ^ generationMask1) | (p2 ^ generationMask2);
+                data[p] = p1 & mask;
+                data[p + 1] = p2 & mask;
+            }
+        }
+        entriesThisGeneration++;
+        setPositions(key);
+    }
+
+    /**
+     * Store the current generation in all positions of the key.
+     */
+    private void setPositions(int key) {
+        final long generation1 = generation & 1;
+        final long generation2 = generation >>> 1;
+        for (int n = 0; n < hashFunctions; n++) {
+            final int h = hash(n, key);
+            final int bit = h & 0x3F;
+            final int position = position(h);
+            data[position & ~1] = (data[position & ~1] & ~(1L << bit)) | (generation1 << bit);
+            data[position | 1] = (data[position | 1] & ~(1L << bit)) | (generation2 << bit);
+        }
+    }
+
+    /**
+     * Remove all keys from the filter, releasing its memory.
+     */
+    public void clear() {
+        keys = NO_KEYS;
+        keysSize = 0;
+        data = EMPTY;
+        generation = 1;
+        entriesThisGeneration = 0;
+    }
+
+    /**
+     * Check if a key was inserted in the filter.
+     *
+     * @param key Key to check.
+     * @return True if the key was (probably) inserted recently, false if it was not inserted.
+     */
+    public boolean contains(int key) {
+        if (data.length == 0) {
+            return keysSize > 0 && keys[findKey(key)] == key;
+        }
+        for (int n = 0; n < hashFunctions; n++) {
+            final int h = hash(n, key);
+            final int bit = h & 0x3F;
+            final int position = position(h);
+            if ((((data[position & ~1] | data[position | 1]) >>> bit) & 1) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add a key to the exact set, growing it if needed.
+     *
+     * @return True if the key is in the set, false if the set would use more memory than the bloom filter.
+     */
+    private boolean insertKey(int key) {
+        if (keysSize > 0 && keys[findKey(key)] == key) {
+            return true;
+        }
+
+        // keep the load factor at most 1/2, the array of keys can use as much memory as the bloom filter
+        if (2 * (keysSize + 1) > keys.length) {
+            final int newLength = Math.max(INITIAL_KEYS, 2 * keys.length);
+            if (newLength > 2 * dataSize) {
+                return false;
+            }
+            final int[] oldKeys = keys;
+            keys = new int[newLength];
+            Arrays.fill(keys, FREE);
+            for (int oldKey : oldKeys) {
+                if (oldKey != FREE) {
+                    keys[findKey(oldKey)] = oldKey;
+                }
+            }
+        }
+        keys[findKey(key)] = key;
+        keysSize++;
+        return true;
+    }
+
+    /**
+     * Find the slot of the exact set where the given key is stored, or the free slot where it should be stored.
+     */
+    private int findKey(int key) {
+        final int mask = keys.length - 1;
+        int slot = hash(0, key) & mask;
+        while (keys[slot] != FREE && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Move the keys of the exact set to the bloom filter. NB: they are all in the current generation,
+     * since the set is used only before the first generation is full.
+     */
+    private void switchToBloomFilter() {
+        data = new long[dataSize];
+        for (int key : keys) {
+            if (key != FREE) {
+                setPositions(key);
+            }
+        }
+        keys = NO_KEYS;
+        keysSize = 0;
+    }
+
+    /**
+     * Map a hash uniformly to a position in the data array, without using the modulo operation.
+     */
+    private int position(int h) {
+        return (int) (((h & 0xFFFFFFFFL) * dataSize) >>> 32);
+    }
+
+    /**
+     * Hash of the key for the n-th hash function, based on the finalizer of SplitMix64.
+     */
+    private static int hash(int n, int key) {
+        long h = key + (n + 1) * 0x9E3779B97F4A7C15L;
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return (int) (h ^ (h >>> 31));
+    }
+
+    // test utility ONLY!
+    int _memory() {
+        return 4 * keys.length + 8 * data.length;
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.collections;
+
+import java.util.Arrays;
+
+/**
+ * Bit set optimized for sets of IDs that are assigned progressively, where almost all IDs
+ * below some watermark have the same value. Only a window of words is stored explicitly:
+ * all bits before the window have a fixed value (the prefix), all bits after the window are false.
+ * The window slides forward automatically as soon as its first words are equal to the prefix,
+ * so the memory used depends on the number of exceptions, not on the highest ID stored.
+ */
+public final class SlidingBitSet {
+
+    /**
+     * Array shared by all sets with an empty window, replaced when the first word is stored.
+     */
+    private static final long[] EMPTY = new long[0];
+
+    // value of all bits before the window
+    private final boolean prefix;
+    private final long prefixWord;
+
+    // window: words[start, start + length) stores the bits of the words [base, base + length)
+    private long[] words;
+    private int start;
+    private int length;
+    private int base;
+
+    /**
+     * Create a new empty set, where all bits are false.
+     */
+    public SlidingBitSet() {
+        this(false);
+    }
+
+    /**
+     * Create a new set with the given value for the implicit prefix.
+     * If the prefix is true, the set will contain all IDs until the first clear one.
+     *
+     * @param prefix Value of all bits before the window.
+     */
+    public SlidingBitSet(boolean prefix) {
+        this.prefix = prefix;
+        this.prefixWord = prefix ? -1L : 0L;
+        this.words = EMPTY;
+        this.start = 0;
+        this.length = 0;
+        this.base = 0;
+    }
+
+    /**
+     * Create a copy of the given set.
+     *
+     * @param original Set to copy.
+     */
+    public SlidingBitSet(SlidingBitSet original) {
+        this.prefix = original.prefix;
+        this.prefixWord = original.prefixWord;
+        this.words = original.length == 0
+            ? EMPTY
+            : Arrays.copyOfRange(original.words, original.start, original.start + original.length);
+        this.start = 0;
+        this.length = original.length;
+        this.base = original.base;
+    }
+
+    /**
+     * Get the value of a bit.
+     *
+     * @param index Index of the bit (non-negative).
+     * @return Value of the bit.
+     */
+    public boolean get(int index) {
+        final int word = index >>> 6;
+        if (word < base) {
+            return prefix;
+        }
+        final int offset = word - base;
+        return offset < length && (words[start + offset] & (1L << index)) != 0;
+    }
+
+    /**
+     * Set the bit with the given index to true.
+     *
+     * @param index Index of the bit (non-negative).
+     */
+    public void set(int index) {
+        set(index, true);
+    }
+
+    /**
+     * Set the bit with the given index to false.
+     *
+     * @param index Index of the bit (non-negative).
+     */
+    public void clear(int index) {
+        set(index, false);
+    }
+
+    /**
+     * Set all bits before the given index to true. Only the sets with a true prefix support this operation,
+     * which simply moves the window forward.
+     *
+     * @param toIndex Index of the first bit NOT to set.
+     */
+    public void setAllBelow(int toIndex) {
+        assert prefix : "only supported for sets with a true prefix";
+        final int word = toIndex >>> 6;
+        if (word > base) {
+            final int dropped = Math.min(word - base, length);
+            start += dropped;
+            length -= dropped;
+            base = word;
+            if (length == 0) {
+                start = 0;
+            }
+        }
+        for (int i = word << 6; i < toIndex; i++) {
+            set(i);
+        }
+    }
+
+    /**
+     * Set the bit with the given index to the given value.
+     *
+     * @param index Index of the bit (non-negative).
+     * @param value New value.
+     */
+    public void set(int index, boolean value) {
+        assert index >= 0;
+        final int word = index >>> 6;
+
+        // make sure the bit is in the window (if it needs to change)
+        if (word < base) {
+            if (value == prefix) {
+                return;
+            }
+            extendFront(word);
+        } else if (word - base >= length) {
+            if (!value) {
+                return;
+            }
+            extendBack(word);
+        }
+
+        // update the bit
+        final int position = start + word - base;
+        if (value) {
+            words[position] |= 1L << index;
+        } else {
+            words[position] &= ~(1L << index);
+        }
+
+        trim();
+    }
+
+    /**
+     * @return Number of bits set to true.
+     */
+    public int cardinality() {
+        int count = prefix ? base << 6 : 0;
+        for (int i = start; i < start + length; i++) {
+            count += Long.bitCount(words[i]);
+        }
+        return count;
+    }
+
+    /**
+     * Find the first bit set to true that occurs on or after the given index.
+     *
+     * @param fromIndex Index to start checking from (inclusive).
+     * @return The index of the next set bit, or -1 if there is no such bit.
+     */
+    public int nextSetBit(int fromIndex) {
+        assert fromIndex >= 0;
+        int word = fromIndex >>> 6;
+        long mask = -1L << fromIndex;
+        if (word < base) {
+            if (prefix) {
+                return fromIndex;
+            }
+            word = base;
+            mask = -1L;
+        }
+        for (int offset = word - base; offset < length; offset++) {
+            final long bits = words[start + offset] & mask;
+            if (bits != 0) {
+                return ((base + offset) << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            mask = -1L;
+        }
+        return -1;
+    }
+
+    /**
+     * Find the first bit set to false that occurs on or after the given index.
+     *
+     * @param fromIndex Index to start checking from (inclusive).
+     * @return The index of the next clear bit.
+     */
+    public int nextClearBit(int fromIndex) {
+        assert fromIndex >= 0;
+        int word = fromIndex >>> 6;
+        long mask = -1L << fromIndex;
+        if (word < base) {
+            if (!prefix) {
+                return fromIndex;
+            }
+            word = base;
+            mask = -1L;
+        }
+        for (int offset = word - base; offset < length; offset++) {
+            final long bits = ~words[start + offset] & mask;
+            if (bits != 0) {
+                return ((base + offset) << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            mask = -1L;
+        }
+        return Math.max(fromIndex, (base + length) << 6);
+    }
+
+    /**
+     * Extend the window backwards, so that it starts from the given word.
+     *
+     * @param word Index of the new first word of the window.
+     */
+    private void extendFront(int word) {
+        final int extra = base - word;
+        if (start < extra) {
+            final int newLength = length + extra;
+            final long[] newWords = new long[Math.max(2 * words.length, newLength)];
+            System.arraycopy(words, start, newWords, extra, length);
+            words = newWords;
+            start = extra;
+        }
+        for (int i = start - extra; i < start; i++) {
+            words[i] = prefixWord;
+        }
+        start -= extra;
+        length += extra;
+        base = word;
+    }
+
+    /**
+     * Extend the window forwards, so that it contains the given word.
+     *
+     * @param word Index of the new last word of the window.
+     */
+    private void extendBack(int word) {
+
+        // an empty window with a false prefix can jump directly to the given word
+        if (length == 0 && !prefix) {
+            start = 0;
+            base = word;
+        }
+
+        // make sure there is enough space after the window, compacting or growing the array
+        final int newLength = word - base + 1;
+        if (start + newLength > words.length) {
+            final long[] newWords = 2 * newLength <= words.length
+                ? words
+                : new long[Math.max(2 * words.length, newLength)];
+            System.arraycopy(words, start, newWords, 0, length);
+            words = newWords;
+            start = 0;
+        }
+
+        // all bits after the window are false
+        for (int i = start + length; i < start + newLength; i++) {
+            words[i] = 0L;
+        }
+        length = newLength;
+    }
+
+    /**
+     * Shrink the window by removing the first words equal to the prefix and the last empty words.
+     */
+    private void trim() {
+        while (length > 0 && words[start] == prefixWord) {
+            start++;
+            base++;
+            length--;
+        }
+        while (length > 0 && words[start + length - 1] == 0L) {
+            length--;
+        }
+        if (length == 0) {
+            start = 0;
+        }
+    }
+
+    // test utility, please do NOT use for the real simulation
+    int _windowLength() {
+        return length;
+    }
+}
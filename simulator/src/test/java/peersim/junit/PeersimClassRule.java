@@ -22,15 +22,26 @@ import peersim.config.Configuration;
 
 import java.util.Properties;
 
+import static peersim.utilities.TimeUnits.HOURS;
+
 /**
  * JUnit {@link org.junit.Rule} that bootstraps PeerSim for testing.
  * This should be used as a {@link org.junit.ClassRule}.
+ * The configuration contains a "topology" protocol (a {@link TestProtocol} placeholder)
+ * which sends its messages with a {@link TestTransport}, and a "churn" control for the topology.
+ * The "fresh_addr_relay" prefix configures a topology protocol with the fresh addr relay model.
  */
 public final class PeersimClassRule extends ExternalResource {
 
 	@SuppressWarnings("WeakerAccess")
 	public static final long DEFAULT_SEED = 0;
 
+	public static final String TOPOLOGY = "topology";
+
+	public static final String CHURN = "churn";
+
+	public static final String FRESH_ADDR_RELAY = "fresh_addr_relay";
+
 	// make sure peersim is initialized only once for test suite
 	private static boolean initialized = false;
 
@@ -51,6 +62,15 @@ public final class PeersimClassRule extends ExternalResource {
 			initialized = true;
 			final Properties properties = new Properties();
 			properties.setProperty("random.seed", Long.toString(seed));
+			properties.setProperty("network.size", "0");
+			properties.setProperty("protocol." + TOPOLOGY, TestProtocol.class.getName());
+			properties.setProperty("protocol." + TOPOLOGY + ".transport", "transport");
+			properties.setProperty("protocol.transport", TestTransport.class.getName());
+			properties.setProperty("control." + CHURN + ".protocol", TOPOLOGY);
+			properties.setProperty("control." + CHURN + ".join_rate", "60");
+			properties.setProperty("control." + CHURN + ".session_length", Integer.toString(HOURS));
+			properties.setProperty("control." + CHURN + ".seeds", "3");
+			properties.setProperty(FRESH_ADDR_RELAY + ".addr_relay", "fresh");
 			Configuration.setConfig(properties);
 		}
 	}
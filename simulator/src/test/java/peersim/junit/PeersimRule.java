@@ -18,7 +18,11 @@
 package peersim.junit;
 
 import org.junit.rules.ExternalResource;
+import peersim.core.CommonState;
 import simulator.bitcoin.core.model.Blocks;
+import simulator.bitcoin.core.model.Transactions;
+import simulator.bitcoin.topology.Connections;
+import simulator.bitcoin.topology.messages.AddressPool;
 
 /**
  * JUnit {@link org.junit.Rule} that bootstraps PeerSim for testing.
@@ -29,6 +33,11 @@ public final class PeersimRule extends ExternalResource {
 	@Override
 	protected void before() {
 		Blocks._init();
+		Transactions._init();
+		AddressPool._init();
+		Connections._init();
+		TestTransport.clear();
+		CommonState.setTime(0);
 	}
 
 	@Override
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package peersim.junit;
+
+import peersim.core.GeneralNode;
+import peersim.core.Node;
+import peersim.core.Protocol;
+
+/**
+ * Factory of {@link Node}s for testing.
+ * PeerSim must be bootstrapped with the {@link PeersimClassRule} before creating any node.
+ */
+public final class TestNodes {
+
+	// prevent class construction
+	private TestNodes() {
+	}
+
+	/**
+	 * Create the given number of nodes, each with a different ID.
+	 *
+	 * @param n Number of nodes.
+	 * @return New nodes.
+	 */
+	public static Node[] create(int n) {
+		// NB: nodes get their IDs when they are cloned from the prototype, as done by PeerSim
+		final Node prototype = new GeneralNode("");
+		final Node[] nodes = new Node[n];
+		for (int i = 0; i < n; i++) {
+			nodes[i] = (Node) prototype.clone();
+		}
+		return nodes;
+	}
+
+	/**
+	 * Create the given number of nodes, each with a different ID and its own copy of the given protocol.
+	 *
+	 * @param n        Number of nodes.
+	 * @param pid      ID of the protocol, configured by the {@link PeersimClassRule}.
+	 * @param protocol Protocol to copy in each node.
+	 * @return New nodes.
+	 */
+	public static Node[] create(int n, int pid, Protocol protocol) {
+		final Node prototype = new ProtocolNode(pid, protocol);
+		final Node[] nodes = new Node[n];
+		for (int i = 0; i < n; i++) {
+			nodes[i] = (Node) prototype.clone();
+		}
+		return nodes;
+	}
+
+	/**
+	 * Node that replaces one of the placeholder protocols with the given one.
+	 */
+	private static final class ProtocolNode extends GeneralNode {
+
+		ProtocolNode(int pid, Protocol protocol) {
+			super("");
+			this.protocol[pid] = protocol;
+		}
+	}
+}
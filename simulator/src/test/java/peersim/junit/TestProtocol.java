@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package peersim.junit;
+
+import peersim.core.Protocol;
+
+/**
+ * Placeholder for the protocols configured by the {@link PeersimClassRule}.
+ * It has no state, so all nodes share the same instance and creating many nodes stays cheap.
+ * The tests that need a real protocol create the nodes with {@link TestNodes#create(int, int, Protocol)}.
+ */
+public final class TestProtocol implements Protocol {
+
+	public TestProtocol(@SuppressWarnings("unused") String prefix) {
+	}
+
+	@Override
+	public Object clone() {
+		return this;
+	}
+}
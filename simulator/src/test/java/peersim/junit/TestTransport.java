@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package peersim.junit;
+
+import peersim.core.Node;
+import peersim.edsim.EDProtocol;
+import peersim.transport.Transport;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * {@link Transport} for testing: the messages are queued in a global FIFO queue
+ * and delivered only when the test calls {@link #deliverAll()}.
+ * The transport has no state, so all nodes share the same instance.
+ */
+public final class TestTransport implements Transport {
+
+	// messages sent and not yet delivered
+	private static final Queue<Message> MESSAGES = new ArrayDeque<>();
+
+	public TestTransport(@SuppressWarnings("unused") String prefix) {
+	}
+
+	/**
+	 * Discard all messages not yet delivered.
+	 */
+	public static void clear() {
+		MESSAGES.clear();
+	}
+
+	/**
+	 * @return Number of messages not yet delivered.
+	 */
+	public static int pending() {
+		return MESSAGES.size();
+	}
+
+	/**
+	 * Deliver all messages, including the ones sent while delivering, in order.
+	 * As done by the PeerSim engine, the messages for the nodes that are not up are dropped.
+	 *
+	 * @return Number of delivered messages.
+	 */
+	public static int deliverAll() {
+		int delivered = 0;
+		while (!MESSAGES.isEmpty()) {
+			final Message message = MESSAGES.poll();
+			if (message.to.isUp()) {
+				final EDProtocol protocol = (EDProtocol) message.to.getProtocol(message.pid);
+				protocol.processEvent(message.to, message.pid, message.content);
+				delivered++;
+			}
+		}
+		return delivered;
+	}
+
+	@Override
+	public void send(Node from, Node to, Object content, int pid) {
+		MESSAGES.add(new Message(to, pid, content));
+	}
+
+	@Override
+	public long getLatency(Node from, Node to) {
+		return 0;
+	}
+
+	@Override
+	public Object clone() {
+		return this;
+	}
+
+	private static final class Message {
+
+		private final Node to;
+		private final int pid;
+		private final Object content;
+
+		Message(Node to, int pid, Object content) {
+			this.to = to;
+			this.pid = pid;
+			this.content = content;
+		}
+	}
+}
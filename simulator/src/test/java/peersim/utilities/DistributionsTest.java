@@ -43,6 +43,8 @@ public final class DistributionsTest {
 	private static final int N = 100000;
 	private static final long[] MEANS_POISSONT = new long[]{1, 5, 10, 100};
 	private static final long[] MEANS_EXPONENTIAL = new long[]{1, 5, 10, 100, 10 * 60 * 1000};
+	private static final double[] SHAPES_PARETO = new double[]{1.5, 2, 3};
+	private static final long MEAN_PARETO = 100;
 
 	@ClassRule
 	public static final PeersimClassRule setup = new PeersimClassRule();
@@ -69,6 +71,17 @@ public final class DistributionsTest {
 		}
 	}
 
+	@Test
+	public void sampleParetoDistribution() throws IOException {
+		for (double shape : SHAPES_PARETO) {
+			final double[] samples = new double[N];
+			for (int i = 0; i < N; i++) {
+				samples[i] = Distributions.nextPareto(MEAN_PARETO, shape);
+			}
+			plot(samples, "Pareto (mean " + MEAN_PARETO + ", shape " + shape + ")", "pareto_" + shape);
+		}
+	}
+
 	private static void plot(double[] samples, String title, String name) throws IOException {
 
 		// make histogram
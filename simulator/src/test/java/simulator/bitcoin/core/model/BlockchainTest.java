@@ -23,9 +23,12 @@ import org.junit.Test;
 import peersim.core.CommonState;
 import peersim.junit.PeersimClassRule;
 import peersim.junit.PeersimRule;
+import simulator.collections.IntList;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import static org.hamcrest.Matchers.containsInAnyOrder;
@@ -44,25 +47,26 @@ public final class BlockchainTest {
     }
 
     private static TransactionsWrapper randomTransactions(int n) {
-        final Transaction[] transactions = IntStream
+        final int[] transactions = IntStream
             .range(0, n)
-            .mapToObj(__ -> Transactions.nextTransaction(1))
-            .toArray(Transaction[]::new);
-        return new TransactionsWrapper(transactions);
+            .map(__ -> Transactions.nextTransaction(1))
+            .toArray();
+        return new TransactionsWrapper(transactions, n);
     }
 
     @Test
     public void testEmptyBlockchain() {
-        final Blockchain blockchain = make(Blocks.GENESIS);
+        final Blockchain blockchain = make(Blocks.getGenesis());
         assertEquals("At the beginning, the number of forks should be 1", 1, blockchain.forksNumber());
-        assertEquals("At the beginning, the longest chain is the genesis", Blocks.GENESIS, blockchain.longestFork());
-        assertArrayEquals(new Block[]{Blocks.GENESIS}, blockchain._forks());
+        assertEquals("At the beginning, the longest chain is the genesis",
+            Blocks.getGenesis(), blockchain.longestFork());
+        assertArrayEquals(new Block[]{Blocks.getGenesis()}, blockchain._forks());
         assertArrayEquals(new int[]{0}, blockchain.forksLengths());
     }
 
     @Test
     public void testBlockchainWithoutForks() {
-        final Block b1 = Blocks.GENESIS;
+        final Block b1 = Blocks.getGenesis();
         final Block b2 = Blocks.nextBlock(b1, randomTransactions(), 1);
         final Block b3 = Blocks.nextBlock(b2, randomTransactions(), 2);
         final Blockchain blockchain = make(b1, b2, b3);
@@ -74,7 +78,7 @@ public final class BlockchainTest {
 
     @Test
     public void testBlockchainWithOneFork() {
-        final Block b1 = Blocks.GENESIS;
+        final Block b1 = Blocks.getGenesis();
         final Block b2 = Blocks.nextBlock(b1, randomTransactions(), 1);
         final Block b3a = Blocks.nextBlock(b2, randomTransactions(), 1);
         final Block b3b = Blocks.nextBlock(b2, randomTransactions(), 1);
@@ -95,7 +99,7 @@ public final class BlockchainTest {
         //	   \
         //		 e <- f
 
-        final Block a = Blocks.GENESIS;
+        final Block a = Blocks.getGenesis();
         final Block b = Blocks.nextBlock(a, randomTransactions(), 1);
         final Block c = Blocks.nextBlock(b, randomTransactions(), 1);
         final Block d = Blocks.nextBlock(c, randomTransactions(), 1);
@@ -116,21 +120,288 @@ public final class BlockchainTest {
         assertArrayEquals(new int[]{0, 2, 3}, blockchain.forksLengths());
 
         // check descendants
-        assertThat(blockchain.descendants(j), containsInAnyOrder(j, k, l));
-        assertThat(blockchain.descendants(c), containsInAnyOrder(c, g, h, i, d, j, k, l));
-        assertThat(blockchain.descendants(a), containsInAnyOrder(a, b, c, d, e, f, g, h, i, j, k, l));
+        assertThat(descendants(blockchain, j), containsInAnyOrder(ids(j, k, l)));
+        assertThat(descendants(blockchain, c), containsInAnyOrder(ids(c, g, h, i, d, j, k, l)));
+        assertThat(descendants(blockchain, a), containsInAnyOrder(ids(a, b, c, d, e, f, g, h, i, j, k, l)));
 
         // check common parents
-        assertSame(a, blockchain.findCommonAncestor(e, l));
-        assertSame(c, blockchain.findCommonAncestor(h, j));
-        assertSame(k, blockchain.findCommonAncestor(k, l));
-        assertSame(a, blockchain.findCommonAncestor(a, g));
+        assertSame(a, Blockchain.findCommonAncestor(e, l));
+        assertSame(c, Blockchain.findCommonAncestor(h, j));
+        assertSame(k, Blockchain.findCommonAncestor(k, l));
+        assertSame(a, Blockchain.findCommonAncestor(a, g));
+    }
+
+    @Test
+    public void testDescendantsLimitAndUnknownBlocks() {
+        final Block a = Blocks.getGenesis();
+        final Block b = Blocks.nextBlock(a, randomTransactions(), 1);
+        final Block c1 = Blocks.nextBlock(b, randomTransactions(), 1);
+        final Block c2 = Blocks.nextBlock(b, randomTransactions(), 1);
+        final Block d = Blocks.nextBlock(c1, randomTransactions(), 1);
+
+        // blocks not received yet are never returned
+        final Blockchain blockchain = make(a, b, c1, d);
+        assertFalse(blockchain.hasBlock(c2.id));
+        assertThat(descendants(blockchain, b), containsInAnyOrder(ids(b, c1, d)));
+
+        // the visit is breadth-first and stops at the limit
+        final IntList result = new IntList();
+        result.add(-1);
+        blockchain.descendants(a, result, 3);
+        assertArrayEquals(new int[]{-1, a.id, b.id, c1.id}, result.toArray());
+    }
+
+    @Test
+    public void testDuplicateBlockNotOnTip() {
+        final Block a = Blocks.getGenesis();
+        final Block b = Blocks.nextBlock(a, randomTransactions(), 1);
+        final Block c = Blocks.nextBlock(b, randomTransactions(), 1);
+        final Blockchain blockchain = make(a, b, c, b);
+        assertEquals("A duplicated block should not create a new fork", 1, blockchain.forksNumber());
+        assertArrayEquals(new Block[]{c}, blockchain._forks());
+    }
+
+    @Test
+    public void testPruneStaleForks() {
+
+        //                 g <- h <- i <- m
+        //               /
+        //  a <- b <- c <- d <- j <- k <- l
+        //	   \
+        //		 e <- f <- n
+
+        final Block a = Blocks.getGenesis();
+        final Block b = Blocks.nextBlock(a, randomTransactions(), 1);
+        final Block c = Blocks.nextBlock(b, randomTransactions(), 1);
+        final Block d = Blocks.nextBlock(c, randomTransactions(), 1);
+        final Block e = Blocks.nextBlock(a, randomTransactions(), 1);
+        final Block f = Blocks.nextBlock(e, randomTransactions(), 1);
+        final Block g = Blocks.nextBlock(c, randomTransactions(), 1);
+        final Block h = Blocks.nextBlock(g, randomTransactions(), 1);
+        final Block i = Blocks.nextBlock(h, randomTransactions(), 1);
+        final Block j = Blocks.nextBlock(d, randomTransactions(), 1);
+        final Block k = Blocks.nextBlock(j, randomTransactions(), 1);
+        final Block l = Blocks.nextBlock(k, randomTransactions(), 1);
+        final Blockchain blockchain = makePruned(2, a, b, c, d, e, f, g, h, i, j, k, l);
+
+        // the fork e <- f is archived as soon as the longest chain reaches i
+        assertEquals(3, blockchain.forksNumber());
+        assertEquals(l, blockchain.longestFork());
+        assertArrayEquals(new Block[]{l, i}, blockchain._forks());
+        assertArrayEquals(new int[]{0, 3, 2}, blockchain.forksLengths());
+
+        // extending an archived fork brings it back
+        final Block n = Blocks.nextBlock(f, randomTransactions(), 1);
+        assertTrue(blockchain.addBlock(n));
+        assertEquals(3, blockchain.forksNumber());
+        assertArrayEquals(new Block[]{l, i, n}, blockchain._forks());
+        assertArrayEquals(new int[]{0, 3, 3}, blockchain.forksLengths());
+
+        // extending an active fork does not create a new one
+        final Block m = Blocks.nextBlock(i, randomTransactions(), 1);
+        assertTrue(blockchain.addBlock(m));
+        assertEquals(3, blockchain.forksNumber());
+        assertArrayEquals(new Block[]{l, m, n}, blockchain._forks());
+    }
+
+    @Test
+    public void testProcessedTransactionsAfterReorg() {
+        final Block a = Blocks.getGenesis();
+        final Block b = Blocks.nextBlock(a, randomTransactions(1), 1);
+        final Block c1 = Blocks.nextBlock(b, randomTransactions(1), 1);
+        final Block c2 = Blocks.nextBlock(b, randomTransactions(1), 1);
+        final Block d2 = Blocks.nextBlock(c2, randomTransactions(1), 1);
+        final int tb = b.transactions.rangeStart(0);
+        final int tc1 = c1.transactions.rangeStart(0);
+        final int tc2 = c2.transactions.rangeStart(0);
+        final int td2 = d2.transactions.rangeStart(0);
+
+        final Blockchain blockchain = make(a, b, c1, c2);
+        assertTrue(blockchain.hasProcessedTransactions(tb));
+        assertTrue(blockchain.hasProcessedTransactions(tc1));
+        assertFalse(blockchain.hasProcessedTransactions(tc2));
+
+        blockchain.addBlock(d2);
+        assertTrue(blockchain.hasProcessedTransactions(tb));
+        assertFalse(blockchain.hasProcessedTransactions(tc1));
+        assertTrue(blockchain.hasProcessedTransactions(tc2));
+        assertTrue(blockchain.hasProcessedTransactions(td2));
+    }
+
+    @Test
+    public void testAncestorsOnLongChains() {
+        final List<Block> blocks = new ArrayList<>(2001);
+        blocks.add(Blocks.getGenesis());
+        for (int i = 0; i < 2000; i++) {
+            // mostly extend one of the last blocks, so that the chains get long
+            final int index = Math.max(0, blocks.size() - 1 - CommonState.r.nextInt(5));
+            blocks.add(Blocks.nextBlock(blocks.get(index), randomTransactions(0), 1));
+        }
+        for (int i = 0; i < 1000; i++) {
+            final Block a = blocks.get(CommonState.r.nextInt(blocks.size()));
+            final Block b = blocks.get(CommonState.r.nextInt(blocks.size()));
+            final Block shortest = a.height <= b.height ? a : b;
+            final Block longest = a.height <= b.height ? b : a;
+            final int height = CommonState.r.nextInt(longest.height + 1);
+            assertSame(naiveAncestor(longest, height), longest.getAncestor(height));
+            assertSame(naiveCommonAncestor(shortest, longest), Blockchain.findCommonAncestor(shortest, longest));
+        }
+    }
+
+    @Test
+    public void testFinalizeBlocks() {
+
+        //  a <- b <- c <- d <- e
+        //        \
+        //         x
+
+        final Block a = Blocks.getGenesis();
+        final Block b = Blocks.nextBlock(a, randomTransactions(), 1);
+        final Block c = Blocks.nextBlock(b, randomTransactions(), 2);
+        final Block d = Blocks.nextBlock(c, randomTransactions(), 3);
+        final Block x = Blocks.nextBlock(b, randomTransactions(), 3);
+        final Block e = Blocks.nextBlock(d, randomTransactions(), 4);
+        final Blockchain blockchain = make(a, b, c, d, x, e);
+        assertEquals(2, blockchain.forksNumber());
+
+        // nothing to do if the tips are not deep enough
+        assertFalse(Blocks.finalizeBlocks(new Block[]{d, e}, 3));
+        assertSame(a, Blocks.getRoot());
+
+        // the new root is the block at depth 1 from the shortest tip
+        assertTrue(Blocks.finalizeBlocks(new Block[]{d, e}, 1));
+        blockchain.onBlocksFinalized();
+        assertSame(c, Blocks.getRoot());
+        assertNull(c.getPrevious());
+        assertTrue(a.archived && b.archived && x.archived);
+        assertFalse(c.archived || d.archived || e.archived);
+        assertEquals(3, Blocks.getArchivedBlocksCount());
+        assertEquals(b.transactions.transactionsNumber, Blocks.getFinalizedTransactionsCount());
+
+        // archived blocks are still known, but not available anymore
+        assertTrue(blockchain.hasBlock(b.id));
+        assertNull(blockchain.getBlock(b.id));
+        assertTrue(blockchain.hasBlock(x.id));
+        assertTrue("A duplicated archived block should be ignored", blockchain.addBlock(x));
+        assertTrue(blockchain.hasProcessedTransactions(b.transactions.rangeStart(0)));
+
+        // the live part of the blockchain keeps working
+        assertEquals(2, blockchain.forksNumber());
+        assertEquals(e, blockchain.longestFork());
+        final Block f = Blocks.nextBlock(e, randomTransactions(), 5);
+        assertTrue(blockchain.addBlock(f));
+        assertEquals(f, blockchain.longestFork());
+        assertSame(c, Blockchain.findCommonAncestor(c, f));
+
+        // the slots of the blocks before the root are dropped, the IDs do not change
+        assertEquals(7, Blocks.getBlocksCount());
+        assertNull(Blocks.getBlock(b.id));
+        assertNull(Blocks.getBlock(x.id));
+        assertSame(c, Blocks.getBlock(c.id));
+        assertSame(f, Blocks.getBlock(f.id));
+        assertTrue(Blocks.finalizeBlocks(new Block[]{f}, 1));
+        assertSame(e, Blocks.getRoot());
+        assertNull(Blocks.getBlock(d.id));
+        assertSame(f, Blocks.getBlock(f.id));
+        assertEquals(7, Blocks.getBlocksCount());
+    }
+
+    @Test
+    public void testRootBlockNotSeen() {
+
+        //  a <- b <- c <- d
+
+        final Block a = Blocks.getGenesis();
+        final Block b = Blocks.nextBlock(a, randomTransactions(), 1);
+        final Block c = Blocks.nextBlock(b, randomTransactions(), 2);
+        final Block d = Blocks.nextBlock(c, randomTransactions(), 3);
+        final Blockchain behind = new Blockchain(a);
+        assertTrue(Blocks.finalizeBlocks(new Block[]{d}, 1));
+        assertSame(c, Blocks.getRoot());
+
+        // the parent of the root is not available anymore, so a node left behind can not attach the root
+        assertFalse(behind.addBlock(c));
+        assertFalse(behind.addBlock(d));
+        assertEquals(a, behind.longestFork());
+
+        // a node that started from the root attaches its descendants
+        final Blockchain joined = new Blockchain(Blocks.getRoot());
+        assertTrue(joined.addBlock(c));
+        assertTrue(joined.addBlock(d));
+        assertEquals(d, joined.longestFork());
+    }
+
+    @Test
+    public void testInitialHeight() {
+        Blocks._init(500000);
+        final Block a = Blocks.getGenesis();
+        assertEquals(500000, a.id);
+        assertEquals(500000, a.height);
+
+        // the blocks mined during the simulation follow the implicit history
+        final Block b = Blocks.nextBlock(a, randomTransactions(), 1);
+        final Block c = Blocks.nextBlock(b, randomTransactions(), 2);
+        assertEquals(500001, b.id);
+        assertEquals(500002, c.height);
+        assertSame(b, Blocks.getBlock(b.id));
+        assertNull(Blocks.getBlock(1234));
+
+        // the history is known by every node, but it is never materialized
+        final Blockchain blockchain = make(a, b, c);
+        assertTrue(blockchain.hasBlock(0));
+        assertTrue(blockchain.hasBlock(499999));
+        assertNull(blockchain.getBlock(499999));
+        assertEquals(c, blockchain.longestFork());
+        assertEquals(1234, Blocks.getAncestorId(c, 1234));
+        assertEquals(b.id, Blocks.getAncestorId(c, b.height));
+    }
+
+    @Test
+    public void testInitialHeightAfterMining() {
+        final Block old = Blocks.nextBlock(Blocks.getGenesis(), randomTransactions(), 1);
+        Blocks._init(10);
+        assertEquals(10, Blocks.getGenesis().height);
+        assertSame(Blocks.getGenesis(), Blocks.getLongestChain());
+        assertEquals(1, Blocks.getBlocksCount());
+        assertNull(Blocks.getBlock(old.id));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeInitialHeight() {
+        Blocks._init(-1);
+    }
+
+    @Test
+    public void testLocator() {
+        Blocks._init(1000);
+        Block tip = Blocks.getGenesis();
+        for (int i = 0; i < 20; i++) {
+            tip = Blocks.nextBlock(tip, randomTransactions(0), 1);
+        }
+
+        // 10 blocks with step 1, then the step doubles until the first block
+        final int[] expected = new int[]{
+            1020, 1019, 1018, 1017, 1016, 1015, 1014, 1013, 1012, 1011,
+            1009, 1005, 997, 981, 949, 885, 757, 501, 0};
+        assertArrayEquals(expected, Blocks.locator(tip));
+
+        // a peer behind on the same chain finds its most recent block in the locator
+        final Blockchain behind = new Blockchain(Blocks.getGenesis());
+        final Block fork = tip.getPrevious().getPrevious();
+        for (int height = 1001; height <= fork.height; height++) {
+            behind.addBlock(fork.getAncestor(height));
+        }
+        assertSame(fork, behind.findFork(Blocks.locator(tip)));
+
+        // a peer that knows nothing falls back to the root
+        final Blockchain empty = new Blockchain(Blocks.getGenesis());
+        assertSame(Blocks.getRoot(), empty.findFork(Blocks.locator(tip)));
     }
 
     @Test
     public void smokeTest() {
         final List<Block> blocks = new ArrayList<>(1001);
-        blocks.add(Blocks.GENESIS);
+        blocks.add(Blocks.getGenesis());
         for (int i = 0; i < 1000; i++) {
             final int index = CommonState.r.nextInt(blocks.size());
             final Block block = Blocks.nextBlock(blocks.get(index), randomTransactions(0), 1);
@@ -140,6 +411,32 @@ public final class BlockchainTest {
         make(blocks.toArray(container));
     }
 
+    private static List<Integer> descendants(Blockchain blockchain, Block block) {
+        final IntList result = new IntList();
+        blockchain.descendants(block, result, Integer.MAX_VALUE);
+        return IntStream.of(result.toArray()).boxed().collect(Collectors.toList());
+    }
+
+    private static Integer[] ids(Block... blocks) {
+        return Arrays.stream(blocks).map(block -> block.id).toArray(Integer[]::new);
+    }
+
+    private static Block naiveAncestor(Block block, int height) {
+        while (block.height > height) {
+            block = block.getPrevious();
+        }
+        return block;
+    }
+
+    private static Block naiveCommonAncestor(Block shortest, Block longest) {
+        longest = naiveAncestor(longest, shortest.height);
+        while (shortest != longest) {
+            shortest = shortest.getPrevious();
+            longest = longest.getPrevious();
+        }
+        return shortest;
+    }
+
     private Blockchain make(Block... blocks) {
         final Blockchain blockchain = new Blockchain(blocks[0]);
         for (int i = 1; i < blocks.length; i++) {
@@ -147,4 +444,12 @@ public final class BlockchainTest {
         }
         return blockchain;
     }
+
+    private Blockchain makePruned(int pruneDepth, Block... blocks) {
+        final Blockchain blockchain = new Blockchain(blocks[0], pruneDepth);
+        for (int i = 1; i < blocks.length; i++) {
+            blockchain.addBlock(blocks[i]);
+        }
+        return blockchain;
+    }
 }
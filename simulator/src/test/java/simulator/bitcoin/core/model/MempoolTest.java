@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.core.model;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import peersim.junit.PeersimClassRule;
+import peersim.junit.PeersimRule;
+import simulator.collections.SlidingBitSet;
+
+import static org.junit.Assert.*;
+
+public final class MempoolTest {
+
+    @ClassRule
+    public static final PeersimClassRule peersimClassRule = new PeersimClassRule();
+
+    @Rule
+    public final PeersimRule peersimRule = new PeersimRule();
+
+    private static TransactionsWrapper wrap(int transaction) {
+        return new TransactionsWrapper(new int[]{transaction}, 1);
+    }
+
+    @Test
+    public void testSelectInArrivalOrder() {
+        final Mempool mempool = new Mempool();
+        final int t0 = Transactions.nextTransaction(1);
+        final int t1 = Transactions.nextTransaction(1);
+        final int t2 = Transactions.nextTransaction(1);
+        mempool.add(t2);
+        mempool.add(t0);
+        mempool.add(t1);
+        mempool.add(t1);
+        assertEquals(3, mempool.size());
+
+        final TransactionsWrapper selected = mempool.select(2);
+        assertEquals(2, selected.transactionsNumber);
+        assertArrayEquals(new int[]{t0, t1}, selected.toArray());
+
+        mempool.remove(t0);
+        mempool.remove(t0);
+        assertEquals(2, mempool.size());
+        assertFalse(mempool.contains(t0));
+    }
+
+    @Test
+    public void testUpdateTipOnReorg() {
+        final int t1 = Transactions.nextTransaction(1);
+        final int t2 = Transactions.nextTransaction(1);
+        final int t3 = Transactions.nextTransaction(1);
+        final int t4 = Transactions.nextTransaction(1);
+        final SlidingBitSet known = new SlidingBitSet(true);
+        known.set(t1);
+        known.set(t2);
+        known.set(t3);
+
+        //  genesis <- a (t1) <- b (t2)
+        //                    \
+        //                     c (t3) <- d (t4)
+        final Block a = Blocks.nextBlock(Blocks.getGenesis(), wrap(t1), 1);
+        final Block b = Blocks.nextBlock(a, wrap(t2), 1);
+        final Block c = Blocks.nextBlock(a, wrap(t3), 1);
+        final Block d = Blocks.nextBlock(c, wrap(t4), 1);
+
+        final Mempool mempool = new Mempool();
+        mempool.add(t1);
+        mempool.add(t2);
+        mempool.add(t3);
+        mempool.updateTip(Blocks.getGenesis(), b, known);
+        assertEquals(1, mempool.size());
+        assertTrue(mempool.contains(t3));
+
+        // t2 goes back to the mempool, t4 is not known so it is simply ignored
+        mempool.updateTip(b, d, known);
+        assertEquals(1, mempool.size());
+        assertTrue(mempool.contains(t2));
+        assertFalse(mempool.contains(t4));
+    }
+}
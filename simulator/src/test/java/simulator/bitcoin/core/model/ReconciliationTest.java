@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.core.model;
+
+import org.junit.Test;
+import simulator.collections.IntList;
+import simulator.collections.SlidingBitSet;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public final class ReconciliationTest {
+
+    private static SlidingBitSet known(int... transactions) {
+        final SlidingBitSet known = new SlidingBitSet(true);
+        for (int id : transactions) {
+            known.set(id);
+        }
+        return known;
+    }
+
+    /**
+     * Run a reconciliation round as done by the protocol: the requester sends its watermark,
+     * the peer replies with a sketch and the requester pushes back the transactions missing to the peer.
+     *
+     * @return Number of transactions the requester was missing.
+     */
+    private static int reconcile(SlidingBitSet requester, SlidingBitSet peer) {
+        final int watermark = Reconciliation.watermark(requester);
+        final int[] sketch = Reconciliation.knownAbove(peer, watermark);
+        final IntList missingRemote = new IntList();
+        final int missingLocal = Reconciliation.difference(requester, watermark, sketch, missingRemote);
+        for (int id : sketch) {
+            requester.set(id);
+        }
+        for (int i = 0; i < missingRemote.size(); i++) {
+            assertFalse(peer.get(missingRemote.get(i)));
+            peer.set(missingRemote.get(i));
+        }
+        return missingLocal;
+    }
+
+    private static void assertSameSets(SlidingBitSet expected, SlidingBitSet actual, int min, int max) {
+        for (int id = min; id < max; id++) {
+            assertEquals("transaction " + id, expected.get(id), actual.get(id));
+        }
+    }
+
+    @Test
+    public void testDifference() {
+        final SlidingBitSet local = known(0, 1, 2, 4, 5, 8);
+        assertEquals(3, Reconciliation.watermark(local));
+
+        final IntList missingRemote = new IntList();
+        final int missingLocal = Reconciliation.difference(local, 3, new int[]{3, 5, 6, 7}, missingRemote);
+        assertEquals(3, missingLocal);
+        assertArrayEquals(new int[]{4, 8}, missingRemote.toArray());
+    }
+
+    @Test
+    public void testKnownAbove() {
+        final SlidingBitSet known = known(0, 1, 2, 4, 7);
+        assertArrayEquals(new int[]{4, 7}, Reconciliation.knownAbove(known, 3));
+        assertArrayEquals(new int[0], Reconciliation.knownAbove(known, 8));
+    }
+
+    @Test
+    public void testCapacity() {
+        assertEquals(1, Reconciliation.capacity(0, 0));
+        assertEquals(11, Reconciliation.capacity(10, 0));
+        assertEquals(3 + 2 + 1, Reconciliation.capacity(8, 11));
+    }
+
+    @Test
+    public void testSameSets() {
+        final SlidingBitSet a = known(0, 1, 2, 3, 5, 6, 9, 12);
+        final SlidingBitSet b = known(0, 1, 4, 6, 7, 12, 13);
+
+        // the transactions below the watermark of the requester are not reconciled...
+        assertEquals(3, reconcile(a, b));
+        assertSameSets(a, b, 4, 20);
+        assertFalse(b.get(2));
+
+        // ... until the peer starts a round with its own watermark
+        assertEquals(2, reconcile(b, a));
+        assertSameSets(a, b, 0, 20);
+        assertEquals(0, reconcile(a, b));
+    }
+
+    @Test
+    public void testSameSetsRandom() {
+        final Random random = new Random(42);
+        for (int round = 0; round < 100; round++) {
+            final SlidingBitSet a = new SlidingBitSet(true);
+            final SlidingBitSet b = new SlidingBitSet(true);
+            final SlidingBitSet union = new SlidingBitSet(true);
+            for (int id = 0; id < 500; id++) {
+                final int owner = random.nextInt(4);
+                if (owner == 0 || owner == 1) {
+                    a.set(id);
+                }
+                if (owner == 0 || owner == 2) {
+                    b.set(id);
+                }
+                if (owner != 3) {
+                    union.set(id);
+                }
+            }
+            if (random.nextBoolean()) {
+                reconcile(a, b);
+                reconcile(b, a);
+            } else {
+                reconcile(b, a);
+                reconcile(a, b);
+            }
+            assertSameSets(union, a, 0, 500);
+            assertSameSets(union, b, 0, 500);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.core.model;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import peersim.junit.PeersimClassRule;
+import peersim.junit.PeersimRule;
+
+import static org.junit.Assert.*;
+
+public final class TransactionsTest {
+
+    @ClassRule
+    public static final PeersimClassRule peersimClassRule = new PeersimClassRule();
+
+    @Rule
+    public final PeersimRule peersimRule = new PeersimRule();
+
+    @Test
+    public void testEmptyStore() {
+        assertEquals(0, Transactions.getTransactionsCount());
+        assertEquals(-1, Transactions.lastTransactionBefore(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testHeapStorage() {
+        checkStorage();
+    }
+
+    @Test
+    public void testOffHeapStorage() {
+        Transactions._init(true);
+        checkStorage();
+    }
+
+    @Test
+    public void testStorageChangesBetweenExperiments() {
+        Transactions.nextTransaction(1);
+        Transactions.enable();
+        Transactions._init(true);
+        assertEquals(0, Transactions.getTransactionsCount());
+        assertFalse(Transactions.isEnabled());
+        checkStorage();
+        Transactions._init(false);
+        checkStorage();
+    }
+
+    private static void checkStorage() {
+        // span more than one chunk
+        final int n = 100000;
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, Transactions.nextTransaction(10L * i));
+        }
+        assertEquals(n, Transactions.getTransactionsCount());
+        for (int i = 0; i < n; i++) {
+            assertEquals(10L * i, Transactions.getTimestamp(i));
+        }
+        assertEquals(-1, Transactions.lastTransactionBefore(-1));
+        assertEquals(0, Transactions.lastTransactionBefore(9));
+        assertEquals(1, Transactions.lastTransactionBefore(10));
+        assertEquals(n - 1, Transactions.lastTransactionBefore(Long.MAX_VALUE));
+    }
+}
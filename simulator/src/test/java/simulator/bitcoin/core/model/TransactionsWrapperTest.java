@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.core.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public final class TransactionsWrapperTest {
+
+    @Test
+    public void testEmpty() {
+        assertEquals(0, TransactionsWrapper.EMPTY.transactionsNumber);
+        assertEquals(0, TransactionsWrapper.EMPTY.rangesNumber());
+        assertArrayEquals(new int[0], TransactionsWrapper.EMPTY.toArray());
+    }
+
+    @Test
+    public void testConsecutiveIdsUseOneRange() {
+        final TransactionsWrapper wrapper = new TransactionsWrapper(new int[]{10, 11, 12, 13, 14}, 5);
+        assertEquals(5, wrapper.transactionsNumber);
+        assertEquals(1, wrapper.rangesNumber());
+        assertEquals(10, wrapper.rangeStart(0));
+        assertEquals(15, wrapper.rangeEnd(0));
+    }
+
+    @Test
+    public void testUnsortedIdsWithDuplicates() {
+        final int[] ids = new int[]{7, 3, 4, 3, 9, 8, 1, 100};
+        final TransactionsWrapper wrapper = new TransactionsWrapper(ids, 7);
+        assertEquals(6, wrapper.transactionsNumber);
+        assertEquals(3, wrapper.rangesNumber());
+        assertArrayEquals(new int[]{1, 3, 4, 7, 8, 9}, wrapper.toArray());
+        assertArrayEquals(new int[]{7, 3, 4, 3, 9, 8, 1, 100}, ids);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.core.model;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public final class TrickleQueueTest {
+
+    @Test
+    public void testSkipSender() {
+        final TrickleQueue queue = new TrickleQueue();
+        queue.add(10, 1);
+        queue.add(11, TrickleQueue.NO_SOURCE);
+        queue.add(12, 2);
+        queue.add(13, 1);
+        assertEquals(4, queue.size());
+        assertArrayEquals(new int[]{10, 11, 12, 13}, queue.toArray());
+
+        // peers that sent some transactions do not get them back
+        assertArrayEquals(new int[]{11, 12}, queue.toArray(1));
+        assertArrayEquals(new int[]{10, 11, 13}, queue.toArray(2));
+
+        // peers that did not send any transaction share the full batch
+        assertNull(queue.toArray(3));
+    }
+
+    @Test
+    public void testAllFromSender() {
+        final TrickleQueue queue = new TrickleQueue();
+        queue.add(10, 1);
+        queue.add(11, 1);
+        assertEquals(0, queue.toArray(1).length);
+        assertNull(queue.toArray(TrickleQueue.NO_SOURCE));
+    }
+
+    @Test
+    public void testCopyAndClear() {
+        final TrickleQueue queue = new TrickleQueue();
+        queue.add(10, 1);
+        queue.add(11, 2);
+        queue.add(12, 3);
+
+        final TrickleQueue copy = new TrickleQueue(queue);
+        queue.clear();
+        queue.add(20, 2);
+        assertTrue(new TrickleQueue().isEmpty());
+        assertArrayEquals(new int[]{20}, queue.toArray());
+        assertArrayEquals(new int[]{10, 12}, copy.toArray(2));
+        copy.add(13, 2);
+        assertArrayEquals(new int[]{10, 11, 12, 13}, copy.toArray());
+        assertArrayEquals(new int[]{10, 12}, copy.toArray(2));
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.topology;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+import peersim.core.Node;
+import peersim.junit.PeersimClassRule;
+import peersim.junit.TestNodes;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public final class AddressManagerTest {
+
+    @ClassRule
+    public static final PeersimClassRule peersimClassRule = new PeersimClassRule();
+
+    @Test
+    public void testAddWithoutDuplicates() {
+        final Node[] nodes = TestNodes.create(3);
+        final AddressManager addresses = new AddressManager(20480, 42);
+        assertTrue(addresses.add(nodes[0]));
+        assertTrue(addresses.add(nodes[1]));
+        assertFalse(addresses.add(nodes[0]));
+        assertEquals(2, addresses.size());
+        assertTrue(addresses.contains(nodes[1]));
+        assertFalse(addresses.contains(nodes[2]));
+    }
+
+    @Test
+    public void testGoodMovesToTried() {
+        final Node[] nodes = TestNodes.create(2);
+        final AddressManager addresses = new AddressManager(20480, 42);
+        addresses.add(nodes[0]);
+        addresses.good(nodes[0]);
+        addresses.good(nodes[1]);
+        assertEquals(0, addresses.newAddresses().size());
+        assertEquals(2, addresses.triedAddresses().size());
+        assertFalse(addresses.add(nodes[0]));
+        assertEquals(2, addresses.size());
+    }
+
+    @Test
+    public void testRemove() {
+        final Node[] nodes = TestNodes.create(3);
+        final AddressManager addresses = new AddressManager(20480, 42);
+        addresses.add(nodes[0]);
+        addresses.good(nodes[1]);
+        assertTrue(addresses.remove(nodes[0]));
+        assertTrue(addresses.remove(nodes[1]));
+        assertFalse(addresses.remove(nodes[2]));
+        assertEquals(0, addresses.size());
+        assertFalse(addresses.contains(nodes[0]));
+        assertFalse(addresses.contains(nodes[1]));
+
+        // the slots are free again
+        assertTrue(addresses.add(nodes[0]));
+        addresses.good(nodes[1]);
+        assertEquals(2, addresses.size());
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        final Node[] nodes = TestNodes.create(5000);
+        final AddressManager addresses = new AddressManager(320, 42);
+        assertEquals(320, addresses.capacity());
+        for (Node node : nodes) {
+            addresses.add(node);
+            assertTrue(addresses.newAddresses().size() <= 256);
+        }
+        for (int i = 0; i < 1000; i++) {
+            addresses.good(nodes[i]);
+            assertTrue(addresses.triedAddresses().size() <= 64);
+            assertTrue(addresses.newAddresses().size() <= 256);
+        }
+        assertTrue(addresses.size() <= addresses.capacity());
+
+        // the latest address is always stored
+        assertTrue(addresses.contains(nodes[999]));
+    }
+
+    @Test
+    public void testKeepStoredAddresses() {
+        final Node[] nodes = TestNodes.create(300);
+        final AddressManager addresses = new AddressManager(20480, 42);
+        for (Node node : nodes) {
+            assertTrue(addresses.add(node));
+        }
+        for (Node node : nodes) {
+            assertTrue(addresses.contains(node));
+        }
+    }
+
+    @Test
+    public void testDropWhenBucketIsFull() {
+        final Node[] nodes = TestNodes.create(5000);
+        final AddressManager addresses = new AddressManager(320, 42);
+        int added = 0;
+        while (addresses.add(nodes[added])) {
+            added++;
+        }
+
+        // the bucket of the new address is full, but the table is not: the old addresses are kept
+        assertTrue(addresses.newAddresses().size() < 256);
+        assertFalse(addresses.contains(nodes[added]));
+        for (int i = 0; i < added; i++) {
+            assertTrue(addresses.contains(nodes[i]));
+        }
+    }
+
+    @Test
+    public void testCopy() {
+        final Node[] nodes = TestNodes.create(100);
+        final AddressManager addresses = new AddressManager(20480, 42);
+        for (Node node : nodes) {
+            addresses.add(node);
+        }
+        addresses.good(nodes[0]);
+        // NB: with the same salt, all addresses are placed in the same slots
+        final AddressManager copy = new AddressManager(addresses, 42);
+        assertEquals(addresses.size(), copy.size());
+        assertTrue(copy.triedAddresses().contains(nodes[0]));
+        copy.good(nodes[1]);
+        assertFalse(addresses.triedAddresses().contains(nodes[1]));
+    }
+
+    @Test
+    public void testSample() {
+        final Node[] nodes = TestNodes.create(50);
+        final AddressManager addresses = new AddressManager(20480, 42);
+        for (Node node : nodes) {
+            addresses.add(node);
+        }
+        for (int i = 0; i < 20; i++) {
+            addresses.good(nodes[i]);
+        }
+        final Random random = new Random(42);
+        for (int k = 0; k <= addresses.size(); k++) {
+            final Node[] sample = addresses.sample(k, random);
+            final Set<Node> distinct = new HashSet<>();
+            for (Node node : sample) {
+                assertTrue(addresses.contains(node));
+                distinct.add(node);
+            }
+            assertEquals(k, distinct.size());
+        }
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.topology;
+
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import peersim.config.Configuration;
+import peersim.core.CommonState;
+import peersim.core.Fallible;
+import peersim.core.Node;
+import peersim.junit.PeersimClassRule;
+import peersim.junit.PeersimRule;
+import peersim.junit.TestNodes;
+import peersim.junit.TestTransport;
+import simulator.bitcoin.topology.events.PingTimeEvent;
+import simulator.bitcoin.topology.messages.AddrMessage;
+import simulator.bitcoin.topology.messages.AddressPool;
+import simulator.bitcoin.topology.messages.PongMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static peersim.utilities.TimeUnits.MINUTES;
+
+public final class BitcoinTopologyTest {
+
+    @ClassRule
+    public static final PeersimClassRule peersimClassRule = new PeersimClassRule();
+
+    @Rule
+    public final PeersimRule peersimRule = new PeersimRule();
+
+    private int pid;
+
+    @Before
+    public void setUp() {
+        pid = Configuration.lookupPid(PeersimClassRule.TOPOLOGY);
+    }
+
+    private Node[] nodes(int n) {
+        return nodes(n, "protocol." + PeersimClassRule.TOPOLOGY);
+    }
+
+    private Node[] nodes(int n, String prefix) {
+        return TestNodes.create(n, pid, new BitcoinTopology(prefix));
+    }
+
+    private BitcoinTopology topology(Node node) {
+        return (BitcoinTopology) node.getProtocol(pid);
+    }
+
+    private void connect(Node from, Node to) {
+        TestTopologies.connect(from, to, pid);
+    }
+
+    /**
+     * Remove the given node from the network, as done by the churn.
+     * NB: the connections must be closed before killing the node, which drops the state of its protocols.
+     */
+    private void leave(Node node) {
+        topology(node).disconnectAll(node, pid);
+        assertEquals(0, topology(node).degree());
+        node.setFailState(Fallible.DEAD);
+        AddressPool.release(node);
+        TestTransport.deliverAll();
+    }
+
+    /**
+     * Each neighbour must be found at its index, and must have a connection back to the node.
+     */
+    private void assertConsistent(Node node) {
+        final BitcoinTopology topology = topology(node);
+        assertEquals(topology.degree(), topology.degreeOutgoing() + topology.degreeIncoming());
+        for (int i = 0; i < topology.degree(); i++) {
+            final Node neighbour = topology.getNeighbor(i);
+            assertEquals(i, topology.getIndexOfNeighbour(neighbour));
+            assertTrue(topology(neighbour).contains(node));
+        }
+    }
+
+    private List<Node> neighbours(Node node) {
+        final List<Node> neighbours = new ArrayList<>();
+        for (int i = 0; i < topology(node).degree(); i++) {
+            neighbours.add(topology(node).getNeighbor(i));
+        }
+        return neighbours;
+    }
+
+    /**
+     * @return Number of addresses waiting to be sent on each connection of the given node.
+     */
+    private int[] queuedAddresses(Node node) {
+        final BitcoinTopology topology = topology(node);
+        final int[] queued = new int[topology.degree()];
+        for (int i = 0; i < queued.length; i++) {
+            queued[i] = Connections.getQueuedAddresses(topology.getConnection(i));
+        }
+        return queued;
+    }
+
+    /**
+     * Create a hub with an incoming connection from each other node.
+     */
+    private Node[] star(int n) {
+        return star(n, "protocol." + PeersimClassRule.TOPOLOGY);
+    }
+
+    private Node[] star(int n, String prefix) {
+        final Node[] nodes = nodes(n, prefix);
+        for (int i = 1; i < n; i++) {
+            connect(nodes[i], nodes[0]);
+            for (Node node : nodes) {
+                assertConsistent(node);
+            }
+        }
+        assertEquals(n - 1, topology(nodes[0]).degreeIncoming());
+        return nodes;
+    }
+
+    /**
+     * Let the hub open two outgoing connections to nodes which have other connections.
+     */
+    private void addOutgoing(Node hub) {
+        final Node[] others = nodes(3);
+        connect(others[1], others[0]);
+        connect(others[2], others[0]);
+        connect(hub, others[1]);
+        connect(hub, others[2]);
+        assertTrue(topology(hub).degreeOutgoing() >= 2);
+    }
+
+    @Test
+    public void testConnect() {
+        final Node[] nodes = nodes(2);
+        connect(nodes[0], nodes[1]);
+        assertEquals(1, topology(nodes[0]).degreeOutgoing());
+        assertEquals(0, topology(nodes[0]).degreeIncoming());
+        assertEquals(0, topology(nodes[1]).degreeOutgoing());
+        assertEquals(1, topology(nodes[1]).degreeIncoming());
+        assertConsistent(nodes[0]);
+        assertConsistent(nodes[1]);
+    }
+
+    @Test
+    public void testRemoveIncomingNeighbour() {
+        final Node[] nodes = star(7);
+        final Node hub = nodes[0];
+        addOutgoing(hub);
+
+        // the last incoming connection takes the place of the removed one
+        final BitcoinTopology topology = topology(hub);
+        final Node removed = topology.getNeighbor(topology.degreeOutgoing());
+        final List<Node> others = neighbours(hub);
+        others.remove(removed);
+        leave(removed);
+
+        assertFalse(topology.contains(removed));
+        assertEquals(-1, topology.getIndexOfNeighbour(removed));
+        for (Node other : others) {
+            assertTrue(topology.contains(other));
+        }
+        assertConsistent(hub);
+    }
+
+    @Test
+    public void testRemoveOutgoingNeighbour() {
+        final Node[] nodes = star(7);
+        final Node hub = nodes[0];
+        addOutgoing(hub);
+
+        // the last outgoing connection takes the place of the removed one
+        final Node removed = topology(hub).getNeighbor(0);
+        leave(removed);
+        assertFalse(topology(hub).contains(removed));
+        assertConsistent(hub);
+        for (Node node : neighbours(hub)) {
+            assertConsistent(node);
+        }
+    }
+
+    @Test
+    public void testDisconnectAll() {
+        final Node[] nodes = star(7);
+        leave(nodes[0]);
+        for (int i = 1; i < nodes.length; i++) {
+            assertFalse(topology(nodes[i]).contains(nodes[0]));
+            assertConsistent(nodes[i]);
+        }
+    }
+
+    @Test
+    public void testPong() {
+        final Node[] nodes = nodes(2);
+        connect(nodes[0], nodes[1]);
+
+        CommonState.setTime(5 * MINUTES);
+        topology(nodes[0]).processEvent(nodes[0], pid, new PongMessage(nodes[1]));
+        final int index = topology(nodes[0]).getIndexOfNeighbour(nodes[1]);
+        assertEquals(5 * MINUTES, Connections.getLastPong(topology(nodes[0]).getConnection(index)));
+    }
+
+    @Test
+    public void testLatePong() {
+        final Node[] nodes = nodes(3);
+        connect(nodes[0], nodes[1]);
+        connect(nodes[0], nodes[2]);
+        leave(nodes[1]);
+
+        // the pong was sent before the connection was closed
+        topology(nodes[0]).processEvent(nodes[0], pid, new PongMessage(nodes[1]));
+        assertEquals(1, topology(nodes[0]).degree());
+        assertConsistent(nodes[0]);
+    }
+
+    @Test
+    public void testPongTimeouts() {
+        final Node[] nodes = star(7);
+        final Node hub = nodes[0];
+        final BitcoinTopology topology = topology(hub);
+        final int degree = topology.degree();
+
+        // only one neighbour in the middle replies in time
+        final Node alive = topology.getNeighbor(degree / 2);
+        CommonState.setTime(21 * MINUTES);
+        topology.processEvent(hub, pid, new PongMessage(alive));
+
+        // all the other neighbours are removed, including the ones next to each other
+        final List<Node> removed = neighbours(hub);
+        removed.remove(alive);
+        topology.processEvent(hub, pid, PingTimeEvent.INSTANCE);
+        assertEquals(1, topology.degree());
+        assertTrue(topology.contains(alive));
+        assertEquals(degree - 1, topology.nodesRemovedForPongTimeout());
+        for (Node node : removed) {
+            assertFalse(topology(node).contains(hub));
+        }
+
+        // the pongs of the removed neighbours arrive too late
+        TestTransport.deliverAll();
+        assertEquals(1, topology.degree());
+        assertConsistent(hub);
+    }
+
+    @Test
+    public void testRelayFreshAddress() {
+        final Node hub = star(7, PeersimClassRule.FRESH_ADDR_RELAY)[0];
+
+        // the address was advertised at the beginning of the simulation
+        final Node[] others = nodes(2);
+        connect(others[0], others[1]);
+        final AddrMessage message = AddressPool.single(others[1], 0);
+
+        // the address is relayed to 2 neighbours only
+        CommonState.setTime(9 * MINUTES);
+        final int[] before = queuedAddresses(hub);
+        topology(hub).processEvent(hub, pid, message);
+        final int[] after = queuedAddresses(hub);
+        int targets = 0;
+        for (int i = 0; i < before.length; i++) {
+            assertTrue(after[i] == before[i] || after[i] == before[i] + 1);
+            targets += after[i] - before[i];
+        }
+        assertEquals(2, targets);
+
+        // the targets already know the address, so it is not relayed again
+        topology(hub).processEvent(hub, pid, message);
+        assertArrayEquals(after, queuedAddresses(hub));
+    }
+
+    @Test
+    public void testDoNotRelayOldAddress() {
+        final Node hub = star(7, PeersimClassRule.FRESH_ADDR_RELAY)[0];
+        final Node[] others = nodes(2);
+        connect(others[0], others[1]);
+
+        // the address was advertised more than 10 minutes ago
+        CommonState.setTime(11 * MINUTES);
+        final int[] before = queuedAddresses(hub);
+        topology(hub).processEvent(hub, pid, AddressPool.single(others[1], 0));
+        assertArrayEquals(before, queuedAddresses(hub));
+    }
+
+    @Test
+    public void testLegacyRelay() {
+        final Node hub = star(7)[0];
+        final Node[] others = nodes(2);
+        connect(others[0], others[1]);
+        final AddrMessage message = AddressPool.single(others[1], 0);
+
+        // the first time, the address is only remembered for the first 2 neighbours, even if it is old
+        CommonState.setTime(11 * MINUTES);
+        final int[] before = queuedAddresses(hub);
+        topology(hub).processEvent(hub, pid, message);
+        assertArrayEquals(before, queuedAddresses(hub));
+
+        // the second time, it is relayed to them
+        topology(hub).processEvent(hub, pid, message);
+        final int[] after = queuedAddresses(hub);
+        for (int i = 0; i < before.length; i++) {
+            assertEquals(i < 2 ? before[i] + 1 : before[i], after[i]);
+        }
+    }
+
+    @Test
+    public void testPurgeDeadPeers() {
+        final Node[] nodes = nodes(2);
+        connect(nodes[0], nodes[1]);
+
+        // the node knows some addresses of nodes that left the network
+        final Node[] dead = nodes(3);
+        for (Node node : dead) {
+            topology(nodes[0]).addNeighbor(node);
+            node.setFailState(Fallible.DEAD);
+        }
+        assertEquals(4, topology(nodes[0]).peers());
+
+        // no node to connect to: the whole table is visited and the dead peers are purged
+        topology(nodes[0]).onCheckOutgoingConnections(nodes[0], pid);
+        assertEquals(0, TestTransport.pending());
+        assertEquals(1, topology(nodes[0]).peers());
+        assertEquals(1, topology(nodes[0]).degree());
+    }
+
+    @Test
+    public void testSkipDeadPeers() {
+        // NB: the table is sampled randomly, so repeat the test with different tables
+        for (int round = 0; round < 10; round++) {
+            final Node[] nodes = nodes(2);
+            final Node[] dead = nodes(20);
+            for (Node node : dead) {
+                topology(nodes[0]).addNeighbor(node);
+                node.setFailState(Fallible.DEAD);
+            }
+            topology(nodes[0]).addNeighbor(nodes[1]);
+
+            // the node connects to the only peer still online at the first attempt
+            // NB: an attempt to a dead peer would never complete, since the timeouts are not simulated
+            topology(nodes[0]).onCheckOutgoingConnections(nodes[0], pid);
+            TestTransport.deliverAll();
+            assertTrue(topology(nodes[0]).contains(nodes[1]));
+            assertEquals(1, topology(nodes[0]).degree());
+        }
+    }
+}
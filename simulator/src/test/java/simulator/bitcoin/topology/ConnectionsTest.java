@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.topology;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import peersim.core.Node;
+import peersim.junit.PeersimClassRule;
+import peersim.junit.PeersimRule;
+import peersim.junit.TestNodes;
+import simulator.collections.IntList;
+
+import static org.junit.Assert.*;
+
+public final class ConnectionsTest {
+
+    @ClassRule
+    public static final PeersimClassRule peersimClassRule = new PeersimClassRule();
+
+    @Rule
+    public final PeersimRule peersimRule = new PeersimRule();
+
+    private static int open(Node neighbour) {
+        return Connections.open(neighbour, 10);
+    }
+
+    private static int[] drain(int connection) {
+        final IntList addresses = new IntList();
+        Connections.drainAddresses(connection, addresses, new IntList());
+        return addresses.toArray();
+    }
+
+    @Test
+    public void testOpenAndClose() {
+        final Node[] nodes = TestNodes.create(2);
+        final int first = open(nodes[0]);
+        final int second = open(nodes[1]);
+        assertTrue(first != second);
+        assertEquals(2, Connections.size());
+        assertSame(nodes[1], Connections.getNeighbour(second));
+        assertEquals(nodes[1].getID(), Connections.getNeighbourId(second));
+        assertEquals(10, Connections.getLastPong(second));
+        Connections.setLastPong(second, 20);
+        assertEquals(20, Connections.getLastPong(second));
+        assertEquals(10, Connections.getLastPong(first));
+
+        // the IDs of the closed connections are reused
+        Connections.close(first);
+        assertEquals(1, Connections.size());
+        assertEquals(first, open(nodes[1]));
+    }
+
+    @Test
+    public void testQueues() {
+        final Node[] nodes = TestNodes.create(2);
+        final int first = open(nodes[0]);
+        final int second = open(nodes[1]);
+        for (int i = 0; i < 100; i++) {
+            Connections.enqueueAddress(i % 2 == 0 ? first : second, i, 0);
+        }
+        assertEquals(50, Connections.getQueuedAddresses(first));
+        final int[] drained = drain(first);
+        assertEquals(50, drained.length);
+        for (int i = 0; i < drained.length; i++) {
+            assertEquals(2 * i, drained[i]);
+        }
+        assertEquals(0, Connections.getQueuedAddresses(first));
+        assertEquals(0, drain(first).length);
+
+        // the entries of the drained queue are reused
+        Connections.enqueueAddress(first, 7, 0);
+        Connections.enqueueAddress(second, 8, 0);
+        assertArrayEquals(new int[]{7}, drain(first));
+        assertEquals(51, Connections.getQueuedAddresses(second));
+        assertEquals(8, drain(second)[50]);
+    }
+
+    @Test
+    public void testCopy() {
+        final Node[] nodes = TestNodes.create(1);
+        final int original = open(nodes[0]);
+        Connections.enqueueAddress(original, 1, 10);
+        final int copy = Connections.copy(original);
+        Connections.enqueueAddress(copy, 2, 20);
+        assertSame(nodes[0], Connections.getNeighbour(copy));
+        assertArrayEquals(new int[]{1}, drain(original));
+
+        // the timestamps are copied with the addresses
+        final IntList addresses = new IntList();
+        final IntList times = new IntList();
+        Connections.drainAddresses(copy, addresses, times);
+        assertArrayEquals(new int[]{1, 2}, addresses.toArray());
+        assertArrayEquals(new int[]{10, 20}, times.toArray());
+    }
+
+    @Test
+    public void testCloseReleasesQueue() {
+        final Node[] nodes = TestNodes.create(2);
+        final int first = open(nodes[0]);
+        Connections.enqueueAddress(first, 1, 0);
+        Connections.close(first);
+        final int second = open(nodes[1]);
+        assertEquals(first, second);
+        assertEquals(0, Connections.getQueuedAddresses(second));
+        assertEquals(0, drain(second).length);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.topology;
+
+import peersim.core.Node;
+import peersim.junit.TestTransport;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Utilities to build the overlay of the {@link BitcoinTopology} protocol in the tests.
+ */
+public final class TestTopologies {
+
+    // prevent class construction
+    private TestTopologies() {
+    }
+
+    /**
+     * Let the first node open a connection to the second one, then deliver all messages.
+     * NB: the nodes gossip their addresses, so they may open more connections on their own.
+     *
+     * @param from Node that opens the connection.
+     * @param to   Node that accepts the connection.
+     * @param pid  ID of the topology protocol.
+     */
+    public static void connect(Node from, Node to, int pid) {
+        final BitcoinTopology fromTopology = (BitcoinTopology) from.getProtocol(pid);
+        fromTopology.addNeighbor(to);
+        fromTopology.onCheckOutgoingConnections(from, pid);
+        TestTransport.deliverAll();
+        assertTrue(fromTopology.contains(to));
+        assertTrue(((BitcoinTopology) to.getProtocol(pid)).contains(from));
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.topology.controls;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import peersim.config.Configuration;
+import peersim.core.CommonState;
+import peersim.core.Network;
+import peersim.core.Node;
+import peersim.junit.PeersimClassRule;
+import peersim.junit.PeersimRule;
+import peersim.junit.TestNodes;
+import peersim.junit.TestTransport;
+import simulator.bitcoin.topology.BitcoinTopology;
+import simulator.bitcoin.topology.TestTopologies;
+import simulator.bitcoin.topology.messages.AddressPool;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static peersim.utilities.NodeUtilities.key;
+import static peersim.utilities.TimeUnits.HOURS;
+import static peersim.utilities.TimeUnits.MINUTES;
+
+public final class ChurnControlTest {
+
+    @ClassRule
+    public static final PeersimClassRule peersimClassRule = new PeersimClassRule();
+
+    @Rule
+    public final PeersimRule peersimRule = new PeersimRule();
+
+    private int pid;
+
+    @Before
+    public void setUp() {
+        pid = Configuration.lookupPid(PeersimClassRule.TOPOLOGY);
+        Network.reset();
+        Network.prototype = TestNodes.create(1, pid, new BitcoinTopology("protocol." + PeersimClassRule.TOPOLOGY))[0];
+    }
+
+    /**
+     * Remove the nodes while the global stores of the topology are still valid.
+     */
+    @After
+    public void tearDown() {
+        Network.reset();
+    }
+
+    private BitcoinTopology topology(Node node) {
+        return (BitcoinTopology) node.getProtocol(pid);
+    }
+
+    /**
+     * Create the initial network: each node connects to the 3 previous ones.
+     */
+    private Node[] initialNodes(int n) {
+        final Node[] nodes = new Node[n];
+        for (int i = 0; i < n; i++) {
+            nodes[i] = (Node) Network.prototype.clone();
+            Network.add(nodes[i]);
+            for (int j = Math.max(0, i - 3); j < i; j++) {
+                if (!topology(nodes[i]).contains(nodes[j])) {
+                    TestTopologies.connect(nodes[i], nodes[j], pid);
+                }
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Run the control every minute up to the given time, delivering the messages in between.
+     * The network must be consistent after each execution.
+     */
+    private void run(ChurnControl control, long end) {
+        for (long time = CommonState.getTime(); time <= end; time += MINUTES) {
+            CommonState.setTime(time);
+            control.execute();
+            assertNetworkConsistent();
+            TestTransport.deliverAll();
+        }
+    }
+
+    /**
+     * The network contains only online nodes, all connections are between online nodes and symmetric.
+     */
+    private void assertNetworkConsistent() {
+        for (int i = 0; i < Network.size(); i++) {
+            final Node node = Network.get(i);
+            assertTrue(node.isUp());
+            assertEquals(i, node.getIndex());
+            for (int j = 0; j < topology(node).degree(); j++) {
+                final Node neighbour = topology(node).getNeighbor(j);
+                assertNotNull(neighbour);
+                assertTrue(neighbour.isUp());
+                assertTrue(topology(neighbour).contains(node));
+            }
+        }
+    }
+
+    @Test
+    public void testJoinAndLeave() {
+        final Node[] initial = initialNodes(10);
+        final ChurnControl control = new ChurnControl("control." + PeersimClassRule.CHURN);
+        run(control, 2 * HOURS);
+
+        // about 60 nodes join per hour and the sessions last 1 hour on average
+        assertTrue(control.joinedNodes() > 0);
+        assertTrue(control.leftNodes() > 0);
+        assertEquals(initial.length + control.joinedNodes() - control.leftNodes(), Network.size());
+
+        // the new nodes learn some addresses from the nodes online when they join
+        final Set<Node> initialSet = new HashSet<>();
+        for (Node node : initial) {
+            initialSet.add(node);
+        }
+        for (int i = 0; i < Network.size(); i++) {
+            if (!initialSet.contains(Network.get(i))) {
+                assertTrue(topology(Network.get(i)).peers() > 0);
+            }
+        }
+    }
+
+    @Test
+    public void testLeave() {
+        final Node[] initial = initialNodes(10);
+        final ChurnControl control = new ChurnControl("control." + PeersimClassRule.CHURN);
+        run(control, 3 * HOURS);
+
+        // the nodes that left have no connections and their addresses are released
+        int left = 0;
+        for (Node node : initial) {
+            if (!node.isUp()) {
+                left++;
+                assertEquals(0, topology(node).degree());
+                assertNull(AddressPool.decode(key(node)));
+            } else {
+                assertSame(node, Network.get(node.getIndex()));
+            }
+        }
+        assertTrue(left > 0);
+        assertTrue(left <= control.leftNodes());
+    }
+}
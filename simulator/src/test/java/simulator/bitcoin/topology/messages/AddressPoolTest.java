@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.topology.messages;
+
+import org.junit.ClassRule;
+import org.junit.Rule;
+import org.junit.Test;
+import peersim.core.Fallible;
+import peersim.core.Node;
+import peersim.junit.PeersimClassRule;
+import peersim.junit.PeersimRule;
+import peersim.junit.TestNodes;
+import simulator.collections.IntList;
+
+import static org.junit.Assert.*;
+
+public final class AddressPoolTest {
+
+    @ClassRule
+    public static final PeersimClassRule peersimClassRule = new PeersimClassRule();
+
+    @Rule
+    public final PeersimRule peersimRule = new PeersimRule();
+
+    private static void assertContent(Node[] expected, AddrMessage message) {
+        assertEquals(expected.length, message.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertSame(expected[i], message.get(i));
+            assertEquals(expected[i].getID(), message.getId(i));
+        }
+    }
+
+    @Test
+    public void testSingleIsShared() {
+        final Node[] nodes = TestNodes.create(2);
+        final AddrMessage message = AddressPool.single(nodes[0], 0);
+        assertContent(new Node[]{nodes[0]}, message);
+        assertSame(message, AddressPool.single(nodes[0], 0));
+        assertNotSame(message, AddressPool.single(nodes[1], 0));
+
+        // a new advertisement of the same address needs a new message
+        final AddrMessage newer = AddressPool.single(nodes[0], 60);
+        assertNotSame(message, newer);
+        assertEquals(0, message.getTime(0));
+        assertEquals(60, newer.getTime(0));
+        assertSame(newer, AddressPool.single(nodes[0], 60));
+    }
+
+    @Test
+    public void testBatches() {
+        final Node[] nodes = TestNodes.create(2500);
+        final AddrMessage[] messages = new AddrMessage[100];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = AddressPool.batch(0, nodes);
+        }
+        // NB: older messages are not affected by the new ones, even when a new chunk is started
+        for (AddrMessage message : messages) {
+            assertContent(nodes, message);
+        }
+        assertContent(new Node[0], AddressPool.batch(0));
+    }
+
+    @Test
+    public void testBatchFromIds() {
+        final Node[] nodes = TestNodes.create(3);
+        final IntList ids = new IntList();
+        final IntList times = new IntList();
+        for (int i = 0; i < nodes.length; i++) {
+            ids.add(AddressPool.encode(nodes[i]));
+            times.add(10 * i);
+        }
+        final AddrMessage message = AddressPool.batch(ids, times, 1, 3);
+        assertContent(new Node[]{nodes[1], nodes[2]}, message);
+        assertEquals(10, message.getTime(0));
+        assertEquals(20, message.getTime(1));
+        assertSame(AddressPool.single(nodes[0], 0), AddressPool.batch(ids, times, 0, 1));
+    }
+
+    @Test
+    public void testBatchBiggerThanChunk() {
+        final Node[] nodes = TestNodes.create(100000);
+        assertContent(nodes, AddressPool.batch(0, nodes));
+    }
+
+    @Test
+    public void testRelease() {
+        final Node[] nodes = TestNodes.create(3);
+        final AddrMessage message = AddressPool.batch(0, nodes);
+        final AddrMessage single = AddressPool.single(nodes[1], 0);
+        nodes[1].setFailState(Fallible.DEAD);
+        AddressPool.release(nodes[1]);
+
+        // the address is still carried by the messages, but it can not be decoded anymore
+        assertEquals(nodes[1].getID(), message.getId(1));
+        assertNull(message.get(1));
+        assertNull(single.get(0));
+        assertSame(nodes[0], message.get(0));
+        assertSame(nodes[2], message.get(2));
+
+        // a departed node is not stored again, eg. when it is still in the tables of known peers
+        assertEquals(nodes[1].getID(), AddressPool.encode(nodes[1]));
+        assertNull(AddressPool.decode(AddressPool.encode(nodes[1])));
+        assertNull(AddressPool.single(nodes[1], 0).get(0));
+    }
+
+    @Test
+    public void testReuseSlots() {
+        final Node[] departed = TestNodes.create(5000);
+        final AddrMessage message = AddressPool.batch(0, departed);
+        for (Node node : departed) {
+            AddressPool.release(node);
+        }
+
+        // the slots of the departed nodes are used by the new ones
+        final Node[] nodes = TestNodes.create(5000);
+        assertContent(nodes, AddressPool.batch(0, nodes));
+        for (int i = 0; i < departed.length; i++) {
+            assertNull(message.get(i));
+        }
+    }
+}
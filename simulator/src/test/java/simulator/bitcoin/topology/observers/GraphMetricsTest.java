@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.bitcoin.topology.observers;
+
+import org.junit.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public final class GraphMetricsTest {
+
+    private static final double DELTA = 1e-6;
+
+    /**
+     * Build a snapshot with n nodes (with IDs 100, 101, ...) and the given undirected edges.
+     */
+    private static OverlaySnapshot snapshot(int n, long[] partitions, int[]... edges) {
+        final List<List<Integer>> neighbours = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            neighbours.add(new ArrayList<>());
+        }
+        for (int[] edge : edges) {
+            neighbours.get(edge[0]).add(edge[1]);
+            neighbours.get(edge[1]).add(edge[0]);
+        }
+        final int[] ids = new int[n];
+        final int[] offsets = new int[n + 1];
+        final int[] targets = new int[2 * edges.length];
+        for (int i = 0; i < n; i++) {
+            ids[i] = 100 + i;
+            offsets[i + 1] = offsets[i] + neighbours.get(i).size();
+            for (int j = 0; j < neighbours.get(i).size(); j++) {
+                targets[offsets[i] + j] = neighbours.get(i).get(j);
+            }
+            Arrays.sort(targets, offsets[i], offsets[i + 1]);
+        }
+        return new OverlaySnapshot(42, ids, offsets, targets, partitions);
+    }
+
+    @Test
+    public void testClustering() {
+        // triangle 0-1-2 with node 3 attached to node 2
+        final OverlaySnapshot snapshot = snapshot(4, null, new int[]{0, 1}, new int[]{1, 2}, new int[]{0, 2},
+            new int[]{2, 3});
+        assertEquals(1, snapshot.commonNeighbours(0, 1));
+        assertEquals(0, snapshot.commonNeighbours(2, 3));
+
+        final GraphMetrics metrics = GraphMetrics.compute(snapshot, new int[]{0}, 100);
+        assertEquals(42, metrics.time);
+        assertEquals(4, metrics.nodes);
+        assertEquals(4, metrics.edges);
+        assertEquals(1, metrics.components);
+        assertEquals(4, metrics.largestComponent);
+        assertEquals(2, metrics.diameter);
+        assertEquals((1 + 1 + 1.0 / 3 + 0) / 4, metrics.clustering, DELTA);
+        assertEquals(-1, metrics.crossingEdges);
+    }
+
+    @Test
+    public void testDistances() {
+        // path 0-1-2-3-4: the double sweep finds the exact diameter from any node
+        final OverlaySnapshot snapshot = snapshot(5, null, new int[]{0, 1}, new int[]{1, 2}, new int[]{2, 3},
+            new int[]{3, 4});
+        final GraphMetrics metrics = GraphMetrics.compute(snapshot, new int[]{2, 0}, 100);
+        assertEquals(4, metrics.diameter);
+        // from 2: 1 + 1 + 2 + 2, from 0: 1 + 2 + 3 + 4
+        assertEquals((6.0 + 10.0) / 8, metrics.averageDistance, DELTA);
+        assertEquals(0, metrics.clustering, DELTA);
+    }
+
+    @Test
+    public void testComponents() {
+        // 2 disconnected edges and an isolated node
+        final OverlaySnapshot snapshot = snapshot(5, null, new int[]{0, 1}, new int[]{2, 3});
+        final GraphMetrics metrics = GraphMetrics.compute(snapshot, new int[]{0, 4}, 100);
+        assertEquals(3, metrics.components);
+        assertEquals(2, metrics.largestComponent);
+        assertEquals(1, metrics.diameter);
+        assertEquals(1.0, metrics.averageDistance, DELTA);
+    }
+
+    @Test
+    public void testCrossingEdges() {
+        final long[] partitions = new long[]{0, 0, 1, 1};
+        final OverlaySnapshot snapshot = snapshot(4, partitions, new int[]{0, 1}, new int[]{1, 2},
+            new int[]{2, 3}, new int[]{0, 3}, new int[]{0, 2});
+        final GraphMetrics metrics = GraphMetrics.compute(snapshot, new int[0], 100);
+        assertEquals(3, metrics.crossingEdges);
+    }
+
+    @Test
+    public void testCentrality() {
+        // star with center 0
+        final OverlaySnapshot snapshot = snapshot(5, null, new int[]{0, 1}, new int[]{0, 2}, new int[]{0, 3},
+            new int[]{0, 4});
+        final GraphMetrics metrics = GraphMetrics.compute(snapshot, new int[]{1}, 1000);
+        double norm = 0;
+        for (int i = 0; i < metrics.nodes; i++) {
+            assertEquals(100 + i, metrics.getId(i));
+            norm += metrics.getCentrality(i) * metrics.getCentrality(i);
+        }
+        assertEquals(1, norm, 1e-4);
+        for (int i = 2; i < metrics.nodes; i++) {
+            assertEquals(metrics.getCentrality(1), metrics.getCentrality(i), 1e-4);
+        }
+        assertTrue(metrics.getCentrality(0) > 1.5 * metrics.getCentrality(1));
+        assertTrue(metrics.iterations < 1000);
+    }
+
+    @Test
+    public void testEmpty() {
+        final GraphMetrics metrics = GraphMetrics.compute(snapshot(0, null), new int[0], 100);
+        assertEquals(0, metrics.nodes);
+        assertEquals(0, metrics.components);
+        assertEquals(0, metrics.iterations);
+    }
+
+    @Test
+    public void testWrite() throws IOException {
+        final OverlaySnapshot snapshot = snapshot(3, null, new int[]{0, 1}, new int[]{1, 2});
+        final GraphMetrics metrics = GraphMetrics.compute(snapshot, new int[]{0}, 100);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        GraphMetrics.writeHeader(out);
+        metrics.write(out);
+
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(GraphMetrics.MAGIC, in.readInt());
+        assertEquals(GraphMetrics.VERSION, in.readInt());
+        assertEquals(42, in.readLong());
+        assertEquals(3, in.readInt());
+        assertEquals(2, in.readLong());
+        assertEquals(1, in.readInt());
+        assertEquals(3, in.readInt());
+        assertEquals(2, in.readInt());
+        assertEquals(metrics.averageDistance, in.readDouble(), 0);
+        assertEquals(metrics.clustering, in.readDouble(), 0);
+        assertEquals(-1, in.readLong());
+        assertEquals(metrics.iterations, in.readInt());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(100 + i, in.readInt());
+            assertEquals(metrics.getCentrality(i), in.readFloat(), 0);
+        }
+        assertEquals(0, in.available());
+    }
+}
@@ -34,9 +34,9 @@ public final class ArrayUtilitiesTest {
 
     private final BiFunction<Block, Long, Boolean> comparator = (block, timestamp) -> block.timestamp <= timestamp;
 
-    private final Block a = Blocks.GENESIS;
-    private final Block b = Blocks.nextBlock(a, new TransactionsWrapper(0), 5);
-    private final Block c = Blocks.nextBlock(b, new TransactionsWrapper(0), 10);
+    private final Block a = Blocks.getGenesis();
+    private final Block b = Blocks.nextBlock(a, TransactionsWrapper.EMPTY, 5);
+    private final Block c = Blocks.nextBlock(b, TransactionsWrapper.EMPTY, 10);
     private final List<Block> blocks = Arrays.asList(a, b, c);
 
     @Test
@@ -53,7 +53,7 @@ public final class ArrayUtilitiesTest {
 
     @Test
     public void testBinarySearchWithOneItem() {
-        final List<Block> blocks = Collections.singletonList(Blocks.GENESIS);
+        final List<Block> blocks = Collections.singletonList(Blocks.getGenesis());
         assertEquals(0, binarySearch(blocks, 0, comparator));
     }
 
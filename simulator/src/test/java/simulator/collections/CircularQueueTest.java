@@ -137,4 +137,20 @@ public final class CircularQueueTest {
 		assertNull(queue.dequeue());
 		assertEquals(4, queue._bufferSize());
 	}
+
+	@Test
+	public void copyConstructor() {
+		queue.enqueue(ELEMENT_0);
+		queue.enqueue(ELEMENT_1);
+		final CircularQueue<Object> copy = new CircularQueue<>(queue);
+		assertSame(ELEMENT_0, queue.dequeue());
+		copy.enqueue(ELEMENT_2);
+
+		assertSame(ELEMENT_0, copy.dequeue());
+		assertSame(ELEMENT_1, copy.dequeue());
+		assertSame(ELEMENT_2, copy.dequeue());
+		assertNull(copy.dequeue());
+		assertSame(ELEMENT_1, queue.dequeue());
+		assertNull(queue.dequeue());
+	}
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.collections;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public final class IntIntMapTest {
+
+    private final IntIntMap map;
+
+    public IntIntMapTest() {
+        this.map = new IntIntMap(2);
+    }
+
+    @Test
+    public void testEmptyMap() {
+        assertTrue(map.isEmpty());
+        assertEquals(0, map.size());
+        assertEquals(IntIntMap.MISSING, map.get(0));
+        assertFalse(map.containsKey(0));
+        assertEquals(IntIntMap.MISSING, map.remove(0));
+    }
+
+    @Test
+    public void testPutAndGet() {
+        assertEquals(IntIntMap.MISSING, map.put(10, 1));
+        assertEquals(IntIntMap.MISSING, map.put(20, 2));
+        assertEquals(IntIntMap.MISSING, map.put(30, 3));
+        assertEquals(3, map.size());
+        assertEquals(1, map.get(10));
+        assertEquals(2, map.get(20));
+        assertEquals(3, map.get(30));
+        assertEquals(IntIntMap.MISSING, map.get(40));
+        assertEquals(8, map._capacity());
+    }
+
+    @Test
+    public void testPutReplace() {
+        map.put(10, 1);
+        assertEquals(1, map.put(10, 5));
+        assertEquals(1, map.size());
+        assertEquals(5, map.get(10));
+    }
+
+    @Test
+    public void testRemove() {
+        testPutAndGet();
+        assertEquals(2, map.remove(20));
+        assertEquals(IntIntMap.MISSING, map.remove(20));
+        assertEquals(2, map.size());
+        assertEquals(1, map.get(10));
+        assertEquals(IntIntMap.MISSING, map.get(20));
+        assertEquals(3, map.get(30));
+    }
+
+    @Test
+    public void testClear() {
+        testPutAndGet();
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(IntIntMap.MISSING, map.get(10));
+        testPutAndGet();
+    }
+
+    @Test
+    public void testCopyConstructor() {
+        testPutAndGet();
+        final IntIntMap copy = new IntIntMap(map);
+        copy.remove(10);
+        copy.put(40, 4);
+        assertEquals(1, map.get(10));
+        assertEquals(IntIntMap.MISSING, map.get(40));
+        assertEquals(IntIntMap.MISSING, copy.get(10));
+        assertEquals(4, copy.get(40));
+    }
+
+    @Test
+    public void testCopyConstructorWriteOriginal() {
+        testPutAndGet();
+        final IntIntMap copy = new IntIntMap(map);
+        map.put(40, 4);
+        map.remove(20);
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(3, copy.size());
+        assertEquals(2, copy.get(20));
+        assertEquals(IntIntMap.MISSING, copy.get(40));
+    }
+
+    @Test
+    public void smokeTest() {
+        final Random random = new Random(42);
+        final Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 100000; i++) {
+            final int key = random.nextInt(1000);
+            if (random.nextBoolean()) {
+                final int value = random.nextInt(1000);
+                final Integer old = expected.put(key, value);
+                assertEquals(old == null ? IntIntMap.MISSING : old, map.put(key, value));
+            } else {
+                final Integer old = expected.remove(key);
+                assertEquals(old == null ? IntIntMap.MISSING : old, map.remove(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (int key = 0; key < 1000; key++) {
+            final Integer value = expected.get(key);
+            assertEquals(value == null ? IntIntMap.MISSING : value, map.get(key));
+        }
+    }
+}
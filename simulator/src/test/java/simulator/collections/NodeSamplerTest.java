@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.collections;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+import peersim.core.Node;
+import peersim.junit.PeersimClassRule;
+import peersim.junit.TestNodes;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public final class NodeSamplerTest {
+
+    @ClassRule
+    public static final PeersimClassRule peersimClassRule = new PeersimClassRule();
+
+    private static NodeSet set(int n) {
+        final NodeSet set = new NodeSet();
+        for (Node node : TestNodes.create(n)) {
+            set.add(node);
+        }
+        return set;
+    }
+
+    @Test
+    public void testEmptySet() {
+        final NodeSampler sampler = new NodeSampler();
+        sampler.reset(new NodeSet(), new Random(0));
+        assertFalse(sampler.hasNext());
+    }
+
+    @Test
+    public void testPermutation() {
+        final NodeSet set = set(50);
+        final NodeSampler sampler = new NodeSampler();
+        final Random random = new Random(42);
+        for (int run = 0; run < 3; run++) {
+            sampler.reset(set, random);
+            final Set<Node> seen = new HashSet<>();
+            while (sampler.hasNext()) {
+                final Node node = sampler.next();
+                assertTrue(set.contains(node));
+                assertTrue(seen.add(node));
+            }
+            assertEquals(set.size(), seen.size());
+        }
+    }
+
+    @Test
+    public void testResetAfterPartialPermutation() {
+        final NodeSet large = set(1000);
+        final NodeSet small = set(10);
+        final NodeSampler sampler = new NodeSampler();
+        final Random random = new Random(42);
+        for (int run = 0; run < 10; run++) {
+            sampler.reset(large, random);
+            for (int i = 0; i < 100; i++) {
+                assertTrue(large.contains(sampler.next()));
+            }
+
+            // the swaps of the previous permutation must not leak into the new one
+            sampler.reset(small, random);
+            final Set<Node> seen = new HashSet<>();
+            while (sampler.hasNext()) {
+                final Node node = sampler.next();
+                assertTrue(small.contains(node));
+                assertTrue(seen.add(node));
+            }
+            assertEquals(small.size(), seen.size());
+        }
+    }
+
+    @Test
+    public void testPositions() {
+        final NodeSampler sampler = new NodeSampler();
+        final Random random = new Random(42);
+        sampler.reset(set(20), random);
+        sampler.next();
+        sampler.reset(7, random);
+        final Set<Integer> seen = new HashSet<>();
+        while (sampler.hasNext()) {
+            final int position = sampler.nextPosition();
+            assertTrue(position >= 0 && position < 7);
+            assertTrue(seen.add(position));
+        }
+        assertEquals(7, seen.size());
+    }
+
+    @Test
+    public void testSecondNodeIsUniform() {
+        final NodeSet set = set(5);
+        final NodeSampler sampler = new NodeSampler();
+        final Random random = new Random(42);
+        final int[] counts = new int[set.size()];
+        for (int i = 0; i < 10000; i++) {
+            sampler.reset(set, random);
+            sampler.next();
+            final Node second = sampler.next();
+            for (int j = 0; j < set.size(); j++) {
+                if (set.get(j) == second) {
+                    counts[j]++;
+                }
+            }
+        }
+        for (int count : counts) {
+            // each node is the second one with probability 1/5
+            assertEquals(2000, count, 150);
+        }
+    }
+}
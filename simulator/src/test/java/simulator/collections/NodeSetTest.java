@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.collections;
+
+import org.junit.ClassRule;
+import org.junit.Test;
+import peersim.core.Node;
+import peersim.junit.PeersimClassRule;
+import peersim.junit.TestNodes;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public final class NodeSetTest {
+
+    @ClassRule
+    public static final PeersimClassRule peersimClassRule = new PeersimClassRule();
+
+    @Test
+    public void testEmptySet() {
+        final NodeSet set = new NodeSet();
+        assertEquals(0, set.size());
+        assertEquals(0, set.toArray().length);
+        assertEquals(0, set.sample(0, new Random(0)).length);
+    }
+
+    @Test
+    public void testAddWithoutDuplicates() {
+        final Node[] nodes = TestNodes.create(3);
+        final NodeSet set = new NodeSet();
+        assertTrue(set.add(nodes[0]));
+        assertTrue(set.add(nodes[1]));
+        assertFalse(set.add(nodes[0]));
+        assertTrue(set.add(nodes[2]));
+        assertEquals(3, set.size());
+        assertTrue(set.contains(nodes[1]));
+        assertArrayEquals(nodes, set.toArray());
+    }
+
+    @Test
+    public void testRemove() {
+        final Node[] nodes = TestNodes.create(4);
+        final NodeSet set = new NodeSet();
+        for (Node node : nodes) {
+            set.add(node);
+        }
+        assertTrue(set.remove(nodes[1]));
+        assertFalse(set.remove(nodes[1]));
+        assertFalse(set.contains(nodes[1]));
+        assertArrayEquals(new Node[]{nodes[0], nodes[3], nodes[2]}, set.toArray());
+        assertTrue(set.remove(nodes[2]));
+        assertTrue(set.add(nodes[1]));
+        assertArrayEquals(new Node[]{nodes[0], nodes[3], nodes[1]}, set.toArray());
+    }
+
+    @Test
+    public void testGetById() {
+        final Node[] nodes = TestNodes.create(2);
+        final NodeSet set = new NodeSet();
+        set.add(nodes[0]);
+        assertSame(nodes[0], set.getById(nodes[0].getID()));
+        assertNull(set.getById(nodes[1].getID()));
+    }
+
+    @Test
+    public void testCopyConstructor() {
+        final Node[] nodes = TestNodes.create(3);
+        final NodeSet set = new NodeSet();
+        set.add(nodes[0]);
+        final NodeSet copy = new NodeSet(set);
+        copy.add(nodes[1]);
+        set.add(nodes[2]);
+        assertArrayEquals(new Node[]{nodes[0], nodes[1]}, copy.toArray());
+        assertArrayEquals(new Node[]{nodes[0], nodes[2]}, set.toArray());
+    }
+
+    @Test
+    public void testSampleWithoutReplacement() {
+        final Node[] nodes = TestNodes.create(50);
+        final NodeSet set = new NodeSet();
+        for (Node node : nodes) {
+            set.add(node);
+        }
+        final Random random = new Random(42);
+        for (int k = 0; k <= nodes.length; k++) {
+            final Node[] sample = set.sample(k, random);
+            final Set<Node> distinct = new HashSet<>();
+            for (Node node : sample) {
+                assertTrue(set.contains(node));
+                distinct.add(node);
+            }
+            assertEquals(k, distinct.size());
+        }
+    }
+
+    @Test
+    public void testSampleIsUniform() {
+        final Node[] nodes = TestNodes.create(5);
+        final NodeSet set = new NodeSet();
+        for (Node node : nodes) {
+            set.add(node);
+        }
+        final Random random = new Random(42);
+        final int[] counts = new int[nodes.length];
+        for (int i = 0; i < 10000; i++) {
+            for (Node node : set.sample(2, random)) {
+                for (int j = 0; j < nodes.length; j++) {
+                    if (nodes[j] == node) {
+                        counts[j]++;
+                    }
+                }
+            }
+        }
+        for (int count : counts) {
+            // each node is selected with probability 2/5
+            assertEquals(4000, count, 200);
+        }
+    }
+}
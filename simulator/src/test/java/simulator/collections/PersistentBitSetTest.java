@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.collections;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public final class PersistentBitSetTest {
+
+    @Test
+    public void testEmptySet() {
+        assertFalse(PersistentBitSet.EMPTY.get(0));
+        assertFalse(PersistentBitSet.EMPTY.get(Integer.MAX_VALUE));
+        assertSame(PersistentBitSet.EMPTY, PersistentBitSet.EMPTY.with(new int[]{1, 2}, 0));
+    }
+
+    @Test
+    public void testWith() {
+        final PersistentBitSet set = PersistentBitSet.EMPTY.with(new int[]{5, 3, 100000, 0}, 4);
+        assertTrue(set.get(0));
+        assertTrue(set.get(3));
+        assertTrue(set.get(5));
+        assertTrue(set.get(100000));
+        assertFalse(set.get(4));
+        assertFalse(set.get(99999));
+        assertFalse(set.get(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testOriginalIsNotModified() {
+        final PersistentBitSet a = PersistentBitSet.EMPTY.with(new int[]{1, 2}, 2);
+        final PersistentBitSet b = a.with(new int[]{3, 5000000}, 2);
+        final PersistentBitSet c = a.with(new int[]{4}, 1);
+        assertTrue(a.get(1) && a.get(2) && !a.get(3) && !a.get(4) && !a.get(5000000));
+        assertTrue(b.get(1) && b.get(2) && b.get(3) && !b.get(4) && b.get(5000000));
+        assertTrue(c.get(1) && c.get(2) && !c.get(3) && c.get(4) && !c.get(5000000));
+    }
+
+    @Test
+    public void smokeTest() {
+        final Random random = new Random(42);
+        final BitSet expected = new BitSet();
+        PersistentBitSet set = PersistentBitSet.EMPTY;
+        for (int i = 0; i < 1000; i++) {
+            final int[] indexes = new int[random.nextInt(30)];
+            for (int j = 0; j < indexes.length; j++) {
+                indexes[j] = random.nextInt(1 << 20);
+                expected.set(indexes[j]);
+            }
+            set = set.with(indexes, indexes.length);
+        }
+        for (int i = 0; i < 1 << 20; i++) {
+            assertEquals(expected.get(i), set.get(i));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public final class RollingBloomFilterTest {
+
+    @Test
+    public void testEmptyFilter() {
+        final RollingBloomFilter filter = new RollingBloomFilter(100, 0.001);
+        for (int key = 0; key < 1000; key++) {
+            assertFalse(filter.contains(key));
+        }
+    }
+
+    @Test
+    public void testRemembersRecentKeys() {
+        final RollingBloomFilter filter = new RollingBloomFilter(100, 0.001);
+        for (int key = 0; key < 1000; key++) {
+            filter.insert(key);
+            for (int recent = Math.max(0, key - 99); recent <= key; recent++) {
+                assertTrue(filter.contains(recent));
+            }
+        }
+    }
+
+    @Test
+    public void testForgetsOldKeys() {
+        final RollingBloomFilter filter = new RollingBloomFilter(100, 0.001);
+        for (int key = 0; key < 1000; key++) {
+            filter.insert(key);
+        }
+        int falsePositives = 0;
+        for (int key = 0; key < 800; key++) {
+            if (filter.contains(key)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 5);
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        final RollingBloomFilter filter = new RollingBloomFilter(5000, 0.001);
+        for (int key = 0; key < 5000; key++) {
+            filter.insert(key);
+        }
+        int falsePositives = 0;
+        for (int key = 5000; key < 105000; key++) {
+            if (filter.contains(key)) {
+                falsePositives++;
+            }
+        }
+        // expected about 100 false positives
+        assertTrue(falsePositives < 200);
+    }
+
+    @Test
+    public void testMemoryGrowsWithInsertions() {
+        final RollingBloomFilter filter = new RollingBloomFilter(5000, 0.001);
+        assertEquals(0, filter._memory());
+        for (int key = 0; key < 100; key++) {
+            filter.insert(key);
+        }
+        assertTrue(filter._memory() <= 1024);
+
+        // the exact set is turned into the bloom filter, which never grows
+        int maxMemory = 0;
+        for (int key = 100; key < 3000; key++) {
+            filter.insert(key);
+            maxMemory = Math.max(maxMemory, filter._memory());
+        }
+        assertEquals(maxMemory, filter._memory());
+        for (int key = 0; key < 3000; key++) {
+            assertTrue(filter.contains(key));
+        }
+    }
+
+    @Test
+    public void testClear() {
+        final RollingBloomFilter filter = new RollingBloomFilter(100, 0.001);
+        filter.clear();
+        for (int key = 0; key < 120; key++) {
+            filter.insert(key);
+        }
+        filter.clear();
+        assertEquals(0, filter._memory());
+        for (int key = 0; key < 120; key++) {
+            assertFalse(filter.contains(key));
+        }
+        filter.insert(1000);
+        assertTrue(filter.contains(1000));
+    }
+
+    @Test
+    public void testCopyConstructor() {
+        final RollingBloomFilter filter = new RollingBloomFilter(100, 0.001);
+        final RollingBloomFilter emptyCopy = new RollingBloomFilter(filter);
+        filter.insert(1);
+        assertFalse(emptyCopy.contains(1));
+        final RollingBloomFilter copy = new RollingBloomFilter(filter);
+        copy.insert(2);
+        assertTrue(copy.contains(1));
+        assertFalse(filter.contains(2));
+
+        // the copy of a bloom filter is independent too
+        for (int key = 10; key < 1000; key++) {
+            filter.insert(key);
+        }
+        final RollingBloomFilter bloomCopy = new RollingBloomFilter(filter);
+        bloomCopy.insert(5);
+        assertTrue(bloomCopy.contains(999));
+        assertFalse(filter.contains(5));
+    }
+}
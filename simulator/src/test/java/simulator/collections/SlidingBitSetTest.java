@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2018 Davide Pedranz. All rights reserved.
+ *
+ * This code is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package simulator.collections;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public final class SlidingBitSetTest {
+
+    @Test
+    public void testEmptySet() {
+        final SlidingBitSet set = new SlidingBitSet();
+        assertFalse(set.get(0));
+        assertFalse(set.get(1000));
+        assertEquals(-1, set.nextSetBit(0));
+        assertEquals(0, set.nextClearBit(0));
+        assertEquals(0, set._windowLength());
+    }
+
+    @Test
+    public void testTruePrefixSlides() {
+        final SlidingBitSet set = new SlidingBitSet(true);
+        for (int i = 0; i < 1000; i++) {
+            set.set(i);
+        }
+        assertTrue(set.get(0));
+        assertTrue(set.get(999));
+        assertFalse(set.get(1000));
+        assertEquals(1000, set.nextClearBit(0));
+        assertEquals(1, set._windowLength());
+
+        // an exception far ahead only keeps the words in between
+        set.set(1100);
+        assertEquals(1000, set.nextClearBit(0));
+        assertEquals(1100, set.nextSetBit(1001));
+        assertEquals(3, set._windowLength());
+    }
+
+    @Test
+    public void testTruePrefixClearBeforeWindow() {
+        final SlidingBitSet set = new SlidingBitSet(true);
+        for (int i = 0; i < 1000; i++) {
+            set.set(i);
+        }
+        set.clear(10);
+        assertFalse(set.get(10));
+        assertTrue(set.get(11));
+        assertEquals(10, set.nextClearBit(0));
+        set.set(10);
+        assertEquals(1000, set.nextClearBit(0));
+        assertEquals(1, set._windowLength());
+    }
+
+    @Test
+    public void testSetAllBelow() {
+        final SlidingBitSet set = new SlidingBitSet(true);
+        set.set(500);
+        set.set(1000);
+        set.setAllBelow(700);
+        assertTrue(set.get(0));
+        assertTrue(set.get(699));
+        assertFalse(set.get(700));
+        assertTrue(set.get(1000));
+        assertEquals(700, set.nextClearBit(0));
+        set.setAllBelow(2048);
+        assertEquals(2048, set.nextClearBit(0));
+        assertEquals(0, set._windowLength());
+    }
+
+    @Test
+    public void testFalsePrefixSlides() {
+        final SlidingBitSet set = new SlidingBitSet(false);
+        set.set(100000);
+        assertEquals(1, set._windowLength());
+        assertEquals(100000, set.nextSetBit(0));
+        set.set(5);
+        assertEquals(5, set.nextSetBit(0));
+        set.clear(5);
+        set.clear(100000);
+        assertEquals(-1, set.nextSetBit(0));
+        assertEquals(0, set._windowLength());
+    }
+
+    @Test
+    public void testCopyConstructor() {
+        final SlidingBitSet set = new SlidingBitSet(true);
+        set.set(0);
+        set.set(2);
+        final SlidingBitSet copy = new SlidingBitSet(set);
+        copy.set(1);
+        assertFalse(set.get(1));
+        assertTrue(copy.get(1));
+        assertEquals(1, set.nextClearBit(0));
+        assertEquals(3, copy.nextClearBit(0));
+    }
+
+    @Test
+    public void smokeTest() {
+        smokeTest(true);
+        smokeTest(false);
+    }
+
+    private static void smokeTest(boolean prefix) {
+        final Random random = new Random(42);
+        final SlidingBitSet set = new SlidingBitSet(prefix);
+        final BitSet expected = new BitSet();
+        int watermark = 0;
+        for (int i = 0; i < 100000; i++) {
+            // mostly add IDs close to the watermark, sometimes remove them
+            final int index = Math.max(0, watermark + random.nextInt(200) - 20);
+            final boolean value = random.nextInt(10) > 0;
+            set.set(index, value);
+            expected.set(index, value);
+            if (index == watermark) {
+                watermark++;
+            }
+            final int query = random.nextInt(watermark + 300);
+            assertEquals(expected.get(query), set.get(query));
+            assertEquals(expected.nextSetBit(query), set.nextSetBit(query));
+            assertEquals(expected.nextClearBit(query), set.nextClearBit(query));
+            assertEquals(expected.cardinality(), set.cardinality());
+        }
+    }
+}